@@ -0,0 +1,137 @@
+package org.umcn.gen.tamatoa;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates trend files shaped like the ones of each DataType: tab separated WGS and WES files with a column
+ * per metric, WES taking its date from the filename, and comma separated LRS files with the instrument's
+ * column names. Metric values cycle through integers, decimals, missing values and text. The content only
+ * depends on the arguments, so runs of a benchmark are comparable.
+ */
+final class BenchmarkInput {
+
+    // Number of rows sharing an experiment, like the samples of one sequencing run
+    private static final int ROWS_PER_EXPERIMENT = 48;
+
+    private BenchmarkInput() {
+    }
+
+    /**
+     * Writes a trend file.
+     *
+     * @param dataType  The DataType whose layout is generated.
+     * @param rows      The number of data rows.
+     * @param columns   The number of metric columns.
+     * @param directory The directory to write the file in.
+     * @return The file, named like the trend files of the DataType.
+     * @throws IOException If the file can not be written.
+     */
+    static File writeFile(DataType dataType, int rows, int columns, File directory) throws IOException {
+        File file = new File(directory, dataType == DataType.WES ? "trend_exome_2024_06_10.csv" : "trend_" + dataType.name().toLowerCase() + ".csv");
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(headerLine(dataType, columns));
+            writer.write('\n');
+            for (String line : dataLines(dataType, rows, columns)) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        }
+        return file;
+    }
+
+    /**
+     * @param dataType The DataType whose layout is generated.
+     * @param columns  The number of metric columns.
+     * @return The header line of a trend file.
+     */
+    static String headerLine(DataType dataType, int columns) {
+        String delimiter = dataType.getDelimiter();
+        StringBuilder header = new StringBuilder();
+        switch (dataType) {
+            case LRS:
+                header.append("Run Name,Sample Name,Transfer Complete,Instrument,Run Comments");
+                break;
+            case WES:
+                header.append("sampleid\texperiment_name\trunid");
+                break;
+            default:
+                header.append("sampleid\texperiment_name\tanalysis_date\trunid");
+        }
+        for (int c = 0; c < columns; c++) {
+            header.append(delimiter).append(metricName(c));
+        }
+        return header.toString();
+    }
+
+    /**
+     * @param dataType The DataType whose layout is generated.
+     * @param rows     The number of data rows.
+     * @param columns  The number of metric columns.
+     * @return The data lines of a trend file.
+     */
+    static List<String> dataLines(DataType dataType, int rows, int columns) {
+        Random random = new Random(rows * 31L + columns);
+        String delimiter = dataType.getDelimiter();
+        List<String> lines = new ArrayList<>(rows);
+        for (int row = 0; row < rows; row++) {
+            int experiment = row / ROWS_PER_EXPERIMENT;
+            StringBuilder line = new StringBuilder();
+            switch (dataType) {
+                case LRS:
+                    line.append("RUN").append(experiment).append(",S").append(row)
+                            .append(',').append(1 + experiment % 12).append('.').append(1 + experiment % 28).append(".2024 7:58")
+                            .append(",84137,\"").append("run comment, with a delimiter\"");
+                    break;
+                case WES:
+                    line.append('S').append(row).append("\tEXP").append(experiment).append("\tRUN").append(experiment);
+                    break;
+                default:
+                    line.append('S').append(row).append("\tEXP").append(experiment)
+                            .append('\t').append(1 + experiment % 28).append('-').append(1 + experiment % 12).append("-2024")
+                            .append("\tRUN").append(experiment);
+            }
+            for (int c = 0; c < columns; c++) {
+                line.append(delimiter).append(metricValue(c, random));
+            }
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+
+    /**
+     * Names the metric columns like the ones the header normalization has to rewrite.
+     */
+    private static String metricName(int column) {
+        switch (column % 4) {
+            case 0:
+                return "Percentage of reads (%) " + column;
+            case 1:
+                return "Coverage > 20x " + column;
+            case 2:
+                return "Insert length mean " + column;
+            default:
+                return "\"Het/Hom ratio\" " + column;
+        }
+    }
+
+    private static String metricValue(int column, Random random) {
+        switch (column % 4) {
+            case 0:
+                return Integer.toString(random.nextInt(1_000_000));
+            case 1:
+                return String.format(Locale.ROOT, "%.4f", random.nextDouble() * 100);
+            case 2:
+                return random.nextInt(10) == 0 ? "NA" : random.nextInt(500) + ".0";
+            default:
+                return "kit " + column % 7;
+        }
+    }
+}
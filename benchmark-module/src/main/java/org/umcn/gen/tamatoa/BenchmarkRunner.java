@@ -0,0 +1,43 @@
+package org.umcn.gen.tamatoa;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+
+/**
+ * Runs the benchmarks with the JMH command line options, e.g. {@code -p rows=10000 -p columns=500 ParserBenchmark}.
+ * Unless other profilers are given with -prof, the GC profiler is added so the allocation rate is reported
+ * next to the throughput.
+ */
+public class BenchmarkRunner {
+
+    /**
+     * @param args The JMH command line options, -h lists them.
+     * @throws CommandLineOptionException If the options can not be parsed.
+     * @throws RunnerException            If a benchmark fails.
+     * @throws IOException                If the help can not be printed.
+     */
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException, IOException {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        if (commandLineOptions.shouldHelp()) {
+            commandLineOptions.showHelp();
+            return;
+        }
+        if (commandLineOptions.shouldList()) {
+            new Runner(commandLineOptions).list();
+            return;
+        }
+
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLineOptions);
+        if (commandLineOptions.getProfilers().isEmpty()) {
+            options.addProfiler(GCProfiler.class);
+        }
+        new Runner(options.build()).run();
+    }
+}
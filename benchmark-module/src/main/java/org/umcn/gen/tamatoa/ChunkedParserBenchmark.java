@@ -0,0 +1,73 @@
+package org.umcn.gen.tamatoa;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks reading one large trend file with a growing number of parse threads, to see how the parse time of
+ * a single file scales with cores. With one thread the file is read line by line, with more threads it is
+ * memory-mapped and parsed in parallel chunks. The rows are consumed in file order as the ingest does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ChunkedParserBenchmark {
+
+    @Param({"WGS"})
+    public DataType dataType;
+
+    @Param({"20000"})
+    public int rows;
+
+    @Param({"300"})
+    public int columns;
+
+    @Param({"1", "2", "4", "8"})
+    public int parseThreads;
+
+    private File directory;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("tamatoa-bench").toFile();
+        file = BenchmarkInput.writeFile(dataType, rows, columns, directory);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+        directory.delete();
+    }
+
+    /**
+     * Reads and parses the whole file, parsing in parallel regardless of its size when there is more than one thread.
+     */
+    @Benchmark
+    public void readLargeFile(Blackhole blackhole) throws IOException {
+        try (CsvRowReader reader = new CsvRowReader(file, dataType, 0, Long.MAX_VALUE, parseThreads, 0,
+                MappedChunkParser.DEFAULT_CHUNK_BYTES)) {
+            reader.forEachRemaining(blackhole::consume);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.umcn.gen.tamatoa;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the mapping of parsed rows to what is written to the database, without a database: laying out
+ * the numeric metrics of a row by metric key identifier, as the row-by-row inserter does, and encoding rows
+ * in the COPY text format, as the bulk loader does. One operation maps all rows of a generated file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InserterBenchmark {
+
+    @Param({"WGS", "WES", "LRS"})
+    public DataType dataType;
+
+    @Param({"1000"})
+    public int rows;
+
+    @Param({"300"})
+    public int columns;
+
+    private List<CsvData> csvData;
+    private CsvDataInserter inserter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        File directory = Files.createTempDirectory("tamatoa-bench").toFile();
+        File file = BenchmarkInput.writeFile(dataType, rows, columns, directory);
+        csvData = CsvParser.readCsvFile(file, dataType);
+        file.delete();
+        directory.delete();
+
+        // Number the metric keys like Metric_Key would, so no lookup reaches the database
+        IdentityCache identityCache = new IdentityCache();
+        short metricKeyId = 0;
+        for (CsvData row : csvData) {
+            for (int i = row.nextIndex(0); i >= 0; i = row.nextIndex(i + 1)) {
+                String key = row.getSchema().name(i);
+                if (row.getSchema().isMetric(i) && identityCache.getMetricKeyId(key) == null) {
+                    identityCache.putMetricKeyId(key, ++metricKeyId);
+                }
+            }
+        }
+        inserter = new CsvDataInserter(null, CsvDataInserter.DEFAULT_BATCH_SIZE, identityCache);
+    }
+
+    /**
+     * Lays out the numeric metrics of every row by metric key identifier.
+     */
+    @Benchmark
+    public void mapMetricValues(Blackhole blackhole) {
+        for (CsvData row : csvData) {
+            blackhole.consume(inserter.metricValuesByKeyId(row));
+        }
+    }
+
+    /**
+     * Encodes every row as a Staging_Sample row in the COPY text format, discarding the bytes.
+     */
+    @Benchmark
+    public long encodeStagingRows() throws IOException {
+        CopyTextEncoder encoder = new CopyTextEncoder(OutputStream.nullOutputStream());
+        List<String> keys = new ArrayList<>();
+        List<String> numbers = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        int rowNumber = 0;
+        for (CsvData row : csvData) {
+            CsvDataBulkLoader.encodeStagingRow(encoder, 1, ++rowNumber, row, keys, numbers, texts);
+        }
+        encoder.flush();
+        return encoder.getRowCount();
+    }
+}
@@ -0,0 +1,205 @@
+package org.umcn.gen.tamatoa;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Holds the options of a load test, parsed from the command line arguments of {@link LoadTestRunner#main}.
+ * Arguments have the form {@code --name=value}. The options of the generated files are handled here, all
+ * other arguments are ingest options and are parsed by {@link IngestOptions#parse}.
+ */
+public class LoadTestOptions {
+
+    private File output = null;
+    private Set<DataType> dataTypes = EnumSet.allOf(DataType.class);
+    private int files = 20;
+    private int scale = 1;
+    private int minSamples = 24;
+    private int maxSamples = 96;
+    private int minColumns = 150;
+    private int maxColumns = 400;
+    private double naDensity = 0.05;
+    private long seed = 1;
+    private boolean generateOnly = false;
+    private IngestOptions ingestOptions;
+
+    /**
+     * Parses the command line arguments into a LoadTestOptions object.
+     *
+     * @param args The command line arguments.
+     * @return The parsed options.
+     * @throws IllegalArgumentException If an argument is unknown or has an invalid value.
+     */
+    public static LoadTestOptions parse(String[] args) {
+        LoadTestOptions options = new LoadTestOptions();
+        List<String> ingestArgs = new ArrayList<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Expected an argument of the form --name=value, got: " + arg);
+            }
+            String name = arg.substring(2, separator);
+            String value = arg.substring(separator + 1);
+
+            switch (name) {
+                case "output":
+                    options.output = new File(value);
+                    break;
+                case "data-types":
+                    options.dataTypes = parseDataTypes(value);
+                    break;
+                case "files":
+                    options.files = parsePositiveInt(name, value);
+                    break;
+                case "scale":
+                    options.scale = parsePositiveInt(name, value);
+                    break;
+                case "samples":
+                    int[] samples = parseRange(name, value);
+                    options.minSamples = samples[0];
+                    options.maxSamples = samples[1];
+                    break;
+                case "columns":
+                    int[] columns = parseRange(name, value);
+                    options.minColumns = columns[0];
+                    options.maxColumns = columns[1];
+                    break;
+                case "na-density":
+                    options.naDensity = parseFraction(name, value);
+                    break;
+                case "seed":
+                    options.seed = parseLong(name, value);
+                    break;
+                case "generate-only":
+                    options.generateOnly = parseBoolean(name, value);
+                    break;
+                default:
+                    ingestArgs.add(arg);
+            }
+        }
+        options.ingestOptions = IngestOptions.parse(ingestArgs.toArray(new String[0]));
+        return options;
+    }
+
+    private static Set<DataType> parseDataTypes(String value) {
+        Set<DataType> dataTypes = EnumSet.noneOf(DataType.class);
+        for (String name : value.split(",")) {
+            try {
+                dataTypes.add(DataType.valueOf(name.trim().toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Argument --data-types expects WGS, WES or LRS, got: " + name);
+            }
+        }
+        return dataTypes;
+    }
+
+    // A single number or an inclusive range such as 24-96
+    private static int[] parseRange(String name, String value) {
+        int dash = value.indexOf('-');
+        int min = parsePositiveInt(name, dash < 0 ? value : value.substring(0, dash));
+        int max = dash < 0 ? min : parsePositiveInt(name, value.substring(dash + 1));
+        if (max < min) {
+            throw new IllegalArgumentException("Argument --" + name + " expects a range from low to high, got: " + value);
+        }
+        return new int[]{min, max};
+    }
+
+    private static int parsePositiveInt(String name, String value) {
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed > 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Argument --" + name + " expects a positive number, got: " + value);
+    }
+
+    private static long parseLong(String name, String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Argument --" + name + " expects a number, got: " + value);
+        }
+    }
+
+    private static double parseFraction(String name, String value) {
+        try {
+            double parsed = Double.parseDouble(value);
+            if (parsed >= 0 && parsed < 1) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Argument --" + name + " expects a fraction from 0 up to 1, got: " + value);
+    }
+
+    private static boolean parseBoolean(String name, String value) {
+        if ("true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value)) {
+            return Boolean.parseBoolean(value);
+        }
+        throw new IllegalArgumentException("Argument --" + name + " expects true or false, got: " + value);
+    }
+
+    /**
+     * @return The folder the files are generated in, or null to generate them in a new temporary folder.
+     */
+    public File getOutput() {
+        return output;
+    }
+
+    public Set<DataType> getDataTypes() {
+        return dataTypes;
+    }
+
+    /**
+     * @return The number of files generated per DataType, the number of files times the scale.
+     */
+    public int getFileCount() {
+        return files * scale;
+    }
+
+    public int getMinSamples() {
+        return minSamples;
+    }
+
+    public int getMaxSamples() {
+        return maxSamples;
+    }
+
+    public int getMinColumns() {
+        return minColumns;
+    }
+
+    public int getMaxColumns() {
+        return maxColumns;
+    }
+
+    /**
+     * @return The fraction of metric values that is missing, written as NA or left empty.
+     */
+    public double getNaDensity() {
+        return naDensity;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public boolean isGenerateOnly() {
+        return generateOnly;
+    }
+
+    /**
+     * @return The options the generated files are ingested with.
+     */
+    public IngestOptions getIngestOptions() {
+        return ingestOptions;
+    }
+}
@@ -0,0 +1,127 @@
+package org.umcn.gen.tamatoa;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Generates trend files and ingests them into a PostgreSQL database, reporting files, rows and metrics per
+ * second and the latency percentiles of every stage, to size the hardware for a larger archive.
+ * <p>
+ * Each file goes through the stages of {@link FolderReader#processFile}, measured one at a time: parsing the
+ * whole file, waiting for a pooled connection and writing the rows with the configured ingest mode. As the
+ * file is parsed before it is written, the sum of the stages is higher than with parse ahead.
+ * <p>
+ * The database is given with the system properties of {@link PostgresConnector}, e.g.
+ * {@code -Dtamatoa.db.url=jdbc:postgresql://localhost/qc_load_test}. Use a database of its own, the generated
+ * rows are not removed afterwards.
+ */
+public class LoadTestRunner {
+    private static final Logger LOG = LoggerFactory.getLogger(LoadTestRunner.class);
+
+    private static final double[] PERCENTILES = {50, 90, 99, 100};
+
+    public static void main(String[] args) {
+        try {
+            LoadTestOptions options = LoadTestOptions.parse(args);
+            File output = options.getOutput() != null
+                    ? options.getOutput()
+                    : Files.createTempDirectory("tamatoa-load-test").toFile();
+
+            TrendFileGenerator generator = new TrendFileGenerator(options);
+            for (DataType dataType : options.getDataTypes()) {
+                File folder = new File(output, dataType.name());
+                List<File> files = generator.generate(dataType, folder);
+                LOG.info("Generated {} files of Datatype: {} in {}", files.size(), dataType.name(), folder.getAbsolutePath());
+            }
+            if (options.isGenerateOnly()) {
+                return;
+            }
+
+            PostgresConnector.initPool(options.getIngestOptions().getPoolSize());
+            for (DataType dataType : options.getDataTypes()) {
+                run(dataType, new File(output, dataType.name()), options.getIngestOptions());
+            }
+        } catch (Exception e) {
+            System.err.println("An error occurred while running the load test: " + e.getMessage());
+        } finally {
+            PostgresConnector.shutdown();
+        }
+    }
+
+    /**
+     * Ingests the files of one folder and reports the throughput and the stage latencies.
+     *
+     * @param dataType The DataType of the files.
+     * @param folder   The folder holding the generated files.
+     * @param options  The options the files are ingested with.
+     * @throws IOException  If a file can not be read.
+     * @throws SQLException If the rows of a file can not be written.
+     */
+    static void run(DataType dataType, File folder, IngestOptions options) throws IOException, SQLException {
+        List<File> files = FolderReader.checkFolder(folder);
+        IdentityCache identityCache = new IdentityCache();
+        StageLatencies latencies = new StageLatencies();
+        long rowCount = 0;
+        long metricCount = 0;
+        long startTime = System.nanoTime();
+
+        for (File file : files) {
+            long fileStart = System.nanoTime();
+            List<CsvData> rows = CsvParser.readCsvFile(file, dataType);
+            long parsed = System.nanoTime();
+            latencies.record("parse", parsed - fileStart);
+
+            try (Connection connection = PostgresConnector.getConnection()) {
+                long connected = System.nanoTime();
+                latencies.record("connection wait", connected - parsed);
+                rowCount += FolderReader.writeRows(connection, rows.iterator(), file.getName(), dataType, options, identityCache);
+                latencies.record("write", System.nanoTime() - connected);
+            }
+            latencies.record("file", System.nanoTime() - fileStart);
+            metricCount += countMetrics(rows);
+        }
+
+        report(dataType, options.getMode(), files.size(), rowCount, metricCount, System.nanoTime() - startTime, latencies);
+    }
+
+    private static long countMetrics(List<CsvData> rows) {
+        long metrics = 0;
+        for (CsvData row : rows) {
+            for (int i = row.nextIndex(0); i >= 0; i = row.nextIndex(i + 1)) {
+                if (row.getSchema().isMetric(i)) {
+                    metrics++;
+                }
+            }
+        }
+        return metrics;
+    }
+
+    private static void report(DataType dataType, IngestMode mode, int fileCount, long rowCount, long metricCount,
+                               long elapsedNanos, StageLatencies latencies) {
+        double seconds = elapsedNanos / 1_000_000_000.0;
+        LOG.info("Load test of Datatype: {} using {} mode: {} files, {} rows, {} metrics in {} s",
+                dataType.name(), mode, fileCount, rowCount, metricCount, format(seconds));
+        LOG.info("Throughput: {} files/s, {} rows/s, {} metrics/s",
+                format(fileCount / seconds), format(rowCount / seconds), format(metricCount / seconds));
+        for (String stage : latencies.stages()) {
+            StringBuilder line = new StringBuilder();
+            for (double percentile : PERCENTILES) {
+                line.append(percentile == 100 ? " max=" : " p" + (int) percentile + "=")
+                        .append(format(latencies.percentile(stage, percentile) / 1_000_000.0)).append(" ms");
+            }
+            LOG.info("Stage {} ({} files):{}", stage, latencies.count(stage), line);
+        }
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.1f", value);
+    }
+}
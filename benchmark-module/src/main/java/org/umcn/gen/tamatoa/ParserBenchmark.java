@@ -0,0 +1,151 @@
+package org.umcn.gen.tamatoa;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the parsing of trend files, as a whole and per step: compiling the column plan of a header line,
+ * parsing the data lines, storing the metric values and resolving the analysis dates. One operation
+ * processes one generated file, so the throughput is in files per second; multiply by rows for rows per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param({"WGS", "WES", "LRS"})
+    public DataType dataType;
+
+    @Param({"1000"})
+    public int rows;
+
+    @Param({"300"})
+    public int columns;
+
+    private File directory;
+    private File file;
+    private String headerLine;
+    private List<String> dataLines;
+    private ColumnPlan plan;
+    private String[][] metricValues;
+    private RowSchema metricSchema;
+    private String[] dateValues;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("tamatoa-bench").toFile();
+        file = BenchmarkInput.writeFile(dataType, rows, columns, directory);
+        headerLine = BenchmarkInput.headerLine(dataType, columns);
+        dataLines = BenchmarkInput.dataLines(dataType, rows, columns);
+        plan = ColumnPlan.compile(headerLine, dataType);
+
+        // The metric columns follow the fixed columns, missing values are never stored
+        String delimiter = dataType.getDelimiter();
+        List<String> metricNames = new ArrayList<>(columns);
+        for (int c = 0; c < columns; c++) {
+            metricNames.add("metric_" + c);
+        }
+        metricSchema = RowSchema.of(metricNames);
+        metricValues = new String[rows][];
+        dateValues = new String[rows];
+        for (int row = 0; row < rows; row++) {
+            String[] fields = dataLines.get(row).split(delimiter);
+            List<String> values = new ArrayList<>(columns);
+            for (int c = fields.length - columns; c < fields.length; c++) {
+                values.add("NA".equals(fields[c]) ? null : fields[c]);
+            }
+            metricValues[row] = values.toArray(new String[0]);
+            dateValues[row] = dataType == DataType.WES ? file.getName() : fields[2];
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+        directory.delete();
+    }
+
+    /**
+     * Reads the whole file, from opening it to the list of parsed rows.
+     */
+    @Benchmark
+    public List<CsvData> readCsvFile() throws IOException {
+        return CsvParser.readCsvFile(file, dataType);
+    }
+
+    /**
+     * Normalizes the header names and derives the role and row schema index of every column, bypassing the cache
+     * of compiled plans.
+     */
+    @Benchmark
+    public ColumnPlan compileHeader() {
+        return ColumnPlan.compile(headerLine, dataType);
+    }
+
+    /**
+     * Parses the data lines of a file held in memory, without reading it.
+     */
+    @Benchmark
+    public void parseRows(Blackhole blackhole) {
+        ParseState state = new ParseState(file.getName(), dataType, plan);
+        for (String line : dataLines) {
+            blackhole.consume(CsvParser.parseRow(line, state));
+        }
+    }
+
+    /**
+     * Stores the metric values of a file in their rows as numbers or text, with the column types of one file,
+     * as the parser does for every data line.
+     */
+    @Benchmark
+    public void storeValues(Blackhole blackhole) {
+        ColumnTypes types = new ColumnTypes(columns);
+        for (String[] values : metricValues) {
+            CsvData row = new CsvData(file.getName(), dataType.name(), null, null, null, metricSchema);
+            for (int c = 0; c < values.length; c++) {
+                if (values[c] != null) {
+                    types.store(c, values[c], row, c);
+                }
+            }
+            blackhole.consume(row);
+        }
+    }
+
+    /**
+     * Resolves the analysis date of every row. WES rows carry no date, for them the date is taken from the
+     * filename, which the parser does once per file.
+     */
+    @Benchmark
+    public void resolveDates(Blackhole blackhole) {
+        if (dataType == DataType.WES) {
+            blackhole.consume(DateResolver.fromFilename(dateValues[0]));
+            return;
+        }
+        DateResolver resolver = DateResolver.forDataType(dataType);
+        for (String date : dateValues) {
+            blackhole.consume(resolver.resolve(date));
+        }
+    }
+}
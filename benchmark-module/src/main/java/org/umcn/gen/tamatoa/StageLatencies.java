@@ -0,0 +1,65 @@
+package org.umcn.gen.tamatoa;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Records the latencies of the stages of a load test, one value per file and stage, and reports their
+ * percentiles. All values are kept, a load test records at most a few latencies per file.
+ */
+class StageLatencies {
+
+    private final Map<String, long[]> latencies = new LinkedHashMap<>();
+    private final Map<String, Integer> counts = new LinkedHashMap<>();
+
+    /**
+     * Records one latency of a stage.
+     *
+     * @param stage        The name of the stage.
+     * @param elapsedNanos The time the stage took in nanoseconds.
+     */
+    void record(String stage, long elapsedNanos) {
+        long[] values = latencies.computeIfAbsent(stage, s -> new long[16]);
+        int count = counts.getOrDefault(stage, 0);
+        if (count == values.length) {
+            values = Arrays.copyOf(values, count * 2);
+            latencies.put(stage, values);
+        }
+        values[count] = elapsedNanos;
+        counts.put(stage, count + 1);
+    }
+
+    /**
+     * @return The names of the recorded stages, in the order they were first recorded.
+     */
+    Iterable<String> stages() {
+        return latencies.keySet();
+    }
+
+    /**
+     * @param stage The name of the stage.
+     * @return The number of latencies recorded for the stage.
+     */
+    int count(String stage) {
+        return counts.getOrDefault(stage, 0);
+    }
+
+    /**
+     * Computes a percentile with the nearest-rank method.
+     *
+     * @param stage      The name of the stage.
+     * @param percentile The percentile, from 0 to 100.
+     * @return The latency at the percentile in nanoseconds, or 0 if nothing was recorded for the stage.
+     */
+    long percentile(String stage, double percentile) {
+        int count = count(stage);
+        if (count == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(latencies.get(stage), count);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * count);
+        return sorted[Math.max(0, rank - 1)];
+    }
+}
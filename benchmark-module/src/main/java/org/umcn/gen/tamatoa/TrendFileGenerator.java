@@ -0,0 +1,194 @@
+package org.umcn.gen.tamatoa;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates synthetic trend files with the headers and value formats the parser expects, so the ingest can be
+ * load tested without patient data. Every file holds one to four sequencing runs of a random analysis date
+ * between 2019 and 2025, with a random number of samples and metric columns within the configured ranges.
+ * <p>
+ * The date formats vary between files the way they do between instruments and exports: WGS dates with and
+ * without leading zeros, LRS transfer times with and without leading zeros and WES dates in different places
+ * of the filename. Metric columns are integers, decimals, percentages or text, and a configurable fraction of
+ * the values is missing. The same options and seed always produce the same files.
+ */
+public class TrendFileGenerator {
+
+    private static final LocalDate FIRST_DATE = LocalDate.of(2019, 1, 1);
+    private static final int DATE_SPAN_DAYS = 7 * 365;
+    private static final int MAX_RUNS_PER_FILE = 4;
+
+    private static final DateTimeFormatter[] WGS_DATES = {
+            DateTimeFormatter.ofPattern("dd-MM-uuuu"), DateTimeFormatter.ofPattern("d-M-uuuu")};
+    private static final DateTimeFormatter[] LRS_DATES = {
+            DateTimeFormatter.ofPattern("MM.dd.uuuu HH:mm"), DateTimeFormatter.ofPattern("M.d.uuuu H:mm")};
+    private static final DateTimeFormatter FILENAME_DATE = DateTimeFormatter.ofPattern("uuuu_MM_dd");
+
+    private static final String[] WGS_WES_METRICS = {
+            "Total reads", "Mapped reads (%)", "Duplicate reads (%)", "Mean coverage", "Median insert size",
+            "Q30 bases (%)", "Target bases >= 20x (%)", "Het/Hom ratio", "Ti/Tv ratio", "Contamination (%)",
+            "Fold-80 penalty", "Library prep kit version", "Sex check"};
+    private static final String[] LRS_METRICS = {
+            "Read N50", "Total bases", "Mean read quality", "Passed reads", "Barcode", "Median read length",
+            "Pores active (%)", "Flow cell id"};
+
+    private enum ValueKind {INTEGER, DECIMAL, PERCENTAGE, TEXT}
+
+    private final LoadTestOptions options;
+    private final Random random;
+
+    /**
+     * @param options The options of the files to generate.
+     */
+    public TrendFileGenerator(LoadTestOptions options) {
+        this.options = options;
+        this.random = new Random(options.getSeed());
+    }
+
+    /**
+     * Generates the trend files of a DataType.
+     *
+     * @param dataType The DataType whose files are generated.
+     * @param folder   The folder to write the files in, created if it does not exist.
+     * @return The generated files.
+     * @throws IOException If a file can not be written.
+     */
+    public List<File> generate(DataType dataType, File folder) throws IOException {
+        Files.createDirectories(folder.toPath());
+        List<File> files = new ArrayList<>();
+        for (int fileIndex = 0; fileIndex < options.getFileCount(); fileIndex++) {
+            LocalDate date = FIRST_DATE.plusDays(random.nextInt(DATE_SPAN_DAYS));
+            File file = new File(folder, fileName(dataType, fileIndex, date));
+            writeFile(file, dataType, fileIndex, date);
+            files.add(file);
+        }
+        return files;
+    }
+
+    private String fileName(DataType dataType, int fileIndex, LocalDate date) {
+        switch (dataType) {
+            case WES:
+                // The date is read from the filename, with either separator and at the start or the end
+                String fileDate = date.format(FILENAME_DATE);
+                if (random.nextBoolean()) {
+                    fileDate = fileDate.replace('_', '-');
+                }
+                return random.nextBoolean()
+                        ? "trend_exome_" + fileIndex + "_" + fileDate + ".csv"
+                        : fileDate + "_trend_exome_" + fileIndex + ".csv";
+            case LRS:
+                return "lrAmplicon_" + fileIndex + ".csv";
+            default:
+                return "trend_genome_" + fileIndex + ".csv";
+        }
+    }
+
+    private void writeFile(File file, DataType dataType, int fileIndex, LocalDate date) throws IOException {
+        String delimiter = dataType.getDelimiter();
+        int columns = between(options.getMinColumns(), options.getMaxColumns());
+        int samples = between(options.getMinSamples(), options.getMaxSamples());
+        int runs = 1 + random.nextInt(Math.min(MAX_RUNS_PER_FILE, samples));
+        ValueKind[] kinds = new ValueKind[columns];
+        for (int c = 0; c < columns; c++) {
+            // Mostly numbers, like the metrics of the pipelines
+            kinds[c] = c % 10 == 9 ? ValueKind.TEXT : ValueKind.values()[random.nextInt(3)];
+        }
+        DateTimeFormatter dateFormat = dataType == DataType.LRS
+                ? LRS_DATES[random.nextInt(LRS_DATES.length)]
+                : WGS_DATES[random.nextInt(WGS_DATES.length)];
+
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(headerLine(dataType, columns));
+            writer.write('\n');
+            for (int sample = 0; sample < samples; sample++) {
+                String run = dataType.name() + "_RUN_" + fileIndex + "_" + sample % runs;
+                StringBuilder line = new StringBuilder();
+                switch (dataType) {
+                    case LRS:
+                        line.append(run).append(',')
+                                .append("AMP").append(fileIndex).append('_').append(sample).append(',')
+                                .append("MN").append(20000 + fileIndex % 8).append(',')
+                                .append(date.atTime(7 + sample % runs, 58).format(dateFormat)).append(',')
+                                .append("\"Run comment, generated\"").append(',')
+                                .append(sample % 5 == 0 ? "repeat" : "");
+                        break;
+                    case WES:
+                        appendSampleColumns(line, delimiter, fileIndex, sample, run);
+                        break;
+                    default:
+                        appendSampleColumns(line, delimiter, fileIndex, sample, run);
+                        line.append(delimiter).append(date.format(dateFormat));
+                }
+                for (int c = 0; c < columns; c++) {
+                    line.append(delimiter).append(value(kinds[c], c));
+                }
+                line.append('\n');
+                writer.write(line.toString());
+            }
+        }
+    }
+
+    private static String headerLine(DataType dataType, int columns) {
+        String delimiter = dataType.getDelimiter();
+        StringBuilder header = new StringBuilder();
+        String[] metrics;
+        if (dataType == DataType.LRS) {
+            header.append("Run Name,Sample Name,Instrument,Transfer Complete,Run Comments,Sample Comment");
+            metrics = LRS_METRICS;
+        } else {
+            header.append(String.join(delimiter, "sampleid", "experiment_name", "runid", "sequencer_series",
+                    "sequencer_id", "library_prep_kit", "enrichment_kit"));
+            if (dataType == DataType.WGS) {
+                header.append(delimiter).append("analysis_date");
+            }
+            metrics = WGS_WES_METRICS;
+        }
+        for (int c = 0; c < columns; c++) {
+            header.append(delimiter).append(metrics[c % metrics.length]);
+            if (c >= metrics.length) {
+                header.append(' ').append(c / metrics.length);
+            }
+        }
+        return header.toString();
+    }
+
+    private static void appendSampleColumns(StringBuilder line, String delimiter, int fileIndex, int sample, String run) {
+        line.append("DNA").append(String.format(Locale.ROOT, "%06d", fileIndex * 1000 + sample)).append(delimiter)
+                .append(run).append(delimiter)
+                .append(run.hashCode() & 0xffff).append(delimiter)
+                .append("NovaSeq").append(delimiter)
+                .append("A0").append(fileIndex % 4).append(delimiter)
+                .append("KAPA").append(delimiter)
+                .append("Twist exome 2.0");
+    }
+
+    private String value(ValueKind kind, int column) {
+        if (random.nextDouble() < options.getNaDensity()) {
+            return random.nextInt(4) == 0 ? "" : "NA";
+        }
+        switch (kind) {
+            case INTEGER:
+                return Integer.toString(random.nextInt(100_000_000));
+            case DECIMAL:
+                return String.format(Locale.ROOT, "%.3f", random.nextDouble() * 1000);
+            case PERCENTAGE:
+                return String.format(Locale.ROOT, "%.2f", random.nextDouble() * 100);
+            default:
+                return "batch " + (column + random.nextInt(3));
+        }
+    }
+
+    private int between(int min, int max) {
+        return min + random.nextInt(max - min + 1);
+    }
+}
@@ -0,0 +1,39 @@
+-- Adds the unique constraint on the natural key of Experiment to an existing database.
+-- Concurrent ingests rely on it to never create the same experiment twice.
+-- Duplicates created before the constraint existed are merged into the experiment with the lowest identifier.
+
+BEGIN;
+
+CREATE TEMP TABLE Experiment_duplicate ON COMMIT DROP AS
+SELECT experiment_identifier AS duplicate_identifier,
+       min(experiment_identifier) OVER (PARTITION BY experiment_name, analysis_date, NGS_ngs_type) AS kept_identifier
+FROM Experiment;
+
+DELETE FROM Experiment_duplicate WHERE duplicate_identifier = kept_identifier;
+
+UPDATE Sample s
+SET Experiment_experiment_identifier = d.kept_identifier
+FROM Experiment_duplicate d
+WHERE s.Experiment_experiment_identifier = d.duplicate_identifier;
+
+-- Run metrics of a duplicate are only kept when the surviving experiment lacks the key
+INSERT INTO Run_Quality_Metrics (Experiment_experiment_identifier, run_quality_metric_key, run_quality_metric_value)
+SELECT d.kept_identifier, r.run_quality_metric_key, r.run_quality_metric_value
+FROM Run_Quality_Metrics r
+JOIN Experiment_duplicate d ON r.Experiment_experiment_identifier = d.duplicate_identifier
+ON CONFLICT DO NOTHING;
+
+DELETE FROM Run_Quality_Metrics r
+USING Experiment_duplicate d
+WHERE r.Experiment_experiment_identifier = d.duplicate_identifier;
+
+DELETE FROM Experiment e
+USING Experiment_duplicate d
+WHERE e.experiment_identifier = d.duplicate_identifier;
+
+ALTER TABLE Experiment ADD CONSTRAINT Experiment_natural_key
+    UNIQUE (experiment_name, analysis_date, NGS_ngs_type);
+
+COMMIT;
+
+-- End of file.
@@ -0,0 +1,50 @@
+-- Adds the manifest of ingested files used by incremental ingestion (--incremental=true).
+-- Samples are tagged with the file they were read from, so a changed file can replace its previous rows.
+-- Samples ingested before this migration have no source file: reload the data once to make them replaceable.
+-- Also creates the unlogged staging table of the COPY based bulk load (--mode=copy), if it does not exist yet.
+
+BEGIN;
+
+-- Unlogged staging area of the COPY based bulk load, rows are deleted once they are merged
+CREATE UNLOGGED TABLE IF NOT EXISTS Staging_Sample (
+    load_identifier bigint  NOT NULL,
+    row_number int  NOT NULL,
+    ngs_type Varchar  NOT NULL,
+    experiment_name Varchar  NOT NULL,
+    analysis_date date  NOT NULL,
+    run_id Varchar  NULL,
+    sequencer_series Varchar  NULL,
+    sequencer_id Varchar  NULL,
+    library_prep_kit Varchar  NULL,
+    enrichment_kit Varchar  NULL,
+    sample_id Varchar  NOT NULL,
+    metric_keys Varchar[]  NOT NULL,
+    metric_values Varchar[]  NOT NULL,
+    experiment_identifier bigint  NULL,
+    sample_identifier bigint  NULL
+);
+
+CREATE INDEX IF NOT EXISTS Staging_Sample_load_idx ON Staging_Sample (load_identifier);
+
+CREATE SEQUENCE IF NOT EXISTS Staging_Load_seq;
+
+CREATE TABLE Ingest_Manifest (
+    ngs_type Varchar  NOT NULL,
+    file_name Varchar  NOT NULL,
+    file_path Varchar  NOT NULL,
+    file_size bigint  NOT NULL,
+    last_modified bigint  NOT NULL,
+    content_hash Varchar  NOT NULL,
+    ingested_at timestamp  NOT NULL DEFAULT now(),
+    CONSTRAINT Ingest_Manifest_pk PRIMARY KEY (ngs_type, file_name)
+);
+
+ALTER TABLE Sample ADD COLUMN source_file Varchar  NULL;
+
+CREATE INDEX Sample_source_file_idx ON Sample (source_file);
+
+ALTER TABLE Staging_Sample ADD COLUMN source_file Varchar  NOT NULL;
+
+COMMIT;
+
+-- End of file.
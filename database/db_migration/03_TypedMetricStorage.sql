@@ -0,0 +1,114 @@
+-- Moves Quality_Metrics and Run_Quality_Metrics to typed, dictionary-encoded storage.
+-- Metric keys are stored once in Metric_Key and referred to by a smallint identifier. Values that are numbers
+-- are stored as double precision, all other values are kept as text in a separate column.
+-- The tables are rebuilt rather than altered in place, so they are written compactly once. Run VACUUM ANALYZE
+-- on both tables afterwards; the ingest and the dashboard must be updated together with this migration.
+
+BEGIN;
+
+CREATE TABLE Metric_Key (
+    metric_key_identifier SMALLSERIAL  NOT NULL,
+    metric_key Varchar  NOT NULL,
+    CONSTRAINT Metric_Key_key UNIQUE (metric_key),
+    CONSTRAINT Metric_Key_pk PRIMARY KEY (metric_key_identifier)
+);
+
+INSERT INTO Metric_Key (metric_key)
+SELECT quality_metric_key FROM Quality_Metrics
+UNION
+SELECT run_quality_metric_key FROM Run_Quality_Metrics
+ORDER BY 1;
+
+-- The values written by the ingest are either numbers in Java's canonical form or text
+CREATE TABLE Quality_Metrics_Typed (
+    Sample_sample_identifier bigint  NOT NULL,
+    quality_metric_value double precision  NULL,
+    Metric_Key_metric_key_identifier smallint  NOT NULL,
+    quality_metric_text Varchar  NULL,
+    CONSTRAINT Quality_Metrics_value CHECK ((quality_metric_value IS NULL) <> (quality_metric_text IS NULL)),
+    CONSTRAINT Quality_Metrics_pk PRIMARY KEY (Sample_sample_identifier, Metric_Key_metric_key_identifier)
+);
+
+INSERT INTO Quality_Metrics_Typed (Sample_sample_identifier, quality_metric_value, Metric_Key_metric_key_identifier, quality_metric_text)
+SELECT q.Sample_sample_identifier,
+       CASE WHEN q.is_number THEN q.quality_metric_value::double precision END,
+       k.metric_key_identifier,
+       CASE WHEN NOT q.is_number THEN q.quality_metric_value END
+FROM (SELECT *, quality_metric_value ~ '^[+-]?((\d+\.?\d*|\.\d+)([eE][+-]?\d+)?|NaN|Infinity)$' AS is_number
+      FROM Quality_Metrics) q
+JOIN Metric_Key k ON k.metric_key = q.quality_metric_key
+ORDER BY q.Sample_sample_identifier, k.metric_key_identifier;
+
+CREATE TABLE Run_Quality_Metrics_Typed (
+    Experiment_experiment_identifier bigint  NOT NULL,
+    run_quality_metric_value double precision  NULL,
+    Metric_Key_metric_key_identifier smallint  NOT NULL,
+    run_quality_metric_text Varchar  NULL,
+    CONSTRAINT Run_Quality_Metrics_value CHECK ((run_quality_metric_value IS NULL) <> (run_quality_metric_text IS NULL)),
+    CONSTRAINT Run_Quality_Metrics_pk PRIMARY KEY (Experiment_experiment_identifier, Metric_Key_metric_key_identifier)
+);
+
+INSERT INTO Run_Quality_Metrics_Typed (Experiment_experiment_identifier, run_quality_metric_value, Metric_Key_metric_key_identifier, run_quality_metric_text)
+SELECT r.Experiment_experiment_identifier,
+       CASE WHEN r.is_number THEN r.run_quality_metric_value::double precision END,
+       k.metric_key_identifier,
+       CASE WHEN NOT r.is_number THEN r.run_quality_metric_value END
+FROM (SELECT *, run_quality_metric_value ~ '^[+-]?((\d+\.?\d*|\.\d+)([eE][+-]?\d+)?|NaN|Infinity)$' AS is_number
+      FROM Run_Quality_Metrics) r
+JOIN Metric_Key k ON k.metric_key = r.run_quality_metric_key
+ORDER BY r.Experiment_experiment_identifier, k.metric_key_identifier;
+
+DROP TABLE Quality_Metrics;
+
+DROP TABLE Run_Quality_Metrics;
+
+ALTER TABLE Quality_Metrics_Typed RENAME TO Quality_Metrics;
+
+ALTER TABLE Run_Quality_Metrics_Typed RENAME TO Run_Quality_Metrics;
+
+CREATE INDEX Quality_Metrics_key_idx ON Quality_Metrics (Metric_Key_metric_key_identifier, Sample_sample_identifier)
+    INCLUDE (quality_metric_value);
+
+CREATE INDEX Run_Quality_Metrics_key_idx ON Run_Quality_Metrics (Metric_Key_metric_key_identifier, Experiment_experiment_identifier)
+    INCLUDE (run_quality_metric_value);
+
+ALTER TABLE Quality_Metrics ADD CONSTRAINT Quality_Metrics_Metric_Key
+    FOREIGN KEY (Metric_Key_metric_key_identifier)
+    REFERENCES Metric_Key (metric_key_identifier)
+    NOT DEFERRABLE
+    INITIALLY IMMEDIATE
+;
+
+ALTER TABLE Quality_Metrics ADD CONSTRAINT Quality_Metrics_Sample
+    FOREIGN KEY (Sample_sample_identifier)
+    REFERENCES Sample (sample_identifier)
+    NOT DEFERRABLE
+    INITIALLY IMMEDIATE
+;
+
+ALTER TABLE Run_Quality_Metrics ADD CONSTRAINT Run_Quality_Metrics_Metric_Key
+    FOREIGN KEY (Metric_Key_metric_key_identifier)
+    REFERENCES Metric_Key (metric_key_identifier)
+    NOT DEFERRABLE
+    INITIALLY IMMEDIATE
+;
+
+ALTER TABLE Run_Quality_Metrics ADD CONSTRAINT Quality_Metrics_LRS_Experiment
+    FOREIGN KEY (Experiment_experiment_identifier)
+    REFERENCES Experiment (experiment_identifier)
+    NOT DEFERRABLE
+    INITIALLY IMMEDIATE
+;
+
+-- Staging rows only live for the duration of a load
+TRUNCATE Staging_Sample;
+
+ALTER TABLE Staging_Sample DROP COLUMN metric_values;
+
+ALTER TABLE Staging_Sample ADD COLUMN metric_numbers double precision[]  NOT NULL;
+
+ALTER TABLE Staging_Sample ADD COLUMN metric_texts Varchar[]  NOT NULL;
+
+COMMIT;
+
+-- End of file.
@@ -0,0 +1,43 @@
+-- Adds Sample_Metric_Wide, a per-sample projection of the numeric WGS/WES quality metrics used by the dashboard.
+-- metric_values[k] holds the value of the metric whose metric_key_identifier is k, so reading several metrics of a
+-- sample is a single row lookup. Requires 03_TypedMetricStorage.sql. The ingest maintains the table from then on;
+-- this script fills it for the samples already loaded.
+
+BEGIN;
+
+CREATE TABLE Sample_Metric_Wide (
+    Sample_sample_identifier bigint  NOT NULL,
+    Experiment_experiment_identifier bigint  NOT NULL,
+    analysis_date date  NOT NULL,
+    NGS_ngs_type Varchar  NOT NULL,
+    sample_id Varchar  NOT NULL,
+    experiment_name Varchar  NOT NULL,
+    run_id Varchar  NULL,
+    metric_values double precision[]  NOT NULL,
+    CONSTRAINT Sample_Metric_Wide_pk PRIMARY KEY (Sample_sample_identifier)
+);
+
+INSERT INTO Sample_Metric_Wide (Sample_sample_identifier, Experiment_experiment_identifier, analysis_date, NGS_ngs_type,
+                                sample_id, experiment_name, run_id, metric_values)
+SELECT s.sample_identifier, e.experiment_identifier, e.analysis_date, e.NGS_ngs_type, s.sample_id, e.experiment_name, e.run_id,
+       COALESCE((SELECT array_agg(q.quality_metric_value ORDER BY g.i)
+                 FROM generate_series(1, (SELECT max(m.Metric_Key_metric_key_identifier) FROM Quality_Metrics m
+                                          WHERE m.Sample_sample_identifier = s.sample_identifier)) AS g(i)
+                 LEFT JOIN Quality_Metrics q ON q.Sample_sample_identifier = s.sample_identifier
+                     AND q.Metric_Key_metric_key_identifier = g.i), '{}')
+FROM Sample s
+JOIN Experiment e ON e.experiment_identifier = s.Experiment_experiment_identifier
+WHERE e.NGS_ngs_type IN ('WGS', 'WES');
+
+CREATE INDEX Sample_Metric_Wide_date_idx ON Sample_Metric_Wide (NGS_ngs_type, analysis_date);
+
+ALTER TABLE Sample_Metric_Wide ADD CONSTRAINT Sample_Metric_Wide_Sample
+    FOREIGN KEY (Sample_sample_identifier)
+    REFERENCES Sample (sample_identifier)
+    NOT DEFERRABLE
+    INITIALLY IMMEDIATE
+;
+
+COMMIT;
+
+-- End of file.
@@ -0,0 +1,51 @@
+-- Adds the monthly rollup tables read by the dashboard's overview tabs. Monthly_Count holds the experiments and
+-- samples per NGS type and month, Monthly_Metric_Summary the count, sum, sum of squares, minimum and maximum of
+-- every numeric metric per NGS type and month. Requires 03_TypedMetricStorage.sql. The ingest maintains both
+-- tables from then on; this script aggregates the data already loaded.
+
+BEGIN;
+
+CREATE TABLE Monthly_Count (
+    NGS_ngs_type Varchar  NOT NULL,
+    analysis_month date  NOT NULL,
+    experiment_count bigint  NOT NULL,
+    sample_count bigint  NOT NULL,
+    CONSTRAINT Monthly_Count_pk PRIMARY KEY (NGS_ngs_type, analysis_month)
+);
+
+CREATE TABLE Monthly_Metric_Summary (
+    Metric_Key_metric_key_identifier smallint  NOT NULL,
+    NGS_ngs_type Varchar  NOT NULL,
+    analysis_month date  NOT NULL,
+    value_count bigint  NOT NULL,
+    value_sum double precision  NOT NULL,
+    value_sum_of_squares double precision  NOT NULL,
+    value_min double precision  NOT NULL,
+    value_max double precision  NOT NULL,
+    CONSTRAINT Monthly_Metric_Summary_pk PRIMARY KEY (Metric_Key_metric_key_identifier, NGS_ngs_type, analysis_month)
+);
+
+INSERT INTO Monthly_Count (NGS_ngs_type, analysis_month, experiment_count, sample_count)
+SELECT e.NGS_ngs_type, date_trunc('month', e.analysis_date)::date,
+       count(DISTINCT e.experiment_identifier), count(s.sample_identifier)
+FROM Experiment e
+LEFT JOIN Sample s ON s.Experiment_experiment_identifier = e.experiment_identifier
+GROUP BY 1, 2;
+
+INSERT INTO Monthly_Metric_Summary (Metric_Key_metric_key_identifier, NGS_ngs_type, analysis_month,
+                                    value_count, value_sum, value_sum_of_squares, value_min, value_max)
+SELECT m.key_identifier, e.NGS_ngs_type, date_trunc('month', e.analysis_date)::date,
+       count(*), sum(m.value), sum(m.value * m.value), min(m.value), max(m.value)
+FROM Experiment e
+JOIN (SELECT s.Experiment_experiment_identifier AS experiment_identifier,
+             q.Metric_Key_metric_key_identifier AS key_identifier, q.quality_metric_value AS value
+      FROM Sample s JOIN Quality_Metrics q ON q.Sample_sample_identifier = s.sample_identifier
+      UNION ALL
+      SELECT r.Experiment_experiment_identifier, r.Metric_Key_metric_key_identifier, r.run_quality_metric_value
+      FROM Run_Quality_Metrics r) m ON m.experiment_identifier = e.experiment_identifier
+WHERE m.value IS NOT NULL
+GROUP BY 1, 2, 3;
+
+COMMIT;
+
+-- End of file.
@@ -0,0 +1,12 @@
+-- Adds the secondary indexes on the foreign key from Sample to Experiment and on the (NGS type, analysis date)
+-- filter of the dashboard queries. A database created with CreateQCDatabasePartitioned.sql already has them.
+
+BEGIN;
+
+CREATE INDEX Experiment_ngs_date_idx ON Experiment (NGS_ngs_type, analysis_date);
+
+CREATE INDEX Sample_experiment_idx ON Sample (Experiment_experiment_identifier);
+
+COMMIT;
+
+-- End of file.
@@ -0,0 +1,14 @@
+-- Adds the checkpoint of a file's ingestion to the manifest, so the lines appended to a cumulative trend file
+-- are ingested without re-reading it: file_size is the byte offset up to which the file was ingested,
+-- line_count the number of data lines before it and header_hash the hash of its header line.
+-- Files ingested before this migration have no header hash, they are re-read in full once when they change.
+
+BEGIN;
+
+ALTER TABLE Ingest_Manifest ADD COLUMN header_hash Varchar  NULL;
+
+ALTER TABLE Ingest_Manifest ADD COLUMN line_count bigint  NOT NULL DEFAULT 0;
+
+COMMIT;
+
+-- End of file.
@@ -0,0 +1,53 @@
+-- Adds the unique constraint on the natural key of a sample (experiment, sample_id), which the merge ingest mode
+-- (--mode=merge) upserts on. Its index replaces Sample_experiment_idx from 06_AddSecondaryIndexes.sql.
+-- Samples that were ingested more than once keep their latest row, the older rows are removed with their quality
+-- metrics and per-sample projection, and the monthly rollups are aggregated again.
+
+BEGIN;
+
+CREATE TEMPORARY TABLE Duplicate_Sample ON COMMIT DROP AS
+SELECT sample_identifier
+FROM (SELECT sample_identifier,
+             row_number() OVER (PARTITION BY Experiment_experiment_identifier, sample_id
+                                ORDER BY sample_identifier DESC) AS version
+      FROM Sample) s
+WHERE version > 1;
+
+DELETE FROM Sample_Metric_Wide WHERE Sample_sample_identifier IN (SELECT sample_identifier FROM Duplicate_Sample);
+
+DELETE FROM Quality_Metrics WHERE Sample_sample_identifier IN (SELECT sample_identifier FROM Duplicate_Sample);
+
+DELETE FROM Sample WHERE sample_identifier IN (SELECT sample_identifier FROM Duplicate_Sample);
+
+ALTER TABLE Sample ADD CONSTRAINT Sample_natural_key UNIQUE (Experiment_experiment_identifier, sample_id);
+
+DROP INDEX Sample_experiment_idx;
+
+DELETE FROM Monthly_Count;
+
+INSERT INTO Monthly_Count (NGS_ngs_type, analysis_month, experiment_count, sample_count)
+SELECT e.NGS_ngs_type, date_trunc('month', e.analysis_date)::date,
+       count(DISTINCT e.experiment_identifier), count(s.sample_identifier)
+FROM Experiment e
+LEFT JOIN Sample s ON s.Experiment_experiment_identifier = e.experiment_identifier
+GROUP BY 1, 2;
+
+DELETE FROM Monthly_Metric_Summary;
+
+INSERT INTO Monthly_Metric_Summary (Metric_Key_metric_key_identifier, NGS_ngs_type, analysis_month,
+                                    value_count, value_sum, value_sum_of_squares, value_min, value_max)
+SELECT m.key_identifier, e.NGS_ngs_type, date_trunc('month', e.analysis_date)::date,
+       count(*), sum(m.value), sum(m.value * m.value), min(m.value), max(m.value)
+FROM Experiment e
+JOIN (SELECT s.Experiment_experiment_identifier AS experiment_identifier,
+             q.Metric_Key_metric_key_identifier AS key_identifier, q.quality_metric_value AS value
+      FROM Sample s JOIN Quality_Metrics q ON q.Sample_sample_identifier = s.sample_identifier
+      UNION ALL
+      SELECT r.Experiment_experiment_identifier, r.Metric_Key_metric_key_identifier, r.run_quality_metric_value
+      FROM Run_Quality_Metrics r) m ON m.experiment_identifier = e.experiment_identifier
+WHERE m.value IS NOT NULL
+GROUP BY 1, 2, 3;
+
+COMMIT;
+
+-- End of file.
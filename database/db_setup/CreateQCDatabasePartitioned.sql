@@ -0,0 +1,215 @@
+-- Created by Vertabelo (http://vertabelo.com)
+-- Production date: 2024-10-10
+-- Last modification date: 2024-10-11
+
+-- Variant of CreateQCDatabase.sql in which Experiment and Sample_Metric_Wide are range partitioned by year of
+-- analysis_date, so date-range queries only read the partitions of the requested years and an old year can be
+-- detached or dropped as a whole. The insert-module creates the partition of a year when it first loads data of
+-- that year, partitions are named <table>_y<year>, e.g. Experiment_y2024.
+-- A primary key of a partitioned table must contain the partition key, so Experiment is identified by
+-- (experiment_identifier, analysis_date) and the foreign keys referring to Experiment are left out.
+
+-- tables
+-- Table: Experiment
+CREATE TABLE Experiment (
+    experiment_identifier BIGSERIAL  NOT NULL,
+    experiment_name Varchar  NOT NULL,
+    analysis_date date  NOT NULL,
+    run_id Varchar  NULL,
+    sequencer_series Varchar  NULL,
+    sequencer_id Varchar  NULL,
+    library_prep_kit Varchar  NULL,
+    enrichment_kit Varchar  NULL,
+    NGS_ngs_type Varchar  NOT NULL,
+    CONSTRAINT Experiment_natural_key UNIQUE (experiment_name, analysis_date, NGS_ngs_type),
+    CONSTRAINT Experiment_pk PRIMARY KEY (experiment_identifier, analysis_date)
+) PARTITION BY RANGE (analysis_date);
+
+CREATE INDEX Experiment_ngs_date_idx ON Experiment (NGS_ngs_type, analysis_date);
+
+-- Table: Ingest_Manifest
+-- Files ingested per NGS type, used to skip unchanged files in incremental runs and to ingest only
+-- the lines appended to a file, file_size being the byte offset up to which it was ingested
+CREATE TABLE Ingest_Manifest (
+    ngs_type Varchar  NOT NULL,
+    file_name Varchar  NOT NULL,
+    file_path Varchar  NOT NULL,
+    file_size bigint  NOT NULL,
+    last_modified bigint  NOT NULL,
+    content_hash Varchar  NOT NULL,
+    header_hash Varchar  NULL,
+    line_count bigint  NOT NULL DEFAULT 0,
+    ingested_at timestamp  NOT NULL DEFAULT now(),
+    CONSTRAINT Ingest_Manifest_pk PRIMARY KEY (ngs_type, file_name)
+);
+
+-- Table: Metric_Key
+-- Dictionary of the metric keys, the metric tables refer to a key by its small identifier
+CREATE TABLE Metric_Key (
+    metric_key_identifier SMALLSERIAL  NOT NULL,
+    metric_key Varchar  NOT NULL,
+    CONSTRAINT Metric_Key_key UNIQUE (metric_key),
+    CONSTRAINT Metric_Key_pk PRIMARY KEY (metric_key_identifier)
+);
+
+-- Table: Monthly_Count
+-- Experiments and samples per NGS type and month, maintained by the ingest in the transaction that adds or
+-- removes them. analysis_month is the first day of the month.
+CREATE TABLE Monthly_Count (
+    NGS_ngs_type Varchar  NOT NULL,
+    analysis_month date  NOT NULL,
+    experiment_count bigint  NOT NULL,
+    sample_count bigint  NOT NULL,
+    CONSTRAINT Monthly_Count_pk PRIMARY KEY (NGS_ngs_type, analysis_month)
+);
+
+-- Table: Monthly_Metric_Summary
+-- Aggregates of the numeric quality and run quality metrics per metric, NGS type and month, maintained like
+-- Monthly_Count. The mean and standard deviation follow from the count, sum and sum of squares.
+CREATE TABLE Monthly_Metric_Summary (
+    Metric_Key_metric_key_identifier smallint  NOT NULL,
+    NGS_ngs_type Varchar  NOT NULL,
+    analysis_month date  NOT NULL,
+    value_count bigint  NOT NULL,
+    value_sum double precision  NOT NULL,
+    value_sum_of_squares double precision  NOT NULL,
+    value_min double precision  NOT NULL,
+    value_max double precision  NOT NULL,
+    CONSTRAINT Monthly_Metric_Summary_pk PRIMARY KEY (Metric_Key_metric_key_identifier, NGS_ngs_type, analysis_month)
+);
+
+-- Table: NGS
+CREATE TABLE NGS (
+    ngs_type Varchar  NOT NULL,
+    CONSTRAINT NGS_pk PRIMARY KEY (ngs_type)
+);
+
+-- Table: Quality_Metrics
+-- Numeric values are stored as double precision, other values as text; exactly one of the two is set.
+-- The 8-byte columns come first so the row has no alignment padding.
+CREATE TABLE Quality_Metrics (
+    Sample_sample_identifier bigint  NOT NULL,
+    quality_metric_value double precision  NULL,
+    Metric_Key_metric_key_identifier smallint  NOT NULL,
+    quality_metric_text Varchar  NULL,
+    CONSTRAINT Quality_Metrics_value CHECK ((quality_metric_value IS NULL) <> (quality_metric_text IS NULL)),
+    CONSTRAINT Quality_Metrics_pk PRIMARY KEY (Sample_sample_identifier, Metric_Key_metric_key_identifier)
+);
+
+-- Range scans over one metric read the values from the index alone
+CREATE INDEX Quality_Metrics_key_idx ON Quality_Metrics (Metric_Key_metric_key_identifier, Sample_sample_identifier)
+    INCLUDE (quality_metric_value);
+
+-- Table: Run_Quality_Metrics
+CREATE TABLE Run_Quality_Metrics (
+    Experiment_experiment_identifier bigint  NOT NULL,
+    run_quality_metric_value double precision  NULL,
+    Metric_Key_metric_key_identifier smallint  NOT NULL,
+    run_quality_metric_text Varchar  NULL,
+    CONSTRAINT Run_Quality_Metrics_value CHECK ((run_quality_metric_value IS NULL) <> (run_quality_metric_text IS NULL)),
+    CONSTRAINT Run_Quality_Metrics_pk PRIMARY KEY (Experiment_experiment_identifier, Metric_Key_metric_key_identifier)
+);
+
+CREATE INDEX Run_Quality_Metrics_key_idx ON Run_Quality_Metrics (Metric_Key_metric_key_identifier, Experiment_experiment_identifier)
+    INCLUDE (run_quality_metric_value);
+
+-- Table: Sample
+CREATE TABLE Sample (
+    sample_identifier BIGSERIAL  NOT NULL,
+    sample_id Varchar  NOT NULL,
+    Experiment_experiment_identifier int  NOT NULL,
+    source_file Varchar  NULL,
+    CONSTRAINT Sample_natural_key UNIQUE (Experiment_experiment_identifier, sample_id),
+    CONSTRAINT Sample_pk PRIMARY KEY (sample_identifier)
+);
+
+CREATE INDEX Sample_source_file_idx ON Sample (source_file);
+
+-- Table: Sample_Metric_Wide
+-- Per-sample projection of the numeric WGS/WES quality metrics, maintained by the ingest together with
+-- Quality_Metrics. metric_values[k] holds the value of the metric whose metric_key_identifier is k, or NULL.
+-- The sample and experiment columns are copied so dashboard queries read a single row per sample.
+CREATE TABLE Sample_Metric_Wide (
+    Sample_sample_identifier bigint  NOT NULL,
+    Experiment_experiment_identifier bigint  NOT NULL,
+    analysis_date date  NOT NULL,
+    NGS_ngs_type Varchar  NOT NULL,
+    sample_id Varchar  NOT NULL,
+    experiment_name Varchar  NOT NULL,
+    run_id Varchar  NULL,
+    metric_values double precision[]  NOT NULL,
+    CONSTRAINT Sample_Metric_Wide_pk PRIMARY KEY (Sample_sample_identifier, analysis_date)
+) PARTITION BY RANGE (analysis_date);
+
+CREATE INDEX Sample_Metric_Wide_date_idx ON Sample_Metric_Wide (NGS_ngs_type, analysis_date);
+
+-- Table: Staging_Sample
+-- Unlogged staging area of the COPY based bulk load, rows are deleted once they are merged
+CREATE UNLOGGED TABLE Staging_Sample (
+    load_identifier bigint  NOT NULL,
+    row_number int  NOT NULL,
+    ngs_type Varchar  NOT NULL,
+    experiment_name Varchar  NOT NULL,
+    analysis_date date  NOT NULL,
+    run_id Varchar  NULL,
+    sequencer_series Varchar  NULL,
+    sequencer_id Varchar  NULL,
+    library_prep_kit Varchar  NULL,
+    enrichment_kit Varchar  NULL,
+    sample_id Varchar  NOT NULL,
+    source_file Varchar  NOT NULL,
+    metric_keys Varchar[]  NOT NULL,
+    metric_numbers double precision[]  NOT NULL,
+    metric_texts Varchar[]  NOT NULL,
+    experiment_identifier bigint  NULL,
+    sample_identifier bigint  NULL
+);
+
+CREATE INDEX Staging_Sample_load_idx ON Staging_Sample (load_identifier);
+
+-- sequences
+-- Sequence: Staging_Load_seq
+CREATE SEQUENCE Staging_Load_seq;
+
+-- foreign keys
+-- Reference: Expirement_NGS (table: Experiment)
+ALTER TABLE Experiment ADD CONSTRAINT Expirement_NGS
+    FOREIGN KEY (NGS_ngs_type)
+    REFERENCES NGS (ngs_type)  
+    NOT DEFERRABLE 
+    INITIALLY IMMEDIATE
+;
+
+-- Reference: Run_Quality_Metrics_Metric_Key (table: Run_Quality_Metrics)
+ALTER TABLE Run_Quality_Metrics ADD CONSTRAINT Run_Quality_Metrics_Metric_Key
+    FOREIGN KEY (Metric_Key_metric_key_identifier)
+    REFERENCES Metric_Key (metric_key_identifier)  
+    NOT DEFERRABLE 
+    INITIALLY IMMEDIATE
+;
+
+-- Reference: Quality_Metrics_Metric_Key (table: Quality_Metrics)
+ALTER TABLE Quality_Metrics ADD CONSTRAINT Quality_Metrics_Metric_Key
+    FOREIGN KEY (Metric_Key_metric_key_identifier)
+    REFERENCES Metric_Key (metric_key_identifier)  
+    NOT DEFERRABLE 
+    INITIALLY IMMEDIATE
+;
+
+-- Reference: Quality_Metrics_Sample (table: Quality_Metrics)
+ALTER TABLE Quality_Metrics ADD CONSTRAINT Quality_Metrics_Sample
+    FOREIGN KEY (Sample_sample_identifier)
+    REFERENCES Sample (sample_identifier)  
+    NOT DEFERRABLE 
+    INITIALLY IMMEDIATE
+;
+
+-- Reference: Sample_Metric_Wide_Sample (table: Sample_Metric_Wide)
+ALTER TABLE Sample_Metric_Wide ADD CONSTRAINT Sample_Metric_Wide_Sample
+    FOREIGN KEY (Sample_sample_identifier)
+    REFERENCES Sample (sample_identifier)  
+    NOT DEFERRABLE 
+    INITIALLY IMMEDIATE
+;
+
+-- End of file.
@@ -6,18 +6,35 @@
 ALTER TABLE Experiment
     DROP CONSTRAINT Expirement_NGS;
 
+ALTER TABLE Run_Quality_Metrics
+    DROP CONSTRAINT Run_Quality_Metrics_Metric_Key;
+
 ALTER TABLE Run_Quality_Metrics
     DROP CONSTRAINT Quality_Metrics_LRS_Experiment;
 
+ALTER TABLE Quality_Metrics
+    DROP CONSTRAINT Quality_Metrics_Metric_Key;
+
 ALTER TABLE Quality_Metrics
     DROP CONSTRAINT Quality_Metrics_Sample;
 
+ALTER TABLE Sample_Metric_Wide
+    DROP CONSTRAINT Sample_Metric_Wide_Sample;
+
 ALTER TABLE Sample
     DROP CONSTRAINT Sample_Expirement;
 
 -- tables
 DROP TABLE Experiment;
 
+DROP TABLE Ingest_Manifest;
+
+DROP TABLE Metric_Key;
+
+DROP TABLE Monthly_Count;
+
+DROP TABLE Monthly_Metric_Summary;
+
 DROP TABLE NGS;
 
 DROP TABLE Quality_Metrics;
@@ -26,4 +43,11 @@ DROP TABLE Run_Quality_Metrics;
 
 DROP TABLE Sample;
 
+DROP TABLE Sample_Metric_Wide;
+
+DROP TABLE Staging_Sample;
+
+-- sequences
+DROP SEQUENCE Staging_Load_seq;
+
 -- End of file.
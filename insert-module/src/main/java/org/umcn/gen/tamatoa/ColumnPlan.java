@@ -0,0 +1,150 @@
+package org.umcn.gen.tamatoa;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Describes what happens to every column of a CSV file, compiled once from its header line: the normalized
+ * column name, the role of the column while a row is parsed and the index of its value in the {@link RowSchema}
+ * of the rows, which tells the inserter whether the value is a metric.
+ * <p>
+ * All trend files of a DataType normally share one header line, so plans are cached by DataType and header line
+ * and a file whose header has been seen before does not normalize it again. Plans are immutable.
+ */
+final class ColumnPlan {
+    // Upper bound on the cached plans, reached only when many files have a different header
+    private static final int MAX_CACHED_PLANS = 256;
+    private static final Map<PlanKey, ColumnPlan> CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * What the parser does with the value of a column.
+     */
+    enum Role {
+        /** The column is not stored. */
+        DROPPED,
+        /** The sample identifier of the row. */
+        SAMPLE_ID,
+        /** The name of the experiment the row belongs to. */
+        EXPERIMENT_NAME,
+        /** The analysis date of the experiment. */
+        ANALYSIS_DATE,
+        /** A value stored in the row under its index in the row schema. */
+        VALUE
+    }
+
+    private final String[] names;
+    private final Role[] roles;
+    private final int[] slots;
+    private final RowSchema schema;
+
+    private ColumnPlan(String[] names, Role[] roles) {
+        this.names = names;
+        this.roles = roles;
+
+        List<String> valueNames = new ArrayList<>();
+        for (int i = 0; i < names.length; i++) {
+            if (roles[i] == Role.VALUE) {
+                valueNames.add(names[i]);
+            }
+        }
+        this.schema = RowSchema.of(valueNames);
+        this.slots = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            slots[i] = roles[i] == Role.VALUE ? schema.indexOf(names[i]) : -1;
+        }
+    }
+
+    /**
+     * Returns the plan for a header line, compiling it when the header line has not been seen before.
+     *
+     * @param headerLine The raw header line of a CSV file.
+     * @param dataType   The DataType of the file.
+     * @return The column plan of the header line.
+     */
+    static ColumnPlan forHeader(String headerLine, DataType dataType) {
+        PlanKey key = new PlanKey(dataType, headerLine);
+        ColumnPlan plan = CACHE.get(key);
+        if (plan == null) {
+            if (CACHE.size() >= MAX_CACHED_PLANS) {
+                CACHE.clear();
+            }
+            plan = CACHE.computeIfAbsent(key, k -> compile(k.headerLine(), k.dataType()));
+        }
+        return plan;
+    }
+
+    /**
+     * Compiles the plan of a header line without consulting the cache.
+     *
+     * @param headerLine The raw header line of a CSV file.
+     * @param dataType   The DataType of the file.
+     * @return The column plan of the header line.
+     */
+    static ColumnPlan compile(String headerLine, DataType dataType) {
+        String[] names = CsvParser.parseHeaderLine(headerLine, dataType);
+        Role[] roles = new Role[names.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = CsvParser.mapHeaderName(names[i], dataType);
+            roles[i] = roleOf(names[i]);
+        }
+        return new ColumnPlan(names, roles);
+    }
+
+    private static Role roleOf(String name) {
+        switch (name) {
+            case "":
+                return Role.DROPPED;
+            case "sample_id":
+                return Role.SAMPLE_ID;
+            case "experiment_name":
+                return Role.EXPERIMENT_NAME;
+            case "analysis_date":
+                return Role.ANALYSIS_DATE;
+            default:
+                return Role.VALUE;
+        }
+    }
+
+    /**
+     * @return The number of columns in the header.
+     */
+    int size() {
+        return names.length;
+    }
+
+    /**
+     * @param index The index of the column.
+     * @return The normalized name of the column, empty for dropped columns.
+     */
+    String name(int index) {
+        return names[index];
+    }
+
+    /**
+     * @param index The index of the column.
+     * @return What the parser does with the column's value.
+     */
+    Role role(int index) {
+        return roles[index];
+    }
+
+    /**
+     * @param index The index of the column.
+     * @return The index of the column's value in the row schema, or -1 if it is not a value column.
+     */
+    int slot(int index) {
+        return slots[index];
+    }
+
+    /**
+     * @return The schema of the rows parsed with this plan, shared by all files with the same header.
+     */
+    RowSchema schema() {
+        return schema;
+    }
+
+    private record PlanKey(DataType dataType, String headerLine) {
+    }
+}
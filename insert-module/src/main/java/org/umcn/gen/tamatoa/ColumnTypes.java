@@ -0,0 +1,94 @@
+package org.umcn.gen.tamatoa;
+
+/**
+ * Infers the type of every column of one file from its first values and then locks it, so the remaining
+ * values of the column take a direct path: text columns are stored without being scanned and integer columns
+ * are parsed in one pass. A column whose first values mix numbers and text is never locked.
+ * <p>
+ * A value that does not match the locked type of a numeric column is classified like an unlocked value.
+ * Values of a column locked to text are stored as they are, also when one of them looks like a number.
+ * An instance is not thread-safe, use one per file being read.
+ */
+final class ColumnTypes {
+    // Number of values of a column that are inspected before its type is locked
+    static final int SAMPLE_VALUES = 32;
+
+    private static final int NEVER_LOCKED = -1;
+
+    private final NumberScanner.Kind[] inferred;
+    private final NumberScanner.Kind[] locked;
+    private final int[] sampled;
+
+    /**
+     * Initializes the ColumnTypes of a file.
+     *
+     * @param columns The number of columns in the file.
+     */
+    ColumnTypes(int columns) {
+        this.inferred = new NumberScanner.Kind[columns];
+        this.locked = new NumberScanner.Kind[columns];
+        this.sampled = new int[columns];
+    }
+
+    /**
+     * Stores a trimmed, non-empty value of a column in a row: a number as a double, anything else as text.
+     * A number is not turned into a String, so the row holds no String for it.
+     *
+     * @param column The index of the column.
+     * @param value  The value to store.
+     * @param row    The row being parsed.
+     * @param index  The index of the column in the schema of the row.
+     */
+    void store(int column, String value, CsvData row, int index) {
+        NumberScanner.Kind lockedKind = locked[column];
+        if (lockedKind == NumberScanner.Kind.TEXT) {
+            row.setText(index, value);
+            return;
+        }
+        if (lockedKind == NumberScanner.Kind.INTEGER && NumberScanner.isInteger(value)) {
+            row.setNumber(index, NumberScanner.parseInt(value), true);
+            return;
+        }
+
+        NumberScanner.Kind kind = NumberScanner.classify(value);
+        if (lockedKind == null) {
+            observe(column, kind);
+        }
+        switch (kind) {
+            case INTEGER:
+                row.setNumber(index, NumberScanner.parseInt(value), true);
+                break;
+            case DECIMAL:
+                row.setNumber(index, Double.parseDouble(value), false);
+                break;
+            default:
+                row.setText(index, value);
+        }
+    }
+
+    /**
+     * @param column The index of the column.
+     * @return The locked type of the column, or null if it is not locked (yet).
+     */
+    NumberScanner.Kind lockedKind(int column) {
+        return locked[column];
+    }
+
+    private void observe(int column, NumberScanner.Kind kind) {
+        if (sampled[column] == NEVER_LOCKED) {
+            return;
+        }
+        NumberScanner.Kind previous = inferred[column];
+        if (previous == null || previous == kind) {
+            inferred[column] = kind;
+        } else if (previous != NumberScanner.Kind.TEXT && kind != NumberScanner.Kind.TEXT) {
+            inferred[column] = NumberScanner.Kind.DECIMAL;
+        } else {
+            sampled[column] = NEVER_LOCKED;
+            return;
+        }
+        if (++sampled[column] == SAMPLE_VALUES) {
+            locked[column] = inferred[column];
+        }
+    }
+}
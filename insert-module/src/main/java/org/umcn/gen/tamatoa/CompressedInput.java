@@ -0,0 +1,244 @@
+package org.umcn.gen.tamatoa;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Reads trend files that are stored compressed, as gzip ({@code .csv.gz}) or as the single entry of a zip archive
+ * ({@code .csv.zip}), without writing the decompressed content anywhere. The compressed bytes are read with a
+ * large buffer, which matters on network shares, and decompressed on a separate thread into blocks that the
+ * parser reads from a bounded queue, so decompressing and parsing a file run side by side.
+ * <p>
+ * A zip archive must hold the trend file as its only entry, an archive with more entries fails to be read
+ * instead of having its other files left out silently.
+ */
+final class CompressedInput {
+    // Bytes read from the compressed file at a time
+    static final int READ_BUFFER_BYTES = 1 << 20;
+
+    // Bytes of decompressed content per block handed to the parser, and the number of blocks decompressed ahead
+    private static final int BLOCK_BYTES = 256 << 10;
+    private static final int QUEUED_BLOCKS = 8;
+
+    /**
+     * The compressed formats of trend files, by file name extension.
+     */
+    enum Format {
+        GZIP(".csv.gz"),
+        ZIP(".csv.zip");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        /**
+         * @param fileName The name of a file.
+         * @return The format of the file, or null if it is not a compressed trend file.
+         */
+        static Format of(String fileName) {
+            String name = fileName.toLowerCase(Locale.ROOT);
+            for (Format format : values()) {
+                if (name.endsWith(format.extension)) {
+                    return format;
+                }
+            }
+            return null;
+        }
+    }
+
+    private CompressedInput() {
+    }
+
+    /**
+     * @param file The file to check.
+     * @return True if the file name has the extension of a compressed trend file.
+     */
+    static boolean isCompressed(File file) {
+        return Format.of(file.getName()) != null;
+    }
+
+    /**
+     * Opens a compressed file and starts decompressing it on a separate thread. The thread stops when the end of
+     * the content is reached or the returned stream is closed.
+     *
+     * @param file The compressed file.
+     * @return The decompressed content of the file, reading it fails at the end of the first entry of a zip
+     * archive that holds more than one.
+     * @throws IOException If the file can not be opened or is not in the format of its extension.
+     */
+    static InputStream open(File file) throws IOException {
+        Format format = Format.of(file.getName());
+        if (format == null) {
+            throw new IOException("Not a compressed trend file: " + file.getAbsolutePath());
+        }
+        InputStream raw = new BufferedInputStream(Files.newInputStream(file.toPath()), READ_BUFFER_BYTES);
+        try {
+            InputStream content;
+            if (format == Format.GZIP) {
+                content = new GZIPInputStream(raw, BLOCK_BYTES);
+            } else {
+                ZipInputStream zip = new ZipInputStream(raw);
+                if (zip.getNextEntry() == null) {
+                    throw new IOException("Zip archive holds no file: " + file.getAbsolutePath());
+                }
+                content = zip;
+            }
+            return new DecompressingStream(content, file.getName());
+        } catch (IOException | RuntimeException e) {
+            raw.close();
+            throw e;
+        }
+    }
+
+    /**
+     * A stream of decompressed blocks filled by a thread of its own.
+     */
+    private static final class DecompressingStream extends InputStream {
+        // Marks the end of the content, or a decompression error when error is set
+        private static final Block END = new Block(new byte[0], 0);
+
+        private final InputStream content;
+        private final String fileName;
+        private final BlockingQueue<Block> blocks = new ArrayBlockingQueue<>(QUEUED_BLOCKS);
+        private final BlockingQueue<byte[]> freeBuffers = new ArrayBlockingQueue<>(QUEUED_BLOCKS + 2);
+        private final Thread thread;
+        private volatile Exception error;
+        private Block current;
+        private int position;
+        private boolean ended;
+
+        private record Block(byte[] data, int length) {
+        }
+
+        DecompressingStream(InputStream content, String fileName) {
+            this.content = content;
+            this.fileName = fileName;
+            this.thread = new Thread(this::decompress, "decompress-" + fileName);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * Decompresses the content into blocks until its end, reusing the buffers of blocks the parser has read.
+         * The file is closed when the thread ends.
+         */
+        private void decompress() {
+            try {
+                while (true) {
+                    byte[] buffer = freeBuffers.poll();
+                    if (buffer == null) {
+                        buffer = new byte[BLOCK_BYTES];
+                    }
+                    int length = content.readNBytes(buffer, 0, buffer.length);
+                    if (length > 0) {
+                        blocks.put(new Block(buffer, length));
+                    }
+                    if (length < buffer.length) {
+                        if (content instanceof ZipInputStream zip && zip.getNextEntry() != null) {
+                            throw new IOException("Zip archive holds more than one file: " + fileName);
+                        }
+                        blocks.put(END);
+                        return;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                error = e;
+                try {
+                    // Waits for the parser to take the queued blocks, so it always reaches the error
+                    blocks.put(END);
+                } catch (InterruptedException interrupted) {
+                    // The stream was closed
+                }
+            } catch (InterruptedException e) {
+                // The stream was closed
+            } finally {
+                try {
+                    content.close();
+                } catch (IOException e) {
+                    // Nothing is read from the file anymore
+                }
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (current == null || position == current.length()) {
+                if (!nextBlock()) {
+                    return -1;
+                }
+            }
+            int read = Math.min(len, current.length() - position);
+            System.arraycopy(current.data(), position, b, off, read);
+            position += read;
+            return read;
+        }
+
+        /**
+         * Waits for the next decompressed block and hands the buffer of the current one back to the thread.
+         *
+         * @return False at the end of the content.
+         * @throws IOException If the content could not be decompressed.
+         */
+        private boolean nextBlock() throws IOException {
+            if (ended) {
+                return false;
+            }
+            if (current != null) {
+                freeBuffers.offer(current.data());
+                current = null;
+            }
+            Block block;
+            try {
+                block = blocks.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for decompressed content");
+            }
+            if (block == END) {
+                ended = true;
+                if (error != null) {
+                    throw new IOException("Error decompressing file", error);
+                }
+                return false;
+            }
+            current = block;
+            position = 0;
+            return true;
+        }
+
+        /**
+         * Stops the decompression thread and waits for it to close the file, as a read that is running can not
+         * be interrupted and must not have the file closed under it.
+         */
+        @Override
+        public void close() throws IOException {
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while stopping the decompression of file: " + fileName);
+            }
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package org.umcn.gen.tamatoa;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of database connections. Borrowed connections are proxies whose close() hands the physical
+ * connection back to the pool, so callers keep using try-with-resources as with a plain connection.
+ * Idle connections are validated before they are handed out and closed after being idle for too long.
+ */
+public class ConnectionPool implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(ConnectionPool.class);
+
+    // SQL states of class 08 (connection exception) mean the physical connection can not be reused
+    private static final String CONNECTION_EXCEPTION_CLASS = "08";
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final long acquireTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final int validationTimeoutSeconds;
+
+    private final Semaphore permits;
+    private final Deque<IdleConnection> idleConnections = new ConcurrentLinkedDeque<>();
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed = false;
+
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong borrowWaitNanos = new AtomicLong();
+    private final AtomicLong maxBorrowWaitNanos = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong discardedCount = new AtomicLong();
+
+    /**
+     * Creates the pool, connections are opened lazily on the first borrow.
+     *
+     * @param url                      The JDBC URL of the database.
+     * @param user                     The database user.
+     * @param password                 The password of the database user.
+     * @param maxSize                  The maximum number of connections handed out at the same time.
+     * @param acquireTimeoutMillis     How long a borrow waits for a free connection before failing.
+     * @param idleTimeoutMillis        How long a connection may stay unused in the pool before it is closed.
+     * @param validationTimeoutSeconds The timeout of the validity check done on every borrow.
+     */
+    public ConnectionPool(String url, String user, String password, int maxSize, long acquireTimeoutMillis,
+                          long idleTimeoutMillis, int validationTimeoutSeconds) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1, got: " + maxSize);
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.permits = new Semaphore(maxSize, true);
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "connection-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long evictionInterval = Math.max(1, idleTimeoutMillis / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdleConnections, evictionInterval, evictionInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a connection from the pool. Closing the returned connection returns it to the pool.
+     *
+     * @return A valid connection in auto-commit mode.
+     * @throws SQLException If no connection becomes available within the acquire timeout, or a new connection
+     *                      can not be opened.
+     */
+    public Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("The connection pool has been closed");
+        }
+        long startTime = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timed out after " + acquireTimeoutMillis + " ms waiting for a database connection ("
+                        + maxSize + " of " + maxSize + " in use)");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+        recordWait(System.nanoTime() - startTime);
+
+        try {
+            return wrap(takeValidConnection());
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private Connection takeValidConnection() throws SQLException {
+        IdleConnection idle;
+        while ((idle = idleConnections.pollFirst()) != null) {
+            if (isValid(idle.connection)) {
+                return idle.connection;
+            }
+            discard(idle.connection);
+        }
+        Connection connection = DriverManager.getConnection(url, user, password);
+        createdCount.incrementAndGet();
+        LOG.info("Successfully connected to the database.");
+        return connection;
+    }
+
+    private boolean isValid(Connection connection) {
+        try {
+            return connection.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void recordWait(long waitNanos) {
+        borrowCount.incrementAndGet();
+        borrowWaitNanos.addAndGet(waitNanos);
+        maxBorrowWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    /**
+     * Returns a physical connection to the pool, or closes it when it is broken or the pool is closed.
+     * An unfinished transaction is rolled back and auto-commit restored so the next borrower starts clean.
+     */
+    private void release(Connection connection, boolean broken) {
+        try {
+            if (broken || closed) {
+                discard(connection);
+                return;
+            }
+            try {
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+                idleConnections.offerFirst(new IdleConnection(connection, System.nanoTime()));
+            } catch (SQLException e) {
+                LOG.warn("Discarding connection that could not be reset: {}", e.getMessage());
+                discard(connection);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void discard(Connection connection) {
+        discardedCount.incrementAndGet();
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            LOG.debug("Error closing discarded connection: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Closes the connections that have been idle for longer than the idle timeout. The most recently used
+     * connections sit at the head of the deque, so the oldest ones are found at its tail.
+     */
+    private void evictIdleConnections() {
+        long threshold = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        Iterator<IdleConnection> iterator = idleConnections.descendingIterator();
+        while (iterator.hasNext()) {
+            IdleConnection idle = iterator.next();
+            if (idle.idleSince - threshold < 0 && idleConnections.removeFirstOccurrence(idle)) {
+                discard(idle.connection);
+            }
+        }
+    }
+
+    /**
+     * @return The number of connections currently borrowed.
+     */
+    public int getActiveCount() {
+        return maxSize - permits.availablePermits();
+    }
+
+    /**
+     * @return The number of open connections waiting in the pool.
+     */
+    public int getIdleCount() {
+        return idleConnections.size();
+    }
+
+    /**
+     * @return The number of borrows so far.
+     */
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    /**
+     * @return The total time borrowers spent waiting for a free connection, in nanoseconds.
+     */
+    public long getBorrowWaitNanos() {
+        return borrowWaitNanos.get();
+    }
+
+    /**
+     * @return The longest time a single borrow waited for a free connection, in nanoseconds.
+     */
+    public long getMaxBorrowWaitNanos() {
+        return maxBorrowWaitNanos.get();
+    }
+
+    /**
+     * @return The number of physical connections opened so far.
+     */
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    /**
+     * Logs the counters of the pool.
+     */
+    public void logStatistics() {
+        long borrows = getBorrowCount();
+        LOG.info("Connection pool: {} borrows, {} connections opened, {} discarded, {} active, {} idle, "
+                        + "average wait {} ms, max wait {} ms",
+                borrows, getCreatedCount(), discardedCount.get(), getActiveCount(), getIdleCount(),
+                String.format("%.3f", borrows > 0 ? getBorrowWaitNanos() / 1_000_000.0 / borrows : 0),
+                String.format("%.3f", getMaxBorrowWaitNanos() / 1_000_000.0));
+    }
+
+    /**
+     * Closes all idle connections and stops the evictor. Connections still borrowed are closed when returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        IdleConnection idle;
+        while ((idle = idleConnections.pollFirst()) != null) {
+            discard(idle.connection);
+        }
+    }
+
+    private Connection wrap(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                new PooledConnectionHandler(connection));
+    }
+
+    private record IdleConnection(Connection connection, long idleSince) {
+    }
+
+    /**
+     * Forwards all calls to the physical connection, except close() which returns it to the pool.
+     * A connection-level SQL error marks the physical connection as broken so it is not reused.
+     */
+    private class PooledConnectionHandler implements InvocationHandler {
+        private final Connection connection;
+        private boolean returned = false;
+        private boolean broken = false;
+
+        PooledConnectionHandler(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        release(connection, broken);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled " + connection;
+                default:
+                    break;
+            }
+            if (returned) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+            try {
+                return method.invoke(connection, args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof SQLException sqlException && sqlException.getSQLState() != null
+                        && sqlException.getSQLState().startsWith(CONNECTION_EXCEPTION_CLASS)) {
+                    broken = true;
+                }
+                throw cause;
+            }
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package org.umcn.gen.tamatoa;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Encodes rows in the PostgreSQL COPY text format directly into UTF-8 bytes.
+ * Fields are written into a reusable byte buffer which is handed to the underlying stream whenever it fills up,
+ * so no intermediate String is built for a row or a file.
+ */
+class CopyTextEncoder {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Largest number of bytes a single char can expand to (escaped or 3-byte UTF-8 sequence)
+    private static final int MAX_CHAR_BYTES = 4;
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position = 0;
+    private boolean firstField = true;
+    private long rowCount = 0;
+
+    /**
+     * Creates an encoder that writes COPY text rows to the given stream.
+     *
+     * @param out The stream receiving the encoded bytes, typically a COPY ... FROM STDIN stream.
+     */
+    CopyTextEncoder(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Writes a text field, escaping backslashes and control characters. A null value is written as \N.
+     *
+     * @param value The value to write.
+     * @throws IOException If the underlying stream fails.
+     */
+    void text(String value) throws IOException {
+        separator();
+        if (value == null) {
+            writeNull();
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            i = writeEscaped(value, i, false);
+        }
+    }
+
+    /**
+     * Writes a bigint field.
+     *
+     * @param value The value to write.
+     * @throws IOException If the underlying stream fails.
+     */
+    void number(long value) throws IOException {
+        separator();
+        writeAscii(Long.toString(value));
+    }
+
+    /**
+     * Writes a date field in ISO yyyy-MM-dd notation. A null value is written as \N.
+     *
+     * @param value The date to write.
+     * @throws IOException If the underlying stream fails.
+     */
+    void date(LocalDate value) throws IOException {
+        separator();
+        if (value == null) {
+            writeNull();
+            return;
+        }
+        writeAscii(value.toString());
+    }
+
+    /**
+     * Writes a text[] field as an array literal with every element quoted. Null elements are written as NULL.
+     *
+     * @param values The array elements.
+     * @throws IOException If the underlying stream fails.
+     */
+    void textArray(List<String> values) throws IOException {
+        separator();
+        ensureCapacity(1);
+        buffer[position++] = '{';
+        for (int e = 0; e < values.size(); e++) {
+            String value = values.get(e);
+            ensureCapacity(2);
+            if (e > 0) {
+                buffer[position++] = ',';
+            }
+            if (value == null) {
+                writeAscii("NULL");
+                continue;
+            }
+            buffer[position++] = '"';
+            for (int i = 0; i < value.length(); i++) {
+                i = writeEscaped(value, i, true);
+            }
+            ensureCapacity(1);
+            buffer[position++] = '"';
+        }
+        ensureCapacity(1);
+        buffer[position++] = '}';
+    }
+
+    /**
+     * Writes a double precision[] field as an array literal. Null elements are written as NULL.
+     *
+     * @param values The array elements, numbers in the canonical form of {@link NumberScanner}, which
+     *               PostgreSQL reads as they are.
+     * @throws IOException If the underlying stream fails.
+     */
+    void numberArray(List<String> values) throws IOException {
+        separator();
+        ensureCapacity(1);
+        buffer[position++] = '{';
+        for (int e = 0; e < values.size(); e++) {
+            if (e > 0) {
+                ensureCapacity(1);
+                buffer[position++] = ',';
+            }
+            String value = values.get(e);
+            writeAscii(value != null ? value : "NULL");
+        }
+        ensureCapacity(1);
+        buffer[position++] = '}';
+    }
+
+    /**
+     * Terminates the current row.
+     *
+     * @throws IOException If the underlying stream fails.
+     */
+    void endRow() throws IOException {
+        ensureCapacity(1);
+        buffer[position++] = '\n';
+        firstField = true;
+        rowCount++;
+    }
+
+    /**
+     * Hands all buffered bytes to the underlying stream.
+     *
+     * @throws IOException If the underlying stream fails.
+     */
+    void flush() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+        out.flush();
+    }
+
+    /**
+     * @return The number of rows terminated so far.
+     */
+    long getRowCount() {
+        return rowCount;
+    }
+
+    private void separator() throws IOException {
+        if (firstField) {
+            firstField = false;
+            return;
+        }
+        ensureCapacity(1);
+        buffer[position++] = '\t';
+    }
+
+    private void writeNull() throws IOException {
+        ensureCapacity(2);
+        buffer[position++] = '\\';
+        buffer[position++] = 'N';
+    }
+
+    private void writeAscii(String value) throws IOException {
+        ensureCapacity(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            buffer[position++] = (byte) value.charAt(i);
+        }
+    }
+
+    /**
+     * Writes the char at {@code index} with COPY escaping, and inside array elements also with array escaping.
+     * Array escaping turns " and \ into \" and \\, whose backslash is then escaped again by the COPY layer.
+     *
+     * @return The index of the last char consumed, which differs from {@code index} for surrogate pairs.
+     */
+    private int writeEscaped(String value, int index, boolean arrayElement) throws IOException {
+        char c = value.charAt(index);
+        ensureCapacity(MAX_CHAR_BYTES * 2);
+        switch (c) {
+            case '\\':
+                buffer[position++] = '\\';
+                buffer[position++] = '\\';
+                if (arrayElement) {
+                    buffer[position++] = '\\';
+                    buffer[position++] = '\\';
+                }
+                return index;
+            case '"':
+                if (arrayElement) {
+                    buffer[position++] = '\\';
+                    buffer[position++] = '\\';
+                }
+                buffer[position++] = '"';
+                return index;
+            case '\t':
+                buffer[position++] = '\\';
+                buffer[position++] = 't';
+                return index;
+            case '\n':
+                buffer[position++] = '\\';
+                buffer[position++] = 'n';
+                return index;
+            case '\r':
+                buffer[position++] = '\\';
+                buffer[position++] = 'r';
+                return index;
+            default:
+                return writeUtf8(value, index);
+        }
+    }
+
+    private int writeUtf8(String value, int index) {
+        char c = value.charAt(index);
+        if (c < 0x80) {
+            buffer[position++] = (byte) c;
+        } else if (c < 0x800) {
+            buffer[position++] = (byte) (0xC0 | (c >> 6));
+            buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c) && index + 1 < value.length()
+                && Character.isLowSurrogate(value.charAt(index + 1))) {
+            int codePoint = Character.toCodePoint(c, value.charAt(index + 1));
+            buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+            buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            return index + 1;
+        } else if (Character.isSurrogate(c)) {
+            buffer[position++] = '?'; // Unpaired surrogate, same replacement the JDK encoder uses
+        } else {
+            buffer[position++] = (byte) (0xE0 | (c >> 12));
+            buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        }
+        return index;
+    }
+
+    private void ensureCapacity(int bytes) throws IOException {
+        if (position + bytes > buffer.length) {
+            out.write(buffer, 0, position);
+            position = 0;
+            if (bytes > buffer.length) {
+                throw new IOException("Field fragment of " + bytes + " bytes exceeds the COPY buffer");
+            }
+        }
+    }
+}
@@ -1,24 +1,60 @@
 package org.umcn.gen.tamatoa;
 
-import java.util.Date;
+import java.time.LocalDate;
 import java.util.Map;
 import java.util.StringJoiner;
 
+/**
+ * One parsed row of a trend file. The values of the row are stored by their index in the {@link RowSchema} of
+ * the file, which holds the column names once for all rows: numbers in a double array, text in a String array
+ * that is only allocated for rows with text values, and bitmaps telling which columns have a value and which
+ * numbers are integers. Columns are iterated by index with {@link #nextIndex}, or looked up by name with
+ * {@link #getValue}.
+ */
 public class CsvData {
     private final String fileName;
     private final String ngsType;
     private final String sampleId;
     private final String experimentName;
-    private final Date analysisDate;
-    private final Map<String, Object> qualityData;
+    private final LocalDate analysisDate;
+    private final RowSchema schema;
+    private final double[] numbers;
+    // Bit i is set when column i has a value, and when the number of column i is an integer
+    private final long[] present;
+    private final long[] integers;
+    private String[] texts;
 
-    public CsvData(String fileName, String ngsType, String sampleId, String experimentName, Date analysisDate, Map<String, Object> qualityData) {
+    public CsvData(String fileName, String ngsType, String sampleId, String experimentName, LocalDate analysisDate, Map<String, Object> qualityData) {
+        this(fileName, ngsType, sampleId, experimentName, analysisDate, RowSchema.of(qualityData.keySet()));
+        for (Map.Entry<String, Object> entry : qualityData.entrySet()) {
+            String value = entry.getValue().toString();
+            int index = schema.indexOf(entry.getKey());
+            switch (NumberScanner.classify(value)) {
+                case INTEGER:
+                    setNumber(index, NumberScanner.parseInt(value), true);
+                    break;
+                case DECIMAL:
+                    setNumber(index, Double.parseDouble(value), false);
+                    break;
+                default:
+                    setText(index, value);
+            }
+        }
+    }
+
+    /**
+     * Initializes a row without values, which are filled in by the parser with {@link #setNumber} and {@link #setText}.
+     */
+    CsvData(String fileName, String ngsType, String sampleId, String experimentName, LocalDate analysisDate, RowSchema schema) {
         this.fileName = fileName;
         this.ngsType = ngsType;
         this.sampleId = sampleId;
         this.experimentName = experimentName;
         this.analysisDate = analysisDate;
-        this.qualityData = qualityData;
+        this.schema = schema;
+        this.numbers = new double[schema.size()];
+        this.present = new long[(schema.size() + 63) >>> 6];
+        this.integers = new long[present.length];
     }
 
     public String getFileName() {
@@ -37,12 +73,157 @@ public class CsvData {
         return experimentName;
     }
 
-    public Date getAnalysisDate() {
+    public LocalDate getAnalysisDate() {
         return analysisDate;
     }
 
-    public Map<String, Object> getQualityData() {
-        return qualityData;
+    /**
+     * @return The schema of the row's values, shared by the rows of its file.
+     */
+    public RowSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * @return True if the row has no values besides its sample id, experiment name and analysis date.
+     */
+    public boolean isEmpty() {
+        for (long word : present) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the next column with a value, to iterate the values of a row:
+     * {@code for (int i = row.nextIndex(0); i >= 0; i = row.nextIndex(i + 1))}.
+     *
+     * @param fromIndex The column index to start at.
+     * @return The index of the first column at or after fromIndex that has a value, or -1 if there is none.
+     */
+    public int nextIndex(int fromIndex) {
+        int word = fromIndex >>> 6;
+        if (word >= present.length) {
+            return -1;
+        }
+        long bits = present[word] & (-1L << fromIndex);
+        while (bits == 0) {
+            if (++word == present.length) {
+                return -1;
+            }
+            bits = present[word];
+        }
+        return (word << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    /**
+     * @param index The index of a column in the schema.
+     * @return True if the column has a value in this row.
+     */
+    public boolean has(int index) {
+        return (present[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * @param index The index of a column in the schema.
+     * @return True if the column has a value that was parsed as a number.
+     */
+    public boolean isNumber(int index) {
+        return has(index) && (texts == null || texts[index] == null);
+    }
+
+    /**
+     * @param index The index of a column for which {@link #isNumber} is true.
+     * @return The number in the column.
+     */
+    public double getNumber(int index) {
+        return numbers[index];
+    }
+
+    /**
+     * @param index The index of a column in the schema.
+     * @return The text in the column, or null if it has no value or holds a number.
+     */
+    public String getText(int index) {
+        return texts != null ? texts[index] : null;
+    }
+
+    /**
+     * Reads a value as it is stored in a metric table: numbers, and text values that read as a number, as a
+     * double, see {@link NumberScanner#toDoubleOrNull}.
+     *
+     * @param index The index of a column in the schema.
+     * @return The value as a double if it is a number, or null if it is text or absent.
+     */
+    public Double getNumberOrNull(int index) {
+        if (!has(index)) {
+            return null;
+        }
+        String text = getText(index);
+        if (text != null) {
+            return NumberScanner.toDoubleOrNull(text);
+        }
+        return numbers[index];
+    }
+
+    /**
+     * @param index The index of a column in the schema.
+     * @return The value in the column in the canonical form of {@link NumberScanner}, or null if it has no value.
+     */
+    public String getString(int index) {
+        if (!has(index)) {
+            return null;
+        }
+        String text = getText(index);
+        if (text != null) {
+            return text;
+        }
+        return (integers[index >>> 6] & (1L << index)) != 0 ? Integer.toString((int) numbers[index]) : Double.toString(numbers[index]);
+    }
+
+    /**
+     * @param name The name of a column.
+     * @return The value of the column in the canonical form of {@link NumberScanner}, or null if it has no value.
+     */
+    public String getValue(String name) {
+        int index = schema.indexOf(name);
+        return index >= 0 ? getString(index) : null;
+    }
+
+    /**
+     * Stores a number, replacing an earlier value of the column.
+     *
+     * @param index   The index of the column in the schema.
+     * @param value   The number.
+     * @param integer Whether the number is an integer within the range of an int.
+     */
+    void setNumber(int index, double value, boolean integer) {
+        numbers[index] = value;
+        present[index >>> 6] |= 1L << index;
+        if (integer) {
+            integers[index >>> 6] |= 1L << index;
+        } else {
+            integers[index >>> 6] &= ~(1L << index);
+        }
+        if (texts != null) {
+            texts[index] = null;
+        }
+    }
+
+    /**
+     * Stores a text value, replacing an earlier value of the column.
+     *
+     * @param index The index of the column in the schema.
+     * @param value The text.
+     */
+    void setText(int index, String value) {
+        if (texts == null) {
+            texts = new String[numbers.length];
+        }
+        texts[index] = value;
+        present[index >>> 6] |= 1L << index;
     }
 
     @Override
@@ -54,8 +235,8 @@ public class CsvData {
         sj.add("Experiment Name: " + (experimentName != null ? experimentName : "N/A"));
         sj.add("Analysis Date: " + (analysisDate != null ? analysisDate : "N/A"));
 
-        for (Map.Entry<String, Object> entry : qualityData.entrySet()) {
-            sj.add("\t" + entry.getKey() + ": " + entry.getValue());
+        for (int i = nextIndex(0); i >= 0; i = nextIndex(i + 1)) {
+            sj.add("\t" + schema.name(i) + ": " + getString(i));
         }
         return sj.toString();
     }
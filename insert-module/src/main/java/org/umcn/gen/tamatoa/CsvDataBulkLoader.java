@@ -0,0 +1,413 @@
+package org.umcn.gen.tamatoa;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Bulk loads parsed CSV rows with PostgreSQL's COPY protocol instead of row-by-row INSERTs.
+ * Rows are streamed into the unlogged Staging_Sample table and then merged into the Experiment, Sample,
+ * Quality_Metrics, Run_Quality_Metrics and Sample_Metric_Wide tables with a handful of set-based statements,
+ * which also add the load to the monthly rollup tables.
+ */
+public class CsvDataBulkLoader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CsvDataBulkLoader.class);
+
+    private static final int COPY_BUFFER_SIZE = 256 * 1024;
+
+    private static final String COPY_STAGING_SAMPLE =
+            "COPY Staging_Sample (load_identifier, row_number, ngs_type, experiment_name, analysis_date, run_id, "
+                    + "sequencer_series, sequencer_id, library_prep_kit, enrichment_kit, sample_id, source_file, metric_keys, metric_numbers, metric_texts) "
+                    + "FROM STDIN";
+
+    private static final String NEXT_LOAD_IDENTIFIER = "SELECT nextval('Staging_Load_seq')";
+
+    private static final String MERGE_NGS =
+            "INSERT INTO NGS (ngs_type) "
+                    + "SELECT DISTINCT ngs_type FROM Staging_Sample WHERE load_identifier = ? "
+                    + "ON CONFLICT DO NOTHING";
+
+    // Experiment columns are taken from the first row of a run, like the row-by-row path does.
+    // Experiments inserted by a concurrent ingest after the NOT EXISTS check are skipped by the unique constraint.
+    // The new experiments are counted in Monthly_Count and their number is returned.
+    private static final String MERGE_EXPERIMENT =
+            "WITH inserted AS ("
+                    + "INSERT INTO Experiment (experiment_name, analysis_date, run_id, sequencer_series, sequencer_id, "
+                    + "library_prep_kit, enrichment_kit, NGS_ngs_type) "
+                    + "SELECT DISTINCT ON (s.experiment_name, s.analysis_date, s.ngs_type) "
+                    + "s.experiment_name, s.analysis_date, s.run_id, s.sequencer_series, s.sequencer_id, "
+                    + "s.library_prep_kit, s.enrichment_kit, s.ngs_type "
+                    + "FROM Staging_Sample s "
+                    + "WHERE s.load_identifier = ? AND NOT EXISTS ("
+                    + "SELECT 1 FROM Experiment e WHERE e.experiment_name = s.experiment_name "
+                    + "AND e.analysis_date = s.analysis_date AND e.NGS_ngs_type = s.ngs_type) "
+                    + "ORDER BY s.experiment_name, s.analysis_date, s.ngs_type, s.row_number "
+                    + "ON CONFLICT (experiment_name, analysis_date, NGS_ngs_type) DO NOTHING "
+                    + "RETURNING NGS_ngs_type, analysis_date"
+                    + "), counted AS ("
+                    + "INSERT INTO Monthly_Count (NGS_ngs_type, analysis_month, experiment_count, sample_count) "
+                    + "SELECT NGS_ngs_type, " + String.format(MonthlyRollup.MONTH_OF, "analysis_date") + ", count(*), 0 "
+                    + "FROM inserted GROUP BY 1, 2 "
+                    + MonthlyRollup.ADD_TO_COUNTS
+                    + ") "
+                    + "SELECT count(*) FROM inserted";
+
+    private static final String RESOLVE_EXPERIMENT =
+            "UPDATE Staging_Sample s SET experiment_identifier = ("
+                    + "SELECT e.experiment_identifier FROM Experiment e WHERE e.experiment_name = s.experiment_name "
+                    + "AND e.analysis_date = s.analysis_date AND e.NGS_ngs_type = s.ngs_type) "
+                    + "WHERE s.load_identifier = ?";
+
+    // Samples that already exist, or occur earlier in the same load, are left as they are, so loading a file
+    // again adds nothing. The merge ingest mode updates existing samples instead.
+    private static final String SKIP_EXISTING_SAMPLES =
+            "DELETE FROM Staging_Sample s WHERE s.load_identifier = ? AND ("
+                    + "EXISTS (SELECT 1 FROM Sample x WHERE x.Experiment_experiment_identifier = s.experiment_identifier "
+                    + "AND x.sample_id = s.sample_id) "
+                    + "OR EXISTS (SELECT 1 FROM Staging_Sample d WHERE d.load_identifier = s.load_identifier "
+                    + "AND d.experiment_identifier = s.experiment_identifier AND d.sample_id = s.sample_id AND d.row_number < s.row_number)) "
+                    + "RETURNING s.sample_id, s.source_file";
+
+    // Sample identifiers are drawn up front so the metric rows can refer to them without a RETURNING round trip
+    private static final String ASSIGN_SAMPLE =
+            "UPDATE Staging_Sample SET sample_identifier = nextval(pg_get_serial_sequence('sample', 'sample_identifier')) "
+                    + "WHERE load_identifier = ?";
+
+    private static final String MERGE_SAMPLE =
+            "INSERT INTO Sample (sample_identifier, sample_id, Experiment_experiment_identifier, source_file) "
+                    + "SELECT sample_identifier, sample_id, experiment_identifier, source_file FROM Staging_Sample "
+                    + "WHERE load_identifier = ? ORDER BY row_number";
+
+    private static final String COUNT_SAMPLES =
+            "INSERT INTO Monthly_Count (NGS_ngs_type, analysis_month, experiment_count, sample_count) "
+                    + "SELECT ngs_type, " + String.format(MonthlyRollup.MONTH_OF, "analysis_date") + ", 0, count(*) "
+                    + "FROM Staging_Sample WHERE load_identifier = ? GROUP BY 1, 2 "
+                    + MonthlyRollup.ADD_TO_COUNTS;
+
+    private static final String MERGE_METRIC_KEY =
+            "INSERT INTO Metric_Key (metric_key) "
+                    + "SELECT DISTINCT m.metric_key FROM Staging_Sample s CROSS JOIN LATERAL unnest(s.metric_keys) AS m(metric_key) "
+                    + "WHERE s.load_identifier = ? "
+                    + "ON CONFLICT (metric_key) DO NOTHING";
+
+    private static final String MERGE_QUALITY_METRICS =
+            "INSERT INTO Quality_Metrics (Sample_sample_identifier, quality_metric_value, Metric_Key_metric_key_identifier, quality_metric_text) "
+                    + "SELECT s.sample_identifier, m.metric_number, k.metric_key_identifier, m.metric_text "
+                    + "FROM Staging_Sample s CROSS JOIN LATERAL unnest(s.metric_keys, s.metric_numbers, s.metric_texts) "
+                    + "AS m(metric_key, metric_number, metric_text) "
+                    + "JOIN Metric_Key k ON k.metric_key = m.metric_key "
+                    + "WHERE s.load_identifier = ? AND s.ngs_type IN ('WGS', 'WES')";
+
+    private static final String SUMMARIZE_QUALITY_METRICS =
+            "INSERT INTO Monthly_Metric_Summary (Metric_Key_metric_key_identifier, NGS_ngs_type, analysis_month, "
+                    + "value_count, value_sum, value_sum_of_squares, value_min, value_max) "
+                    + "SELECT k.metric_key_identifier, s.ngs_type, " + String.format(MonthlyRollup.MONTH_OF, "s.analysis_date") + ", "
+                    + "count(*), sum(m.metric_number), sum(m.metric_number * m.metric_number), min(m.metric_number), max(m.metric_number) "
+                    + "FROM Staging_Sample s CROSS JOIN LATERAL unnest(s.metric_keys, s.metric_numbers) AS m(metric_key, metric_number) "
+                    + "JOIN Metric_Key k ON k.metric_key = m.metric_key "
+                    + "WHERE s.load_identifier = ? AND s.ngs_type IN ('WGS', 'WES') AND m.metric_number IS NOT NULL "
+                    + "GROUP BY 1, 2, 3 "
+                    + MonthlyRollup.ADD_TO_METRIC_SUMMARY;
+
+    // Samples of one LRS run share the run metrics, the first row of the run wins.
+    // Only the run metrics actually inserted are added to Monthly_Metric_Summary, their number is returned.
+    private static final String MERGE_RUN_QUALITY_METRICS =
+            "WITH inserted AS ("
+                    + "INSERT INTO Run_Quality_Metrics (Experiment_experiment_identifier, run_quality_metric_value, Metric_Key_metric_key_identifier, run_quality_metric_text) "
+                    + "SELECT DISTINCT ON (s.experiment_identifier, k.metric_key_identifier) "
+                    + "s.experiment_identifier, m.metric_number, k.metric_key_identifier, m.metric_text "
+                    + "FROM Staging_Sample s CROSS JOIN LATERAL unnest(s.metric_keys, s.metric_numbers, s.metric_texts) "
+                    + "AS m(metric_key, metric_number, metric_text) "
+                    + "JOIN Metric_Key k ON k.metric_key = m.metric_key "
+                    + "WHERE s.load_identifier = ? AND s.ngs_type = 'LRS' "
+                    + "ORDER BY s.experiment_identifier, k.metric_key_identifier, s.row_number "
+                    + "ON CONFLICT DO NOTHING "
+                    + "RETURNING Experiment_experiment_identifier, Metric_Key_metric_key_identifier, run_quality_metric_value"
+                    + "), summarized AS ("
+                    + "INSERT INTO Monthly_Metric_Summary (Metric_Key_metric_key_identifier, NGS_ngs_type, analysis_month, "
+                    + "value_count, value_sum, value_sum_of_squares, value_min, value_max) "
+                    + "SELECT i.Metric_Key_metric_key_identifier, e.NGS_ngs_type, " + String.format(MonthlyRollup.MONTH_OF, "e.analysis_date") + ", "
+                    + "count(*), sum(i.run_quality_metric_value), sum(i.run_quality_metric_value * i.run_quality_metric_value), "
+                    + "min(i.run_quality_metric_value), max(i.run_quality_metric_value) "
+                    + "FROM inserted i JOIN Experiment e ON e.experiment_identifier = i.Experiment_experiment_identifier "
+                    + "WHERE i.run_quality_metric_value IS NOT NULL "
+                    + "GROUP BY 1, 2, 3 "
+                    + MonthlyRollup.ADD_TO_METRIC_SUMMARY
+                    + ") "
+                    + "SELECT count(*) FROM inserted";
+
+    // The numeric quality metrics of the sample s as an array indexed by metric key identifier
+    static final String SAMPLE_METRIC_VALUES =
+            "COALESCE((SELECT array_agg(q.quality_metric_value ORDER BY g.i) "
+                    + "FROM generate_series(1, (SELECT max(m.Metric_Key_metric_key_identifier) FROM Quality_Metrics m "
+                    + "WHERE m.Sample_sample_identifier = s.sample_identifier)) AS g(i) "
+                    + "LEFT JOIN Quality_Metrics q ON q.Sample_sample_identifier = s.sample_identifier "
+                    + "AND q.Metric_Key_metric_key_identifier = g.i), '{}')";
+
+    // Lays the numeric metrics of each new WGS/WES sample out as an array indexed by metric key identifier
+    private static final String MERGE_SAMPLE_METRIC_WIDE =
+            "INSERT INTO Sample_Metric_Wide (Sample_sample_identifier, Experiment_experiment_identifier, analysis_date, "
+                    + "NGS_ngs_type, sample_id, experiment_name, run_id, metric_values) "
+                    + "SELECT s.sample_identifier, e.experiment_identifier, e.analysis_date, e.NGS_ngs_type, s.sample_id, "
+                    + "e.experiment_name, e.run_id, " + SAMPLE_METRIC_VALUES + " "
+                    + "FROM Staging_Sample s JOIN Experiment e ON e.experiment_identifier = s.experiment_identifier "
+                    + "WHERE s.load_identifier = ? AND s.ngs_type IN ('WGS', 'WES')";
+
+    private static final String CLEAR_STAGING = "DELETE FROM Staging_Sample WHERE load_identifier = ?";
+
+    private final Connection connection;
+    private final IngestMetrics metrics = IngestMetrics.get();
+    // The NGS type of the rows of the current load, all rows of a file share it
+    private String ngsType;
+    // The number of samples of the current load that were ingested before and skipped
+    private long existingSamples;
+
+    /**
+     * Initializes the CsvDataBulkLoader with a given database connection.
+     *
+     * @param connection A connection to a PostgreSQL database, it is used in manual commit mode while loading.
+     */
+    public CsvDataBulkLoader(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Loads all rows of one file in a single transaction: the rows are copied into the staging table,
+     * merged into the real tables and removed from the staging table again. Samples that were ingested before
+     * are skipped with a warning and counted in the ingest metrics, as in row mode.
+     *
+     * @param csvDataList The parsed rows of a file.
+     * @return The number of samples loaded.
+     * @throws SQLException If the COPY or one of the merge statements fails, in which case nothing is loaded.
+     */
+    public long load(List<CsvData> csvDataList) throws SQLException {
+        return load(csvDataList.iterator());
+    }
+
+    /**
+     * Loads the rows of one file in a single transaction while they are being parsed. Each row is encoded
+     * into the COPY stream as soon as it is taken from the iterator, so the file is never held in memory.
+     *
+     * @param rows The parsed rows of a file.
+     * @return The number of samples loaded.
+     * @throws SQLException If the COPY or one of the merge statements fails, in which case nothing is loaded.
+     *                      A read error of the iterator is rethrown unchanged after the transaction is rolled back.
+     */
+    public long load(Iterator<CsvData> rows) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            existingSamples = 0;
+            long loadIdentifier = nextLoadIdentifier();
+            Set<LocalDate> analysisDates = new HashSet<>();
+            long startTime = System.nanoTime();
+            long copied = copyToStaging(loadIdentifier, rows, analysisDates);
+            if (copied > 0) {
+                long copiedTime = System.nanoTime();
+                metrics.record(ngsType, IngestMetrics.Stage.COPY, copiedTime - startTime);
+                PartitionManager.ensurePartitions(connection, analysisDates);
+                long metricCount = merge(loadIdentifier);
+                metrics.record(ngsType, IngestMetrics.Stage.MERGE, System.nanoTime() - copiedTime);
+                metrics.count(ngsType, IngestMetrics.Counter.METRICS, metricCount);
+            }
+            connection.commit();
+            if (existingSamples > 0) {
+                metrics.count(ngsType, IngestMetrics.Counter.EXISTING_ROWS, existingSamples);
+            }
+            return copied - existingSamples;
+        } catch (SQLException | RuntimeException e) {
+            // Partitions created for the load are rolled back as well
+            PartitionManager.rollback(connection);
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private long nextLoadIdentifier() throws SQLException {
+        metrics.roundTrip();
+        try (PreparedStatement statement = connection.prepareStatement(NEXT_LOAD_IDENTIFIER);
+             ResultSet resultSet = statement.executeQuery()) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+
+    /**
+     * Streams the rows into Staging_Sample with COPY ... FROM STDIN. Rows lacking one of the not-nullable
+     * columns are skipped, as they would be rejected by the database anyway. The analysis dates of the copied
+     * rows are collected into {@code analysisDates}.
+     */
+    private long copyToStaging(long loadIdentifier, Iterator<CsvData> rows, Set<LocalDate> analysisDates) throws SQLException {
+        PGCopyOutputStream copyStream = new PGCopyOutputStream(connection.unwrap(PGConnection.class), COPY_STAGING_SAMPLE, COPY_BUFFER_SIZE);
+        try {
+            CopyTextEncoder encoder = new CopyTextEncoder(copyStream);
+            List<String> keys = new ArrayList<>();
+            List<String> numbers = new ArrayList<>();
+            List<String> texts = new ArrayList<>();
+            int rowNumber = 0;
+
+            while (rows.hasNext()) {
+                CsvData csvData = rows.next();
+                rowNumber++;
+                if (!isLoadable(csvData)) {
+                    continue;
+                }
+                encodeStagingRow(encoder, loadIdentifier, rowNumber, csvData, keys, numbers, texts);
+                ngsType = csvData.getNgsType();
+                analysisDates.add(csvData.getAnalysisDate());
+            }
+            encoder.flush();
+            copyStream.endCopy();
+            metrics.roundTrip();
+            return encoder.getRowCount();
+        } catch (IOException e) {
+            copyStream.cancelCopy();
+            throw new SQLException("Error streaming rows to the staging table", e);
+        } catch (RuntimeException e) {
+            copyStream.cancelCopy();
+            throw e;
+        }
+    }
+
+    /**
+     * Merges the staged rows of a load into the tables and removes them from the staging table.
+     *
+     * @return The number of quality metrics and run quality metrics inserted.
+     */
+    private long merge(long loadIdentifier) throws SQLException {
+        executeForLoad(MERGE_NGS, loadIdentifier);
+        long experiments = countForLoad(MERGE_EXPERIMENT, loadIdentifier);
+        executeForLoad(RESOLVE_EXPERIMENT, loadIdentifier);
+        skipExistingSamples(loadIdentifier);
+        executeForLoad(ASSIGN_SAMPLE, loadIdentifier);
+        int samples = executeForLoad(MERGE_SAMPLE, loadIdentifier);
+        executeForLoad(COUNT_SAMPLES, loadIdentifier);
+        executeForLoad(MERGE_METRIC_KEY, loadIdentifier);
+        int qualityMetrics = executeForLoad(MERGE_QUALITY_METRICS, loadIdentifier);
+        executeForLoad(SUMMARIZE_QUALITY_METRICS, loadIdentifier);
+        long runMetrics = countForLoad(MERGE_RUN_QUALITY_METRICS, loadIdentifier);
+        executeForLoad(MERGE_SAMPLE_METRIC_WIDE, loadIdentifier);
+        executeForLoad(CLEAR_STAGING, loadIdentifier);
+        LOG.debug("Merged load {}: {} new experiments, {} samples, {} quality metrics, {} run quality metrics",
+                loadIdentifier, experiments, samples, qualityMetrics, runMetrics);
+        return qualityMetrics + runMetrics;
+    }
+
+    /**
+     * Removes the staged samples that were ingested before, or occur earlier in the same load, and logs them.
+     */
+    private void skipExistingSamples(long loadIdentifier) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(SKIP_EXISTING_SAMPLES)) {
+            statement.setLong(1, loadIdentifier);
+            metrics.roundTrip();
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    existingSamples++;
+                    LOG.warn("Skipping sample: {} of file: {} that was ingested before, use --mode=merge to update it",
+                            resultSet.getString(1), resultSet.getString(2));
+                }
+            }
+        }
+    }
+
+    private int executeForLoad(String sql, long loadIdentifier) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setLong(1, loadIdentifier);
+            metrics.roundTrip();
+            return statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Runs a statement that writes rows and returns their number as its only result.
+     */
+    private long countForLoad(String sql, long loadIdentifier) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setLong(1, loadIdentifier);
+            metrics.roundTrip();
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                return resultSet.getLong(1);
+            }
+        }
+    }
+
+    /**
+     * Encodes one row of Staging_Sample, splitting the metrics of the row into numbers and text.
+     *
+     * @param encoder        The encoder of the COPY stream.
+     * @param loadIdentifier The identifier of the load.
+     * @param rowNumber      The number of the row in its file.
+     * @param csvData        The row.
+     * @param keys           Scratch list for the metric keys, reused between rows.
+     * @param numbers        Scratch list for the numeric metric values, reused between rows.
+     * @param texts          Scratch list for the text metric values, reused between rows.
+     * @throws IOException If the underlying stream fails.
+     */
+    static void encodeStagingRow(CopyTextEncoder encoder, long loadIdentifier, int rowNumber, CsvData csvData,
+                                 List<String> keys, List<String> numbers, List<String> texts) throws IOException {
+        RowSchema schema = csvData.getSchema();
+        keys.clear();
+        numbers.clear();
+        texts.clear();
+        for (int i = csvData.nextIndex(0); i >= 0; i = csvData.nextIndex(i + 1)) {
+            if (!schema.isMetric(i)) {
+                continue;
+            }
+            // The canonical form of a number is read by PostgreSQL as double precision
+            keys.add(schema.name(i));
+            if (csvData.isNumber(i)) {
+                numbers.add(csvData.getString(i));
+                texts.add(null);
+            } else {
+                String value = csvData.getText(i);
+                NumberScanner.Kind kind = NumberScanner.classify(value);
+                numbers.add(kind != NumberScanner.Kind.TEXT ? NumberScanner.canonical(value, kind) : null);
+                texts.add(kind == NumberScanner.Kind.TEXT ? value : null);
+            }
+        }
+
+        encoder.number(loadIdentifier);
+        encoder.number(rowNumber);
+        encoder.text(csvData.getNgsType());
+        encoder.text(csvData.getExperimentName());
+        encoder.date(csvData.getAnalysisDate());
+        encoder.text(csvData.getValue("run_id"));
+        encoder.text(csvData.getValue("sequencer_series"));
+        encoder.text(csvData.getValue("sequencer_id"));
+        encoder.text(csvData.getValue("library_prep_kit"));
+        encoder.text(csvData.getValue("enrichment_kit"));
+        encoder.text(csvData.getSampleId());
+        encoder.text(csvData.getFileName());
+        encoder.textArray(keys);
+        encoder.numberArray(numbers);
+        encoder.textArray(texts);
+        encoder.endRow();
+    }
+
+    private static boolean isLoadable(CsvData csvData) {
+        if (csvData.isEmpty()) {
+            return false;
+        }
+        if (csvData.getSampleId() == null || csvData.getExperimentName() == null || csvData.getAnalysisDate() == null) {
+            LOG.warn("Skipping row without sample id, experiment name or analysis date in file: {}", csvData.getFileName());
+            return false;
+        }
+        return true;
+    }
+}
@@ -1,69 +1,310 @@
 package org.umcn.gen.tamatoa;
 
 import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.InsertValuesStep4;
 import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.Table;
 import org.jooq.impl.DSL;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.Date;
+import java.sql.Savepoint;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 public class CsvDataInserter {
 
     private static final Logger LOG = LoggerFactory.getLogger(CsvDataInserter.class);
+
+    // Number of metric rows sent in a single multi-row INSERT statement
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    // Each metric row binds 4 parameters, a statement can bind at most 65535
+    public static final int MAX_BATCH_SIZE = 65535 / 4;
+
+    // Inserts the experiments of a list of rows that do not exist yet, counts them in Monthly_Count and returns
+    // their identifiers, the ones a concurrent ingest inserted first are not visible to this statement and are
+    // looked up separately
+    private static final String RESOLVE_EXPERIMENTS =
+            "WITH input AS ("
+                    + "SELECT * FROM unnest(?::varchar[], ?::date[], ?::varchar[], ?::varchar[], ?::varchar[], ?::varchar[], ?::varchar[], ?::varchar[]) "
+                    + "AS t(experiment_name, analysis_date, NGS_ngs_type, run_id, sequencer_series, sequencer_id, library_prep_kit, enrichment_kit)"
+                    + "), inserted AS ("
+                    + "INSERT INTO Experiment (experiment_name, analysis_date, run_id, sequencer_series, sequencer_id, library_prep_kit, enrichment_kit, NGS_ngs_type) "
+                    + "SELECT experiment_name, analysis_date, run_id, sequencer_series, sequencer_id, library_prep_kit, enrichment_kit, NGS_ngs_type FROM input "
+                    + "ON CONFLICT (experiment_name, analysis_date, NGS_ngs_type) DO NOTHING "
+                    + "RETURNING experiment_identifier, experiment_name, analysis_date, NGS_ngs_type"
+                    + "), counted AS ("
+                    + "INSERT INTO Monthly_Count (NGS_ngs_type, analysis_month, experiment_count, sample_count) "
+                    + "SELECT NGS_ngs_type, " + String.format(MonthlyRollup.MONTH_OF, "analysis_date") + ", count(*), 0 "
+                    + "FROM inserted GROUP BY 1, 2 "
+                    + MonthlyRollup.ADD_TO_COUNTS
+                    + ") "
+                    + "SELECT experiment_identifier, experiment_name, analysis_date, NGS_ngs_type FROM inserted "
+                    + "UNION ALL "
+                    + "SELECT e.experiment_identifier, e.experiment_name, e.analysis_date, e.NGS_ngs_type FROM Experiment e "
+                    + "JOIN input i ON e.experiment_name = i.experiment_name AND e.analysis_date = i.analysis_date AND e.NGS_ngs_type = i.NGS_ngs_type";
+    private static final String SELECT_EXPERIMENTS =
+            "SELECT e.experiment_identifier, e.experiment_name, e.analysis_date, e.NGS_ngs_type FROM Experiment e "
+                    + "JOIN unnest(?::varchar[], ?::date[], ?::varchar[]) AS i(experiment_name, analysis_date, NGS_ngs_type) "
+                    + "ON e.experiment_name = i.experiment_name AND e.analysis_date = i.analysis_date AND e.NGS_ngs_type = i.NGS_ngs_type";
+    private static final String INSERT_NGS_TYPES = "INSERT INTO NGS (ngs_type) SELECT unnest(?::varchar[]) ON CONFLICT DO NOTHING";
+    // Adds the metric keys that are not in the dictionary yet and returns the identifiers of all of them
+    private static final String RESOLVE_METRIC_KEYS =
+            "WITH input AS (SELECT DISTINCT unnest(?::varchar[]) AS metric_key), inserted AS ("
+                    + "INSERT INTO Metric_Key (metric_key) SELECT metric_key FROM input "
+                    + "ON CONFLICT (metric_key) DO NOTHING "
+                    + "RETURNING metric_key_identifier, metric_key"
+                    + ") "
+                    + "SELECT metric_key_identifier, metric_key FROM inserted "
+                    + "UNION ALL "
+                    + "SELECT k.metric_key_identifier, k.metric_key FROM Metric_Key k JOIN input i ON k.metric_key = i.metric_key";
+    private static final String SELECT_METRIC_KEYS =
+            "SELECT metric_key_identifier, metric_key FROM Metric_Key WHERE metric_key = ANY(?::varchar[])";
+    // Inserts the run metrics of an LRS experiment, which all samples of the run repeat, so only the first sample
+    // of the run writes them, and returns the metrics that were inserted
+    private static final String INSERT_RUN_QUALITY_METRICS =
+            "INSERT INTO Run_Quality_Metrics (Experiment_experiment_identifier, Metric_Key_metric_key_identifier, "
+                    + "run_quality_metric_value, run_quality_metric_text) "
+                    + "SELECT ?, key_identifier, value, text FROM unnest(?::smallint[], ?::float8[], ?::varchar[]) "
+                    + "AS t(key_identifier, value, text) "
+                    + "ON CONFLICT DO NOTHING "
+                    + "RETURNING Metric_Key_metric_key_identifier, run_quality_metric_value";
+
+    // Inserts the samples of a chunk that do not exist yet, counts them in Monthly_Count and returns the
+    // identifiers of all of them with whether they are new
+    private static final String UPSERT_SAMPLES =
+            "WITH input AS ("
+                    + "SELECT * FROM unnest(?::bigint[], ?::varchar[], ?::varchar[]) AS t(experiment_identifier, sample_id, source_file)"
+                    + "), inserted AS ("
+                    + "INSERT INTO Sample (sample_id, Experiment_experiment_identifier, source_file) "
+                    + "SELECT sample_id, experiment_identifier, source_file FROM input "
+                    + "ON CONFLICT (Experiment_experiment_identifier, sample_id) DO NOTHING "
+                    + "RETURNING sample_identifier, Experiment_experiment_identifier, sample_id"
+                    + "), counted AS ("
+                    + "INSERT INTO Monthly_Count (NGS_ngs_type, analysis_month, experiment_count, sample_count) "
+                    + "SELECT e.NGS_ngs_type, " + String.format(MonthlyRollup.MONTH_OF, "e.analysis_date") + ", 0, count(*) "
+                    + "FROM inserted i JOIN Experiment e ON e.experiment_identifier = i.Experiment_experiment_identifier "
+                    + "GROUP BY 1, 2 "
+                    + MonthlyRollup.ADD_TO_COUNTS
+                    + ") "
+                    + "SELECT sample_identifier, Experiment_experiment_identifier, sample_id, true FROM inserted "
+                    + "UNION ALL "
+                    + "SELECT s.sample_identifier, s.Experiment_experiment_identifier, s.sample_id, false FROM Sample s "
+                    + "JOIN input i ON s.Experiment_experiment_identifier = i.experiment_identifier AND s.sample_id = i.sample_id";
+    private static final String SELECT_SAMPLES =
+            "SELECT s.sample_identifier, s.Experiment_experiment_identifier, s.sample_id, false FROM Sample s "
+                    + "JOIN unnest(?::bigint[], ?::varchar[]) AS i(experiment_identifier, sample_id) "
+                    + "ON s.Experiment_experiment_identifier = i.experiment_identifier AND s.sample_id = i.sample_id";
+    // Writes the metric values of a chunk that are new or differ from the stored ones, adds the new numeric values
+    // to Monthly_Metric_Summary and returns the number of inserted and updated values. Unchanged values are not
+    // touched. The placeholders are the table, its owner, value and text columns and the join to the experiment.
+    private static final String UPSERT_METRICS =
+            "WITH input AS ("
+                    + "SELECT * FROM unnest(?::bigint[], ?::smallint[], ?::float8[], ?::varchar[]) AS t(owner_identifier, key_identifier, value, text)"
+                    + "), changed AS ("
+                    + "SELECT i.*, m.%2$s IS NULL AS is_new FROM input i "
+                    + "LEFT JOIN %1$s m ON m.%2$s = i.owner_identifier AND m.Metric_Key_metric_key_identifier = i.key_identifier "
+                    + "WHERE m.%2$s IS NULL OR m.%3$s IS DISTINCT FROM i.value OR m.%4$s IS DISTINCT FROM i.text"
+                    + "), upserted AS ("
+                    + "INSERT INTO %1$s (%2$s, Metric_Key_metric_key_identifier, %3$s, %4$s) "
+                    + "SELECT owner_identifier, key_identifier, value, text FROM changed "
+                    + "ON CONFLICT (%2$s, Metric_Key_metric_key_identifier) DO UPDATE SET "
+                    + "%3$s = EXCLUDED.%3$s, %4$s = EXCLUDED.%4$s"
+                    + "), summarized AS ("
+                    + "INSERT INTO Monthly_Metric_Summary (Metric_Key_metric_key_identifier, NGS_ngs_type, analysis_month, "
+                    + "value_count, value_sum, value_sum_of_squares, value_min, value_max) "
+                    + "SELECT c.key_identifier, e.NGS_ngs_type, " + String.format(MonthlyRollup.MONTH_OF, "e.analysis_date") + ", "
+                    + "count(*), sum(c.value), sum(c.value * c.value), min(c.value), max(c.value) "
+                    + "FROM changed c %5$s "
+                    + "WHERE c.is_new AND c.value IS NOT NULL GROUP BY 1, 2, 3 "
+                    + MonthlyRollup.ADD_TO_METRIC_SUMMARY
+                    + ") "
+                    + "SELECT count(*) FILTER (WHERE is_new), count(*) FILTER (WHERE NOT is_new) FROM changed";
+    private static final String UPSERT_QUALITY_METRICS = String.format(UPSERT_METRICS,
+            "Quality_Metrics", "Sample_sample_identifier", "quality_metric_value", "quality_metric_text",
+            "JOIN Sample s ON s.sample_identifier = c.owner_identifier "
+                    + "JOIN Experiment e ON e.experiment_identifier = s.Experiment_experiment_identifier");
+    private static final String UPSERT_RUN_QUALITY_METRICS = String.format(UPSERT_METRICS,
+            "Run_Quality_Metrics", "Experiment_experiment_identifier", "run_quality_metric_value", "run_quality_metric_text",
+            "JOIN Experiment e ON e.experiment_identifier = c.owner_identifier");
+    // Removes the metrics of existing samples that are no longer in their row
+    private static final String DELETE_STALE_QUALITY_METRICS =
+            "DELETE FROM Quality_Metrics q WHERE q.Sample_sample_identifier = ANY(?::bigint[]) "
+                    + "AND NOT EXISTS (SELECT 1 FROM unnest(?::bigint[], ?::smallint[]) AS i(owner_identifier, key_identifier) "
+                    + "WHERE i.owner_identifier = q.Sample_sample_identifier AND i.key_identifier = q.Metric_Key_metric_key_identifier)";
+    // Projects the numeric metrics of a chunk's WGS/WES samples, rewriting only the projections that changed
+    private static final String UPSERT_SAMPLE_METRIC_WIDE =
+            "INSERT INTO Sample_Metric_Wide (Sample_sample_identifier, Experiment_experiment_identifier, analysis_date, "
+                    + "NGS_ngs_type, sample_id, experiment_name, run_id, metric_values) "
+                    + "SELECT s.sample_identifier, e.experiment_identifier, e.analysis_date, e.NGS_ngs_type, s.sample_id, "
+                    + "e.experiment_name, e.run_id, " + CsvDataBulkLoader.SAMPLE_METRIC_VALUES + " "
+                    + "FROM Sample s JOIN Experiment e ON e.experiment_identifier = s.Experiment_experiment_identifier "
+                    + "WHERE s.sample_identifier = ANY(?::bigint[]) "
+                    + "ON CONFLICT ON CONSTRAINT Sample_Metric_Wide_pk DO UPDATE SET "
+                    + "metric_values = EXCLUDED.metric_values, run_id = EXCLUDED.run_id "
+                    + "WHERE Sample_Metric_Wide.metric_values IS DISTINCT FROM EXCLUDED.metric_values "
+                    + "OR Sample_Metric_Wide.run_id IS DISTINCT FROM EXCLUDED.run_id";
+
+    private final Connection connection;
     private final DSLContext dsl;
+    private final int batchSize;
+    private final IdentityCache identityCache;
+    // The rollup increments of the caller's transaction, null when every row writes its own
+    private final MonthlyRollup.Increments rollup;
+
+    /**
+     * Initializes the CsvDataInserter with a given database connection and the default metric batch size.
+     *
+     * @param connection The database connection to be used for JOOQ operations.
+     */
+    public CsvDataInserter(Connection connection) {
+        this(connection, DEFAULT_BATCH_SIZE);
+    }
 
     /**
      * Initializes the CsvDataInserter with a given database connection.
      * Sets the log level of JOOQ's LoggerListener to WARN programmatically.
      *
      * @param connection The database connection to be used for JOOQ operations.
+     * @param batchSize  The maximum number of metric rows written per INSERT statement, at most {@link #MAX_BATCH_SIZE}.
      */
-    public CsvDataInserter(Connection connection) {
+    public CsvDataInserter(Connection connection, int batchSize) {
+        this(connection, batchSize, new IdentityCache());
+    }
+
+    /**
+     * Initializes the CsvDataInserter with a given database connection and the identity cache of the ingest run.
+     *
+     * @param connection    The database connection to be used for JOOQ operations.
+     * @param batchSize     The maximum number of metric rows written per INSERT statement, at most {@link #MAX_BATCH_SIZE}.
+     * @param identityCache The NGS types and experiments known to exist, shared by all inserters of the run.
+     */
+    public CsvDataInserter(Connection connection, int batchSize, IdentityCache identityCache) {
+        this(connection, batchSize, identityCache, null);
+    }
+
+    /**
+     * Initializes the CsvDataInserter for rows written in a transaction of several rows, whose monthly rollup
+     * increments are collected instead of being written per row. The owner of the transaction writes them before
+     * it commits, see {@link RowTransaction}.
+     *
+     * @param connection    The database connection to be used for JOOQ operations.
+     * @param batchSize     The maximum number of metric rows written per INSERT statement, at most {@link #MAX_BATCH_SIZE}.
+     * @param identityCache The NGS types and experiments known to exist, shared by all inserters of the run.
+     * @param rollup        The rollup increments of the transaction, or null to write them with every row.
+     */
+    public CsvDataInserter(Connection connection, int batchSize, IdentityCache identityCache, MonthlyRollup.Increments rollup) {
+        if (batchSize < 1 || batchSize > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("Batch size must be between 1 and " + MAX_BATCH_SIZE + ", got: " + batchSize);
+        }
+        this.connection = connection;
+        this.batchSize = batchSize;
+        this.identityCache = identityCache;
+        this.rollup = rollup;
+
         // Set the log level of JOOQ LoggerListener to WARN programmatically
         Logger jooqLogger = LoggerFactory.getLogger("org.jooq.tools.LoggerListener");
         ch.qos.logback.classic.Logger logbackLogger = (ch.qos.logback.classic.Logger) jooqLogger;
         logbackLogger.setLevel(ch.qos.logback.classic.Level.WARN);
 
-        // Initialize the DSLContext for JOOQ operations
+        // Initialize the DSLContext for JOOQ operations, counting its statements as database round trips
         this.dsl = DSL.using(connection);
+        this.dsl.configuration().set(new IngestMetrics.RoundTripListener());
     }
 
     /**
      * Inserts CSV data into the database by performing several steps within a transaction.
-     * This includes inserting NGS type, experiment, sample, and quality metrics.
+     * This includes inserting NGS type, experiment, sample, and quality metrics, and keeping the per-sample
+     * metric projection and the monthly rollups up to date.
+     * <p>
+     * When the connection is in auto-commit mode the row is written in a transaction of its own. Otherwise the
+     * caller owns the transaction, see {@link RowTransaction}, and the row is written under a savepoint: when it
+     * fails, only the row is rolled back and the transaction can go on with the next row.
+     * <p>
+     * A sample that was ingested before is skipped with a warning and counted in the ingest metrics, as the copy
+     * mode does, so the new samples of a cumulative trend file are still written. The merge mode updates it.
      *
      * @param csvData The CSV data to be inserted.
+     * @return True if the sample was inserted, false if it was ingested before and skipped.
      * @throws SQLException If an error occurs while inserting the data.
      */
-    public void insertCsvData(CsvData csvData) throws SQLException {
-        Map<String, Object> dataMap = csvData.getQualityData();
+    public boolean insertCsvData(CsvData csvData) throws SQLException {
         String ngsType = csvData.getNgsType();
-        Date analysisDate = csvData.getAnalysisDate();
-        String sampleID = csvData.getSampleId();
-        String experimentName = csvData.getExperimentName();
+        LocalDate analysisDate = csvData.getAnalysisDate();
+        IdentityCache.ExperimentKey experimentKey = IdentityCache.ExperimentKey.of(csvData);
+        Long cachedExperimentId = experimentKey != null ? identityCache.getExperimentId(experimentKey) : null;
 
         try {
-            dsl.transaction(configuration -> {
-                DSLContext txDsl = DSL.using(configuration);
-
-                // Step 1: Insert or verify NGS type
-                insertNgsType(txDsl, ngsType);
+            // In a transaction of several rows the row is guarded by a savepoint, so a failing row can be rolled
+            // back without losing the rows before it
+            boolean ownTransaction = connection.getAutoCommit();
 
-                // Step 2: Insert into Experiment table
-                long experimentId = insertExperiment(txDsl, dataMap, ngsType, analysisDate, experimentName);
+            // The dictionary and the partitions are shared by all rows, they are written outside the row's transaction
+            long keysStart = System.nanoTime();
+            if (resolveMetricKeys(metricNames(csvData)) > 0) {
+                IngestMetrics.get().record(ngsType, IngestMetrics.Stage.METRIC_KEYS, System.nanoTime() - keysStart);
+            }
+            PartitionManager.ensurePartitions(connection, Collections.singletonList(analysisDate));
 
-                // Step 3: Insert into Sample table
-                long sampleId = insertSample(txDsl, experimentId, sampleID);
+            long startTime = System.nanoTime();
+            MonthlyRollup.Increments rowRollup = new MonthlyRollup.Increments();
+            WrittenRow written;
+            if (ownTransaction) {
+                written = dsl.transactionResult(configuration -> {
+                    DSLContext txDsl = DSL.using(configuration);
+                    WrittenRow row = insertRow(txDsl, csvData, cachedExperimentId, rowRollup);
+                    rowRollup.write(txDsl);
+                    return row;
+                });
+            } else {
+                Savepoint savepoint = connection.setSavepoint();
+                try {
+                    written = insertRow(dsl, csvData, cachedExperimentId, rowRollup);
+                    if (rollup == null) {
+                        rowRollup.write(dsl);
+                    }
+                } catch (Exception e) {
+                    connection.rollback(savepoint);
+                    throw e;
+                }
+                connection.releaseSavepoint(savepoint);
+                if (rollup != null) {
+                    // Written with the increments of the other rows when the transaction commits
+                    rollup.addAll(rowRollup);
+                }
+            }
+            IngestMetrics metrics = IngestMetrics.get();
+            metrics.record(ngsType, IngestMetrics.Stage.INSERT, System.nanoTime() - startTime);
+            if (written.inserted()) {
+                metrics.count(ngsType, IngestMetrics.Counter.METRICS, written.metrics());
+            } else {
+                metrics.count(ngsType, IngestMetrics.Counter.EXISTING_ROWS, 1);
+                LOG.warn("Skipping sample: {} of file: {} that was ingested before, use --mode=merge to update it",
+                        csvData.getSampleId(), csvData.getFileName());
+            }
 
-                // Step 4: Insert quality metrics into the appropriate table
-                insertQualityMetrics(txDsl, dataMap, sampleId, experimentId, ngsType);
-            });
+            // Only cache what has been written, in a transaction of several rows the cache holds the entries
+            // until the transaction commits
+            identityCache.addNgsType(ngsType);
+            if (experimentKey != null) {
+                identityCache.putExperimentId(experimentKey, written.experimentId());
+            }
             // Log success after all data has been inserted
             // LOG.info("Successfully processed file: {}", csvData.getFileName());
+            return written.inserted();
 
         } catch (Exception e) {
             // Log error if anything goes wrong
@@ -72,6 +313,400 @@ public class CsvDataInserter {
         }
     }
 
+    /**
+     * Merges a chunk of rows into the database on their natural keys, with a handful of set-based statements
+     * instead of statements per row. A sample that does not exist yet is inserted; of an existing sample only the
+     * metric values that differ from the stored ones are updated and the metrics no longer in its row are
+     * removed, so merging the same rows again changes nothing. The run metrics of an LRS experiment are taken
+     * from the first row that has them. When a row occurs more than once in the chunk, the last one wins.
+     * <p>
+     * The statements are written in the caller's transaction, see {@link RowTransaction}, which must not be in
+     * auto-commit mode for the chunk to be merged atomically.
+     *
+     * @param rows The rows to merge, typically all rows of a file of one DataType.
+     * @return The number of samples merged.
+     * @throws SQLException If an error occurs while merging the rows.
+     */
+    public long mergeRows(List<CsvData> rows) throws SQLException {
+        // The natural key of a sample is its experiment and sample id, rows lacking part of it can not be merged
+        Map<SampleKey, CsvData> samples = new LinkedHashMap<>();
+        List<CsvData> keyedRows = new ArrayList<>();
+        Set<String> columnNames = new LinkedHashSet<>();
+        for (CsvData csvData : rows) {
+            if (IdentityCache.ExperimentKey.of(csvData) == null || csvData.getSampleId() == null) {
+                LOG.warn("Skipping sample: {} of file: {} lacking part of its natural key", csvData.getSampleId(), csvData.getFileName());
+                continue;
+            }
+            keyedRows.add(csvData);
+            columnNames.addAll(metricNames(csvData));
+        }
+        if (keyedRows.isEmpty()) {
+            return 0;
+        }
+        String ngsType = keyedRows.get(0).getNgsType();
+        boolean perSample = "WGS".equals(ngsType) || "WES".equals(ngsType);
+
+        try {
+            long keysStart = System.nanoTime();
+            if (resolveMetricKeys(columnNames) > 0) {
+                IngestMetrics.get().record(ngsType, IngestMetrics.Stage.METRIC_KEYS, System.nanoTime() - keysStart);
+            }
+            resolveExperiments(keyedRows);
+
+            long startTime = System.nanoTime();
+            Set<LocalDate> months = new LinkedHashSet<>();
+            for (CsvData csvData : keyedRows) {
+                long experimentId = identityCache.getExperimentId(IdentityCache.ExperimentKey.of(csvData));
+                if (samples.put(new SampleKey(experimentId, csvData.getSampleId()), csvData) != null) {
+                    LOG.debug("Sample: {} of file: {} occurs more than once, merging its last row", csvData.getSampleId(), csvData.getFileName());
+                }
+                months.add(csvData.getAnalysisDate().withDayOfMonth(1));
+            }
+            PartitionManager.ensurePartitions(connection, keyedRows.stream().map(CsvData::getAnalysisDate).collect(Collectors.toSet()));
+
+            // Step 1: Insert the new samples and look up the existing ones
+            Map<SampleKey, Long> sampleIds = new LinkedHashMap<>();
+            Set<Long> existingSampleIds = new LinkedHashSet<>();
+            List<SampleKey> keys = new ArrayList<>(samples.keySet());
+            int newSamples = cacheSampleIds(dsl.fetch(UPSERT_SAMPLES, sampleColumns(keys, samples)), sampleIds, existingSampleIds);
+            keys.removeAll(sampleIds.keySet());
+            if (!keys.isEmpty()) {
+                // Samples a concurrent ingest added first are not visible to the statement above
+                cacheSampleIds(dsl.fetch(SELECT_SAMPLES, sampleColumns(keys, null)), sampleIds, existingSampleIds);
+                keys.removeAll(sampleIds.keySet());
+                if (!keys.isEmpty()) {
+                    throw new SQLException("Failed to merge " + keys.size() + " samples and retrieve their identifiers.");
+                }
+            }
+
+            // Step 2: Write the metric values that are new or changed
+            MetricColumns metricColumns = new MetricColumns();
+            Set<Long> runMetrics = new LinkedHashSet<>();
+            for (Map.Entry<SampleKey, CsvData> sample : samples.entrySet()) {
+                if (perSample) {
+                    metricColumns.add(sampleIds.get(sample.getKey()), sample.getValue(), null);
+                } else if ("LRS".equals(ngsType)) {
+                    metricColumns.add(sample.getKey().experimentId(), sample.getValue(), runMetrics);
+                }
+            }
+            long[] changed = {0, 0};
+            if (metricColumns.size() > 0) {
+                Record counts = dsl.fetchOne(perSample ? UPSERT_QUALITY_METRICS : UPSERT_RUN_QUALITY_METRICS, metricColumns.toArrays());
+                changed[0] = counts.get(0, Long.class);
+                changed[1] = counts.get(1, Long.class);
+            }
+
+            // Step 3: Remove the metrics of existing samples that are no longer in their row
+            int removed = 0;
+            if (perSample && !existingSampleIds.isEmpty()) {
+                Object[] columns = metricColumns.toArrays();
+                removed = dsl.execute(DELETE_STALE_QUALITY_METRICS, existingSampleIds.toArray(new Long[0]), columns[0], columns[1]);
+            }
+
+            // Step 4: Project the numeric metrics of the samples into a single row per sample
+            if (perSample && (newSamples > 0 || changed[0] + changed[1] + removed > 0)) {
+                dsl.execute(UPSERT_SAMPLE_METRIC_WIDE, (Object) sampleIds.values().toArray(new Long[0]));
+            }
+
+            // Step 5: New samples and values were added to the rollups, changed and removed values are aggregated again
+            if (changed[1] + removed > 0) {
+                MonthlyRollup.refreshMonths(dsl, ngsType, months);
+            }
+
+            IngestMetrics metrics = IngestMetrics.get();
+            metrics.record(ngsType, IngestMetrics.Stage.MERGE, System.nanoTime() - startTime);
+            metrics.count(ngsType, IngestMetrics.Counter.METRICS, changed[0] + changed[1]);
+            LOG.debug("Merged {} samples, {} new: {} metric values inserted, {} updated, {} removed, {} unchanged",
+                    samples.size(), newSamples, changed[0], changed[1], removed, metricColumns.size() - changed[0] - changed[1]);
+            return samples.size();
+        } catch (Exception e) {
+            LOG.error("Error merging CSV data for file: {}", keyedRows.get(0).getFileName(), e);
+            throw new SQLException("Error merging CSV data for file: " + keyedRows.get(0).getFileName(), e);
+        }
+    }
+
+    /**
+     * The natural key of a sample: its experiment and its sample id.
+     */
+    private record SampleKey(long experimentId, String sampleId) {
+    }
+
+    /**
+     * The outcome of writing one row.
+     *
+     * @param experimentId The identifier of the row's experiment.
+     * @param inserted     False if the sample was ingested before and nothing else of the row was written.
+     * @param metrics      The number of quality metrics or run quality metrics written.
+     */
+    private record WrittenRow(long experimentId, boolean inserted, long metrics) {
+    }
+
+    /**
+     * Lays out the samples as one array per column, to be expanded with unnest.
+     */
+    private static Object[] sampleColumns(List<SampleKey> keys, Map<SampleKey, CsvData> rows) {
+        Long[] experimentIds = new Long[keys.size()];
+        String[] sampleIds = new String[keys.size()];
+        String[] sourceFiles = new String[keys.size()];
+        for (int i = 0; i < keys.size(); i++) {
+            experimentIds[i] = keys.get(i).experimentId();
+            sampleIds[i] = keys.get(i).sampleId();
+            if (rows != null) {
+                sourceFiles[i] = rows.get(keys.get(i)).getFileName();
+            }
+        }
+        return rows != null ? new Object[]{experimentIds, sampleIds, sourceFiles} : new Object[]{experimentIds, sampleIds};
+    }
+
+    /**
+     * Collects the sample identifiers returned by {@link #UPSERT_SAMPLES} or {@link #SELECT_SAMPLES}.
+     *
+     * @return The number of samples that were inserted.
+     */
+    private static int cacheSampleIds(Result<Record> result, Map<SampleKey, Long> sampleIds, Set<Long> existingSampleIds) {
+        int inserted = 0;
+        for (Record record : result) {
+            long sampleId = record.get(0, Long.class);
+            sampleIds.put(new SampleKey(record.get(1, Long.class), record.get(2, String.class)), sampleId);
+            if (record.get(3, Boolean.class)) {
+                inserted++;
+            } else {
+                existingSampleIds.add(sampleId);
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     * The metric values of a chunk as one list per column of a metric table, to be expanded with unnest.
+     */
+    private class MetricColumns {
+        private final List<Long> owners = new ArrayList<>();
+        private final List<Short> keys = new ArrayList<>();
+        private final List<Double> values = new ArrayList<>();
+        private final List<String> texts = new ArrayList<>();
+
+        /**
+         * Adds the metrics of one row. The metric keys must have been resolved with {@link #resolveMetricKeys}.
+         *
+         * @param ownerId The identifier of the sample or experiment owning the metrics.
+         * @param csvData The row.
+         * @param written The owner and metric key pairs added before, to keep the first value of a metric that
+         *                occurs in several rows of the same owner, or null when every owner occurs once.
+         */
+        void add(long ownerId, CsvData csvData, Set<Long> written) {
+            RowSchema schema = csvData.getSchema();
+            for (int i = csvData.nextIndex(0); i >= 0; i = csvData.nextIndex(i + 1)) {
+                if (!schema.isMetric(i)) {
+                    continue;
+                }
+                short keyId = metricKeyId(identityCache, schema.name(i));
+                if (written != null && !written.add(ownerId << 16 | keyId)) {
+                    continue;
+                }
+                Double number = csvData.getNumberOrNull(i);
+                owners.add(ownerId);
+                keys.add(keyId);
+                values.add(number);
+                texts.add(number == null ? csvData.getText(i) : null);
+            }
+        }
+
+        int size() {
+            return owners.size();
+        }
+
+        Object[] toArrays() {
+            return new Object[]{owners.toArray(new Long[0]), keys.toArray(new Short[0]),
+                    values.toArray(new Double[0]), texts.toArray(new String[0])};
+        }
+    }
+
+    /**
+     * Writes one row: its NGS type and experiment when they are not cached, the sample, the quality metrics,
+     * the per-sample metric projection and the monthly rollups. Of a sample that was ingested before, only its
+     * experiment is made sure to exist.
+     *
+     * @param txDsl              The DSLContext of the transaction the row is written in.
+     * @param csvData            The row to write.
+     * @param cachedExperimentId The identifier of the row's experiment if it is cached, null otherwise.
+     * @param rowRollup          The rollup increments of the row, written by the caller.
+     * @return The identifier of the row's experiment and whether the sample was inserted.
+     * @throws SQLException If an error occurs while inserting the data.
+     */
+    private WrittenRow insertRow(DSLContext txDsl, CsvData csvData, Long cachedExperimentId,
+                                 MonthlyRollup.Increments rowRollup) throws SQLException {
+        String ngsType = csvData.getNgsType();
+        LocalDate analysisDate = csvData.getAnalysisDate();
+
+        // Step 1: Insert or verify NGS type
+        if (cachedExperimentId == null && !identityCache.isKnownNgsType(ngsType)) {
+            insertNgsType(txDsl, ngsType);
+        }
+
+        // Step 2: Insert into Experiment table
+        long experimentId = cachedExperimentId != null ? cachedExperimentId
+                : insertExperiment(txDsl, csvData, ngsType, analysisDate, csvData.getExperimentName(), rowRollup);
+
+        // Step 3: Insert into Sample table
+        Long sampleId = insertSample(txDsl, experimentId, csvData.getSampleId(), csvData.getFileName());
+        if (sampleId == null) {
+            return new WrittenRow(experimentId, false, 0);
+        }
+        rowRollup.addCounts(ngsType, analysisDate, 0, 1);
+
+        // Step 4: Insert quality metrics into the appropriate table, the run metrics of LRS once per run
+        if ("LRS".equals(ngsType)) {
+            return new WrittenRow(experimentId, true, insertRunQualityMetrics(txDsl, csvData, experimentId, identityCache, rowRollup));
+        }
+        if (!"WGS".equals(ngsType) && !"WES".equals(ngsType)) {
+            return new WrittenRow(experimentId, true, 0);
+        }
+        int written = insertQualityMetrics(txDsl, csvData, sampleId);
+        Double[] metricValues = metricValuesByKeyId(csvData);
+        rowRollup.addMetrics(ngsType, analysisDate, metricValues);
+
+        // Step 5: Project the numeric metrics of a WGS/WES sample into a single row
+        insertSampleMetricWide(txDsl, csvData, sampleId, experimentId, metricValues);
+        return new WrittenRow(experimentId, true, written);
+    }
+
+    /**
+     * Makes sure the NGS types and experiments of a list of rows exist and caches their identifiers, with one
+     * statement for the NGS types and one for the experiments instead of a lookup for every row.
+     * The run attributes of a new experiment are taken from its first row. Rows lacking part of the experiment's
+     * natural key are left to {@link #insertCsvData}.
+     *
+     * @param rows The parsed rows, typically all rows of a file.
+     * @throws SQLException If the NGS types or experiments can not be written or read.
+     */
+    public void resolveExperiments(List<CsvData> rows) throws SQLException {
+        Set<String> newNgsTypes = new LinkedHashSet<>();
+        Map<IdentityCache.ExperimentKey, CsvData> newExperiments = new LinkedHashMap<>();
+        for (CsvData csvData : rows) {
+            IdentityCache.ExperimentKey key = IdentityCache.ExperimentKey.of(csvData);
+            if (key == null || newExperiments.containsKey(key) || identityCache.containsExperiment(key)) {
+                continue;
+            }
+            newExperiments.put(key, csvData);
+            if (!identityCache.isKnownNgsType(key.ngsType())) {
+                newNgsTypes.add(key.ngsType());
+            }
+        }
+        if (newExperiments.isEmpty()) {
+            return;
+        }
+
+        long startTime = System.nanoTime();
+        try {
+            PartitionManager.ensurePartitions(connection, newExperiments.keySet().stream()
+                    .map(IdentityCache.ExperimentKey::analysisDate).collect(Collectors.toSet()));
+
+            if (!newNgsTypes.isEmpty()) {
+                dsl.execute(INSERT_NGS_TYPES, (Object) newNgsTypes.toArray(new String[0]));
+                newNgsTypes.forEach(identityCache::addNgsType);
+            }
+
+            List<IdentityCache.ExperimentKey> keys = new ArrayList<>(newExperiments.keySet());
+            cacheExperimentIds(dsl.fetch(RESOLVE_EXPERIMENTS, experimentColumns(keys, newExperiments)));
+
+            keys.removeIf(identityCache::containsExperiment);
+            if (!keys.isEmpty()) {
+                cacheExperimentIds(dsl.fetch(SELECT_EXPERIMENTS, experimentColumns(keys, null)));
+            }
+        } catch (Exception e) {
+            throw new SQLException("Error resolving the experiments of " + newExperiments.size() + " rows", e);
+        }
+        IngestMetrics.get().record(rows.get(0).getNgsType(), IngestMetrics.Stage.EXPERIMENT, System.nanoTime() - startTime);
+        LOG.debug("Resolved {} experiments in a single lookup", newExperiments.size());
+    }
+
+    /**
+     * Makes sure the metric keys among a set of column names exist in the Metric_Key dictionary and caches their
+     * identifiers. Keys that are already cached are not looked up again, so after the first row of a file this
+     * usually does not touch the database.
+     *
+     * @param columnNames The column names of a row, the ones that are not metrics are skipped.
+     * @return The number of metric keys that were not cached and had to be resolved in the database.
+     * @throws SQLException If the metric keys can not be written or read.
+     */
+    public int resolveMetricKeys(Collection<String> columnNames) throws SQLException {
+        List<String> newKeys = new ArrayList<>();
+        for (String columnName : columnNames) {
+            if (isMetricColumn(columnName) && identityCache.getMetricKeyId(columnName) == null) {
+                newKeys.add(columnName);
+            }
+        }
+        if (newKeys.isEmpty()) {
+            return 0;
+        }
+
+        int resolved = newKeys.size();
+        // In a transaction of several rows a failing lookup must not abort the transaction
+        Savepoint savepoint = connection.getAutoCommit() ? null : connection.setSavepoint();
+        try {
+            Result<Record> inserted = dsl.fetch(RESOLVE_METRIC_KEYS, (Object) newKeys.toArray(new String[0]));
+
+            // Keys a concurrent ingest added first are not visible to the statement above
+            newKeys.removeAll(inserted.getValues(1, String.class));
+            Result<Record> existing = newKeys.isEmpty() ? null
+                    : dsl.fetch(SELECT_METRIC_KEYS, (Object) newKeys.toArray(new String[0]));
+
+            if (savepoint != null) {
+                connection.releaseSavepoint(savepoint);
+            }
+            cacheMetricKeyIds(inserted);
+            if (existing != null) {
+                cacheMetricKeyIds(existing);
+            }
+        } catch (Exception e) {
+            if (savepoint != null) {
+                connection.rollback(savepoint);
+            }
+            throw new SQLException("Error resolving " + newKeys.size() + " metric keys", e);
+        }
+        return resolved;
+    }
+
+    private void cacheMetricKeyIds(Result<Record> result) {
+        List<Short> ids = result.getValues(0, Short.class);
+        List<String> keys = result.getValues(1, String.class);
+        for (int i = 0; i < ids.size(); i++) {
+            identityCache.putMetricKeyId(keys.get(i), ids.get(i));
+        }
+    }
+
+    /**
+     * Lays out the experiments as one array per column, to be expanded with unnest.
+     */
+    private static Object[] experimentColumns(List<IdentityCache.ExperimentKey> keys, Map<IdentityCache.ExperimentKey, CsvData> attributes) {
+        String[][] columns = new String[attributes != null ? 8 : 3][keys.size()];
+        String[] attributeNames = {"run_id", "sequencer_series", "sequencer_id", "library_prep_kit", "enrichment_kit"};
+        for (int i = 0; i < keys.size(); i++) {
+            IdentityCache.ExperimentKey key = keys.get(i);
+            columns[0][i] = key.experimentName();
+            columns[1][i] = key.analysisDate().toString();
+            columns[2][i] = key.ngsType();
+            if (attributes != null) {
+                CsvData csvData = attributes.get(key);
+                for (int a = 0; a < attributeNames.length; a++) {
+                    columns[3 + a][i] = csvData.getValue(attributeNames[a]);
+                }
+            }
+        }
+        return columns;
+    }
+
+    private void cacheExperimentIds(Result<Record> result) {
+        List<Long> ids = result.getValues(0, Long.class);
+        List<String> names = result.getValues(1, String.class);
+        List<LocalDate> dates = result.getValues(2, LocalDate.class);
+        List<String> ngsTypes = result.getValues(3, String.class);
+        for (int i = 0; i < ids.size(); i++) {
+            identityCache.putExperimentId(new IdentityCache.ExperimentKey(names.get(i), dates.get(i), ngsTypes.get(i)), ids.get(i));
+        }
+    }
+
     /**
      * Inserts the NGS type into the NGS table.
      * If the NGS type already exists, it will be ignored.
@@ -88,25 +723,24 @@ public class CsvDataInserter {
 
     /**
      * Inserts experiment data into the Experiment table and returns the generated experiment identifier.
+     * The insert relies on the unique constraint on (experiment_name, analysis_date, NGS_ngs_type): when a concurrent
+     * ingest inserts the same experiment between the lookup and the insert, the insert does nothing and the
+     * identifier of the other ingest's row is returned.
      *
      * @param txDsl          The DSLContext used to execute the query.
-     * @param dataMap        A map containing the CSV data.
+     * @param csvData        The row holding the run attributes of the experiment.
      * @param ngsType        The NGS type.
      * @param analysisDate   The analysis date for the experiment.
      * @param experimentName The name of the experiment.
+     * @param rowRollup      The rollup increments of the row, counting a new experiment.
      * @return The experiment identifier generated by the database.
      * @throws SQLException If an error occurs while inserting the experiment data.
      */
-    private long insertExperiment(DSLContext txDsl, Map<String, Object> dataMap, String ngsType, Date analysisDate, String experimentName) throws SQLException {
+    private long insertExperiment(DSLContext txDsl, CsvData csvData, String ngsType, LocalDate analysisDate, String experimentName,
+                                  MonthlyRollup.Increments rowRollup) throws SQLException {
         //  Important step!!
         //  Check if the experiment already exists
-        Long existingExperimentId = txDsl
-                .select(DSL.field("experiment_identifier", Long.class))
-                .from(DSL.table("Experiment"))
-                .where(DSL.field("experiment_name", String.class).eq(experimentName)
-                        .and(DSL.field("analysis_date", Date.class).eq(analysisDate))
-                        .and(DSL.field("NGS_ngs_type", String.class).eq(ngsType)))
-                .fetchOneInto(Long.class);
+        Long existingExperimentId = selectExperimentId(txDsl, ngsType, analysisDate, experimentName);
 
         // If exists, return the existing ID
         if (existingExperimentId != null) {
@@ -116,45 +750,77 @@ public class CsvDataInserter {
         // Insert a new experiment if it doesn't exist
         Record record = txDsl.insertInto(DSL.table("Experiment"))
                 .set(DSL.field("experiment_name", String.class), experimentName)
-                .set(DSL.field("analysis_date", Date.class), analysisDate)
-                .set(DSL.field("run_id", String.class), (String) dataMap.getOrDefault("run_id", null))
-                .set(DSL.field("sequencer_series", String.class), (String) dataMap.getOrDefault("sequencer_series", null))
-                .set(DSL.field("sequencer_id", String.class), (String) dataMap.getOrDefault("sequencer_id", null))
-                .set(DSL.field("library_prep_kit", String.class), (String) dataMap.getOrDefault("library_prep_kit", null))
-                .set(DSL.field("enrichment_kit", String.class), (String) dataMap.getOrDefault("enrichment_kit", null))
+                .set(DSL.field("analysis_date", LocalDate.class), analysisDate)
+                .set(DSL.field("run_id", String.class), csvData.getValue("run_id"))
+                .set(DSL.field("sequencer_series", String.class), csvData.getValue("sequencer_series"))
+                .set(DSL.field("sequencer_id", String.class), csvData.getValue("sequencer_id"))
+                .set(DSL.field("library_prep_kit", String.class), csvData.getValue("library_prep_kit"))
+                .set(DSL.field("enrichment_kit", String.class), csvData.getValue("enrichment_kit"))
                 .set(DSL.field("NGS_ngs_type", String.class), ngsType)
+                .onConflict(DSL.field("experiment_name"), DSL.field("analysis_date"), DSL.field("NGS_ngs_type"))
+                .doNothing()
                 .returning(DSL.field("experiment_identifier", Long.class))
                 .fetchOne();
 
-        // Ensure record is not null
+        // No record means another ingest committed the same experiment first
         if (record == null) {
-            throw new SQLException("Failed to insert experiment and retrieve identifier.");
+            existingExperimentId = selectExperimentId(txDsl, ngsType, analysisDate, experimentName);
+            if (existingExperimentId == null) {
+                throw new SQLException("Failed to insert experiment and retrieve identifier.");
+            }
+            return existingExperimentId;
         }
 
+        rowRollup.addCounts(ngsType, analysisDate, 1, 0);
+
         // Extract the value using explicit casting
         return record.get(DSL.field("experiment_identifier", Long.class));
     }
 
+    /**
+     * Looks up the identifier of an experiment by its natural key.
+     *
+     * @param txDsl          The DSLContext used to execute the query.
+     * @param ngsType        The NGS type.
+     * @param analysisDate   The analysis date for the experiment.
+     * @param experimentName The name of the experiment.
+     * @return The experiment identifier, or null if the experiment does not exist.
+     */
+    private Long selectExperimentId(DSLContext txDsl, String ngsType, LocalDate analysisDate, String experimentName) {
+        return txDsl
+                .select(DSL.field("experiment_identifier", Long.class))
+                .from(DSL.table("Experiment"))
+                .where(DSL.field("experiment_name", String.class).eq(experimentName)
+                        .and(DSL.field("analysis_date", LocalDate.class).eq(analysisDate))
+                        .and(DSL.field("NGS_ngs_type", String.class).eq(ngsType)))
+                .fetchOneInto(Long.class);
+    }
+
 
     /**
      * Inserts sample data into the Sample table and returns the generated sample identifier.
+     * A sample that already exists in the experiment is not inserted again, updating it is left to the merge mode.
      *
      * @param txDsl        The DSLContext used to execute the query.
      * @param experimentId The experiment identifier.
      * @param sampleID     The sample ID to be inserted.
-     * @return The sample identifier generated by the database.
+     * @param sourceFile   The name of the file the sample was read from.
+     * @return The sample identifier generated by the database, or null if the sample already exists.
      * @throws SQLException If an error occurs while inserting the sample data.
      */
-    private long insertSample(DSLContext txDsl, long experimentId, String sampleID) throws SQLException {
+    private Long insertSample(DSLContext txDsl, long experimentId, String sampleID, String sourceFile) throws SQLException {
         Record record = txDsl.insertInto(DSL.table("Sample"))
                 .set(DSL.field("sample_id", String.class), sampleID)
                 .set(DSL.field("experiment_experiment_identifier", Long.class), experimentId)
+                .set(DSL.field("source_file", String.class), sourceFile)
+                .onConflict(DSL.field("experiment_experiment_identifier"), DSL.field("sample_id"))
+                .doNothing()
                 .returning(DSL.field("sample_identifier", Long.class))
                 .fetchOne();
 
-        // Ensure record is not null
+        // No record means the sample was ingested before
         if (record == null) {
-            throw new SQLException("Failed to insert sample and retrieve identifier.");
+            return null;
         }
 
         // Extract the value using explicit casting
@@ -162,38 +828,207 @@ public class CsvDataInserter {
     }
 
     /**
-     * Inserts quality metrics into the appropriate table based on the NGS type.
+     * Inserts the quality metrics of a WGS/WES sample into the Quality_Metrics table.
+     * All metrics of the sample are written as multi-row INSERT statements of at most {@code batchSize} rows,
+     * instead of one statement per metric. The metric keys must have been resolved with {@link #resolveMetricKeys}.
+     *
+     * @param txDsl    The DSLContext used to execute the query.
+     * @param csvData  The row holding the metrics.
+     * @param sampleId The sample identifier.
+     * @return The number of metric rows written.
+     */
+    private int insertQualityMetrics(DSLContext txDsl, CsvData csvData, long sampleId) {
+        return insertMetricRows(txDsl, DSL.table("Quality_Metrics"),
+                DSL.field("sample_sample_identifier", Long.class),
+                DSL.field("metric_key_metric_key_identifier", Short.class),
+                DSL.field("quality_metric_value", Double.class),
+                DSL.field("quality_metric_text", String.class),
+                sampleId, csvData);
+    }
+
+    /**
+     * Inserts the run metrics of an LRS row into the Run_Quality_Metrics table, with one statement, and adds the
+     * inserted numeric values to the monthly rollup. Every sample of a run repeats the run metrics: metrics its
+     * experiment already has are left as they are, so the first sample of the run writes them and the next samples
+     * add nothing, also within one transaction. Updating them is left to the merge mode.
+     *
+     * @param txDsl         The DSLContext used to execute the query.
+     * @param csvData       The row holding the run metrics.
+     * @param experimentId  The identifier of the run's experiment.
+     * @param identityCache The cache holding the metric keys, resolved with {@link #resolveMetricKeys}.
+     * @param rowRollup     The rollup increments of the row.
+     * @return The number of run metrics inserted.
+     */
+    static int insertRunQualityMetrics(DSLContext txDsl, CsvData csvData, long experimentId, IdentityCache identityCache,
+                                       MonthlyRollup.Increments rowRollup) {
+        RowSchema schema = csvData.getSchema();
+        List<Short> keys = new ArrayList<>();
+        List<Double> numbers = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        for (int i = csvData.nextIndex(0); i >= 0; i = csvData.nextIndex(i + 1)) {
+            if (!schema.isMetric(i)) {
+                continue;
+            }
+            Double number = csvData.getNumberOrNull(i);
+            keys.add(metricKeyId(identityCache, schema.name(i)));
+            numbers.add(number);
+            texts.add(number == null ? csvData.getText(i) : null);
+        }
+        if (keys.isEmpty()) {
+            return 0;
+        }
+        Result<Record> inserted = txDsl.fetch(INSERT_RUN_QUALITY_METRICS, experimentId, keys.toArray(new Short[0]),
+                numbers.toArray(new Double[0]), texts.toArray(new String[0]));
+
+        // Laid out like metricValuesByKeyId, only the values that were inserted are added to the rollup
+        Double[] values = new Double[0];
+        for (Record record : inserted) {
+            Short keyId = record.get(0, Short.class);
+            Double value = record.get(1, Double.class);
+            if (value == null) {
+                continue;
+            }
+            if (keyId > values.length) {
+                values = Arrays.copyOf(values, keyId);
+            }
+            values[keyId - 1] = value;
+        }
+        rowRollup.addMetrics(csvData.getNgsType(), csvData.getAnalysisDate(), values);
+        return inserted.size();
+    }
+
+    /**
+     * Writes the metric key/value pairs of one owner (sample or experiment) into a metric table.
+     * Numeric values go into the double precision value column, all other values into the text column.
+     * Rows are accumulated in a single multi-row INSERT which is executed each time it reaches {@code batchSize} rows.
+     *
+     * @param txDsl      The DSLContext used to execute the query.
+     * @param table      The metric table to insert into.
+     * @param ownerField The foreign key column referring to the sample or experiment.
+     * @param keyField   The column referring to the metric key in the Metric_Key dictionary.
+     * @param valueField The numeric value column.
+     * @param textField  The text value column.
+     * @param ownerId    The identifier of the sample or experiment owning the metrics.
+     * @param csvData    The row holding the metrics.
+     * @return The number of metric rows written.
+     */
+    private int insertMetricRows(DSLContext txDsl, Table<Record> table, Field<Long> ownerField, Field<Short> keyField,
+                                 Field<Double> valueField, Field<String> textField, long ownerId, CsvData csvData) {
+        InsertValuesStep4<Record, Long, Short, Double, String> insert = null;
+        int pending = 0;
+        int written = 0;
+
+        RowSchema schema = csvData.getSchema();
+        for (int i = csvData.nextIndex(0); i >= 0; i = csvData.nextIndex(i + 1)) {
+            if (!schema.isMetric(i)) {
+                continue;
+            }
+            short keyId = metricKeyId(identityCache, schema.name(i));
+            Double number = csvData.getNumberOrNull(i);
+            if (insert == null) {
+                insert = txDsl.insertInto(table, ownerField, keyField, valueField, textField);
+            }
+            insert = insert.values(ownerId, keyId, number, number == null ? csvData.getText(i) : null);
+            pending++;
+
+            if (pending == batchSize) {
+                written += insert.execute();
+                insert = null;
+                pending = 0;
+            }
+        }
+        if (insert != null) {
+            written += insert.execute();
+        }
+        return written;
+    }
+
+    /**
+     * Inserts the per-sample projection of the numeric metrics into the Sample_Metric_Wide table, in which the
+     * value of a metric is stored at the position of its metric key identifier. The metric keys must have been
+     * resolved with {@link #resolveMetricKeys}.
      *
      * @param txDsl        The DSLContext used to execute the query.
-     * @param dataMap      A map containing the CSV data.
+     * @param csvData      The row the sample was read from.
      * @param sampleId     The sample identifier.
      * @param experimentId The experiment identifier.
-     * @param ngsType      The NGS type.
-     */
-    private void insertQualityMetrics(DSLContext txDsl, Map<String, Object> dataMap, long sampleId, long experimentId, String ngsType) {
-        if ("WGS".equals(ngsType) || "WES".equals(ngsType)) {
-            // Insert quality metrics into the Quality_Metrics table for WGS/WES
-            dataMap.forEach((key, value) -> {
-                if (isExperimentColumn(key) && isSampleColumn(key)) {
-                    txDsl.insertInto(DSL.table("Quality_Metrics"))
-                            .set(DSL.field("sample_sample_identifier", Long.class), sampleId)
-                            .set(DSL.field("quality_metric_key", String.class), key)
-                            .set(DSL.field("quality_metric_value", Object.class), value)
-                            .execute();
-                }
-            });
-        } else if ("LRS".equals(ngsType)) {
-            // Insert quality metrics into the Run_Quality_Metrics table for LRS
-            dataMap.forEach((key, value) -> {
-                if (isExperimentColumn(key) && isSampleColumn(key)) {
-                    txDsl.insertInto(DSL.table("Run_Quality_Metrics"))
-                            .set(DSL.field("experiment_experiment_identifier", Long.class), experimentId)
-                            .set(DSL.field("run_quality_metric_key", String.class), key)
-                            .set(DSL.field("run_quality_metric_value", Object.class), value)
-                            .execute();
-                }
-            });
+     * @param metricValues The numeric metrics of the row as laid out by {@link #metricValuesByKeyId}.
+     */
+    private void insertSampleMetricWide(DSLContext txDsl, CsvData csvData, long sampleId, long experimentId, Double[] metricValues) {
+        txDsl.insertInto(DSL.table("Sample_Metric_Wide"))
+                .set(DSL.field("sample_sample_identifier", Long.class), sampleId)
+                .set(DSL.field("experiment_experiment_identifier", Long.class), experimentId)
+                .set(DSL.field("analysis_date", LocalDate.class), csvData.getAnalysisDate())
+                .set(DSL.field("NGS_ngs_type", String.class), csvData.getNgsType())
+                .set(DSL.field("sample_id", String.class), csvData.getSampleId())
+                .set(DSL.field("experiment_name", String.class), csvData.getExperimentName())
+                .set(DSL.field("run_id", String.class), csvData.getValue("run_id"))
+                .set(DSL.field("metric_values", Double[].class), metricValues)
+                .execute();
+    }
+
+    /**
+     * Lays out the numeric metrics of a row as an array in which the value of the metric with identifier k is
+     * stored at index k - 1, SQL arrays starting at 1. Metrics that are text or absent are null.
+     *
+     * @param csvData A row, its metric keys must have been resolved.
+     * @return The numeric metrics of the row by metric key identifier.
+     */
+    Double[] metricValuesByKeyId(CsvData csvData) {
+        RowSchema schema = csvData.getSchema();
+        Double[] values = new Double[0];
+        for (int i = csvData.nextIndex(0); i >= 0; i = csvData.nextIndex(i + 1)) {
+            if (!schema.isMetric(i)) {
+                continue;
+            }
+            Double number = csvData.getNumberOrNull(i);
+            Short keyId = identityCache.getMetricKeyId(schema.name(i));
+            if (number == null || keyId == null) {
+                continue;
+            }
+            if (keyId > values.length) {
+                values = Arrays.copyOf(values, keyId);
+            }
+            values[keyId - 1] = number;
         }
+        return values;
+    }
+
+    /**
+     * @param metricKey A metric key resolved with {@link #resolveMetricKeys}.
+     * @return The identifier of the metric key.
+     */
+    private static short metricKeyId(IdentityCache identityCache, String metricKey) {
+        Short keyId = identityCache.getMetricKeyId(metricKey);
+        if (keyId == null) {
+            throw new IllegalStateException("Metric key has not been resolved: " + metricKey);
+        }
+        return keyId;
+    }
+
+    /**
+     * @param csvData A row.
+     * @return The names of the metric columns that have a value in the row.
+     */
+    private static List<String> metricNames(CsvData csvData) {
+        RowSchema schema = csvData.getSchema();
+        List<String> names = new ArrayList<>();
+        for (int i = csvData.nextIndex(0); i >= 0; i = csvData.nextIndex(i + 1)) {
+            if (schema.isMetric(i)) {
+                names.add(schema.name(i));
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Checks if a column holds a quality metric, i.e. is neither part of the experiment nor of the sample data.
+     *
+     * @param columnName The column name to check.
+     * @return True if the column is stored in one of the metric tables, false otherwise.
+     */
+    static boolean isMetricColumn(String columnName) {
+        return isExperimentColumn(columnName) && isSampleColumn(columnName);
     }
 
     /**
@@ -202,7 +1037,7 @@ public class CsvDataInserter {
      * @param columnName The column name to check.
      * @return True if the column is part of the experiment data, false otherwise.
      */
-    private boolean isExperimentColumn(String columnName) {
+    static boolean isExperimentColumn(String columnName) {
         return !columnName.equals("experiment_name") &&
                 !columnName.equals("run_id") &&
                 !columnName.equals("sequencer_series") &&
@@ -218,7 +1053,7 @@ public class CsvDataInserter {
      * @param columnName The column name to check.
      * @return True if the column is part of the sample data, false otherwise.
      */
-    private boolean isSampleColumn(String columnName) {
+    static boolean isSampleColumn(String columnName) {
         return !columnName.equals("sample_id");
     }
 }
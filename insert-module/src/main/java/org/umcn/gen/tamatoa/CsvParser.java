@@ -3,15 +3,12 @@ package org.umcn.gen.tamatoa;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 public class CsvParser {
 
@@ -58,7 +55,7 @@ public class CsvParser {
 
     /**
      * Reads a CSV file and parses its data into a CsvData object and also parses not-nullable columns of the database
-     * into the CsvData class.
+     * into the CsvData class. The whole file is held in memory, use {@link #openCsvFile} to process rows as they are parsed.
      *
      * @param file     The CSV file to read.
      * @param dataType The DataType used to determine the format and delimiter for parsing.
@@ -67,261 +64,170 @@ public class CsvParser {
      */
     public static List<CsvData> readCsvFile(File file, DataType dataType) throws IOException {
         List<CsvData> csvDataList = new ArrayList<>();
-        String[] headers = null;
-
-        try (BufferedReader br = Files.newBufferedReader(file.toPath())) {
-            String headerLine = br.readLine();
-            if (headerLine == null) {
-                LOG.error("File is empty: {}", file.getAbsolutePath());
-                return csvDataList; // Return an empty list
-            }
-
-            headers = parseHeaders(headerLine, dataType.getDelimiter());
-            String line;
-
-            while ((line = br.readLine()) != null) {
-                Map<String, Object> csvDataMap = new HashMap<>();
-                String sampleId = null;
-                String experimentName = null;
-                Date analysisDate = null;
-
-                Object[] parsedValues = splitProcessDataLines(line, dataType, headers);
-                Set<String> specialHeaders = Set.of("sample_id", "experiment_name", "analysis_date");
-
-                for (int i = 0; i < headers.length; i++) {
-                    if (i < parsedValues.length && parsedValues[i] != null && !parsedValues[i].toString().trim().isEmpty() && !headers[i].isEmpty()) {
-                        String value = parsedValues[i].toString().trim();
-                        if ("NA".equalsIgnoreCase(value)) {
-                            continue; // Skip this key-value pair entirely
-                        }
-
-                        if (specialHeaders.contains(headers[i].toLowerCase())) {
-                            if ("sample_id".equalsIgnoreCase(headers[i])) {
-                                sampleId = value;
-                            }
-                            if ("experiment_name".equalsIgnoreCase(headers[i])) {
-                                experimentName = value;
-                            }
-                            if ("analysis_date".equalsIgnoreCase(headers[i])) {
-                                analysisDate = tryConvertDate(value, dataType);
-                            }
-                        } else {
-                            csvDataMap.put(headers[i], parsedValues[i].toString().replaceAll(" ", ""));
-                        }
-                    }
-                }
-
-                if (analysisDate == null && dataType.name().equals("WES")) {
-                    analysisDate = extractDateFromFilename(file.getName());
-                }
-
-                CsvData csvData = new CsvData(file.getName(), dataType.name(), sampleId, experimentName, analysisDate, csvDataMap);
-                csvDataList.add(csvData);
-            }
+        try (CsvRowReader reader = openCsvFile(file, dataType)) {
+            reader.forEachRemaining(csvDataList::add);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
-
         return csvDataList;
     }
 
-
     /**
-     * Extracts a date from a filename using a specific pattern.
+     * Opens a CSV file for reading row by row. Only the header and the current row are held in memory.
      *
-     * @param filename The filename to extract the date from.
-     * @return The extracted Date object, or null if parsing fails.
+     * @param file     The CSV file to read.
+     * @param dataType The DataType used to determine the format and delimiter for parsing.
+     * @return A reader handing out the rows of the file as they are parsed, it must be closed after use.
+     * @throws IOException If an error occurs while opening the file or reading its header.
      */
-    public static Date extractDateFromFilename(String filename) {
-        // Regular expression to match a date in the yyyy_MM_dd or yyyy-MM-dd format (e.g., 2024_01_11 or 2024-01-11)
-        String regex = "(\\d{4}[-_]\\d{2}[-_]\\d{2})";
-        Pattern pattern = Pattern.compile(regex);
-        Matcher matcher = pattern.matcher(filename);
-
-        if (matcher.find()) {
-            // Extract the date as a string
-            String dateString = matcher.group(1);
-
-            // Replace underscores with dashes to convert to the yyyy-MM-dd format if needed
-            dateString = dateString.replace("_", "-");
-
-            // Parse the extracted date string into a Date object
-            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
-            try {
-                return sdf.parse(dateString);
-            } catch (Exception e) {
-                // Handle any parsing error if needed
-                e.printStackTrace();
-            }
-        }
-
-        // Return null if no date is found
-        return null;
+    public static CsvRowReader openCsvFile(File file, DataType dataType) throws IOException {
+        return new CsvRowReader(file, dataType);
     }
 
-
     /**
-     * Processes a single CSV row into parsed values based on headers and data type.
-     * This only processes the remaining values that were not assigned to the custom CsvData class
+     * Opens a CSV file for reading the rows between two byte offsets, to ingest the lines appended to a file
+     * after the prefix that was ingested before. The header line is always read from the start of the file.
      *
-     * @param line     The raw CSV row string.
-     * @param dataType The data type containing delimiter information.
-     * @return An array of parsed values for the row.
+     * @param file     The CSV file to read.
+     * @param dataType The DataType used to determine the format and delimiter for parsing.
+     * @param offset   The offset of the first data line to read, 0 to read from the line after the header.
+     * @param limit    The offset at which reading stops, usually the size of the file when it was checked.
+     * @return A reader handing out the rows as they are parsed, it must be closed after use.
+     * @throws IOException If an error occurs while opening the file or reading its header.
      */
-    private static Object[] splitProcessDataLines(String line, DataType dataType, String[] headers) {
-        String[] rawValues = processValues(line, dataType);
-        Object[] parsedValues = new Object[rawValues.length];
-
-        if (dataType.name().equals("LRS")) {
-            replaceLRSHeaders(headers);
-        }
-        if (dataType.name().equals("WES") || dataType.name().equals("WGS")) {
-            replaceWGSWESHeaders(headers);
-        }
-        for (int i = 0; i < rawValues.length; i++) {
-            parsedValues[i] = convertValues(rawValues[i], dataType);
-        }
-        return parsedValues;
+    public static CsvRowReader openCsvFile(File file, DataType dataType, long offset, long limit) throws IOException {
+        return new CsvRowReader(file, dataType, offset, limit);
     }
 
     /**
-     * Replaces LRS-specific headers with mapped names in the provided header array.
+     * Opens a CSV file for reading the rows between two byte offsets like {@link #openCsvFile(File, DataType, long, long)}.
+     * With more than one parse thread, a file with at least {@link CsvRowReader#MAPPED_MIN_BYTES} bytes of data
+     * lines is memory-mapped and parsed in parallel chunks, the rows are still handed out in file order.
      *
-     * @param headers The header array to be updated.
+     * @param file         The CSV file to read.
+     * @param dataType     The DataType used to determine the format and delimiter for parsing.
+     * @param offset       The offset of the first data line to read, 0 to read from the line after the header.
+     * @param limit        The offset at which reading stops, usually the size of the file when it was checked.
+     * @param parseThreads The number of threads parsing a large file, 1 to parse it line by line.
+     * @return A reader handing out the rows as they are parsed, it must be closed after use.
+     * @throws IOException If an error occurs while opening the file or reading its header.
      */
-    private static void replaceLRSHeaders(String[] headers) {
-        for (int i = 0; i < headers.length; i++) {
-            for (String[] nameMapping : LRS_HEADER_NAMES) {
-                if (headers[i].equals(nameMapping[0])) {
-                    headers[i] = nameMapping[1].isEmpty() ? "" : nameMapping[1];
-                    break; // Stop checking other name mappings for this header
-                }
-            }
-        }
+    public static CsvRowReader openCsvFile(File file, DataType dataType, long offset, long limit, int parseThreads) throws IOException {
+        return new CsvRowReader(file, dataType, offset, limit, parseThreads, CsvRowReader.MAPPED_MIN_BYTES,
+                MappedChunkParser.DEFAULT_CHUNK_BYTES);
     }
 
     /**
-     * Replaces WGS/WES-specific headers with mapped names in the provided header array.
+     * Opens a CSV file as a sequential stream of rows. Closing the stream closes the file.
      *
-     * @param headers The header array to be updated.
+     * @param file     The CSV file to read.
+     * @param dataType The DataType used to determine the format and delimiter for parsing.
+     * @return A stream of the rows of the file, read errors surface as UncheckedIOException.
+     * @throws IOException If an error occurs while opening the file or reading its header.
      */
-    private static void replaceWGSWESHeaders(String[] headers) {
-        for (int i = 0; i < headers.length; i++) {
-            for (String[] nameMapping : WGS_WES_HEADERS) {
-                if (headers[i].equals(nameMapping[0])) {
-                    headers[i] = nameMapping[1].isEmpty() ? "" : nameMapping[1];
-                    break; // Stop checking other name mappings for this header
-                }
-            }
-        }
+    public static Stream<CsvData> streamCsvFile(File file, DataType dataType) throws IOException {
+        return openCsvFile(file, dataType).stream();
     }
 
     /**
-     * Processes the raw values by splitting the line using the delimiter and removing quotes.
+     * Parses the header line of a CSV file into the normalized header names of its columns.
+     * The DataType specific names are not mapped yet, see {@link #mapHeaderName}.
      *
-     * @param line     The raw CSV row string.
-     * @param dataType The data type containing delimiter information.
-     * @return An array of raw values.
+     * @param headerLine The header line from the CSV file.
+     * @param dataType   The DataType of the file.
+     * @return An array of normalized header strings.
      */
-    private static String[] processValues(String line, DataType dataType) {
-        line = line.replaceAll("\"", "");  // Remove quotes from values
-        String[] values = line.split(dataType.getDelimiter());
-
-        for (int i = 0; i < values.length; i++) {
-            // Check if the value ends with ".0" and remove it if so
-            if (values[i].endsWith(".0")) {
-                values[i] = values[i].substring(0, values[i].length() - 2);
-            }
-        }
-        return values;
+    static String[] parseHeaderLine(String headerLine, DataType dataType) {
+        return parseHeaders(headerLine, dataType.getDelimiter());
     }
 
     /**
-     * Converts a raw CSV value to an appropriate data type: Integer, Double, Date (formatted as yyyy-MM-dd), or String.
+     * Parses one data line into a CsvData object. The identifying columns are read first, the values are then
+     * stored in the row by their index in the schema of the file's column plan.
      *
-     * @param value    The raw value string.
-     * @param dataType The data type.
-     * @return The converted value (Integer, Double, Date, or String).
+     * @param line  The raw data line.
+     * @param state The parse state of the file the line was read from.
+     * @return The parsed row.
      */
-    private static Object convertValues(String value, DataType dataType) {
-        Integer intValue = tryConvertInt(value);
-        if (intValue != null) {
-            return intValue;
+    static CsvData parseRow(String line, ParseState state) {
+        String sampleId = null;
+        String experimentName = null;
+        LocalDate analysisDate = null;
+
+        ColumnPlan plan = state.getPlan();
+        LineTokenizer tokenizer = state.getTokenizer();
+        int columns = Math.min(plan.size(), tokenizer.tokenize(line));
+        for (int i = 0; i < columns; i++) {
+            ColumnPlan.Role role = plan.role(i);
+            if (role == ColumnPlan.Role.DROPPED || role == ColumnPlan.Role.VALUE || isMissing(tokenizer, i)) {
+                continue; // Values are stored below, once the row exists
+            }
+
+            switch (role) {
+                case SAMPLE_ID:
+                    sampleId = tokenizer.field(i);
+                    break;
+                case EXPERIMENT_NAME:
+                    experimentName = tokenizer.field(i);
+                    break;
+                case ANALYSIS_DATE:
+                    long dateStart = System.nanoTime();
+                    analysisDate = state.getDates().resolve(tokenizer.field(i));
+                    state.addDateNanos(System.nanoTime() - dateStart);
+                    break;
+                default:
+                    break;
+            }
         }
 
-        Double doubleValue = tryConvertDouble(value);
-        if (doubleValue != null) {
-            return doubleValue;
+        if (analysisDate == null && state.getDataType() == DataType.WES) {
+            analysisDate = state.getFilenameDate();
         }
 
-        return value; // Return as String if no other type matched
+        CsvData csvData = new CsvData(state.getFileName(), state.getDataType().name(), sampleId, experimentName, analysisDate, plan.schema());
+        ColumnTypes types = state.getTypes();
+        for (int i = 0; i < columns; i++) {
+            if (plan.role(i) == ColumnPlan.Role.VALUE && !isMissing(tokenizer, i)) {
+                types.store(i, tokenizer.compactField(i), csvData, plan.slot(i));
+            }
+        }
+        return csvData;
     }
 
     /**
-     * Attempts to convert a string to an Integer.
-     *
-     * @param value The string to parse.
-     * @return The parsed Integer, or null if parsing fails.
+     * Checks if a field holds no value: it is empty or NA. Such a key-value pair is skipped entirely.
      */
-    private static Integer tryConvertInt(String value) {
-        try {
-            return Integer.parseInt(value.trim());
-        } catch (NumberFormatException e) {
-            return null;
-        }
+    private static boolean isMissing(LineTokenizer tokenizer, int index) {
+        return tokenizer.isEmpty(index) || tokenizer.fieldEqualsIgnoreCase(index, "NA");
     }
 
+
     /**
-     * Attempts to convert a string to a Double.
+     * Extracts a date from a filename using a specific pattern.
      *
-     * @param value The string to parse.
-     * @return The parsed Double, or null if parsing fails.
+     * @param filename The filename to extract the date from.
+     * @return The extracted date, or null if the filename contains no valid date.
      */
-    private static Double tryConvertDouble(String value) {
-        try {
-            return Double.parseDouble(value.trim());
-        } catch (NumberFormatException e) {
-            return null;
-        }
+    public static LocalDate extractDateFromFilename(String filename) {
+        return DateResolver.fromFilename(filename);
     }
 
+
     /**
-     * Attempts to convert a string into a Date object using common date formats.
+     * Maps a DataType specific header name onto the column name used by the database.
      *
-     * @param value The date string to parse.
-     * @return The parsed Date, or null if parsing fails.
+     * @param header   The normalized header name.
+     * @param dataType The DataType of the file.
+     * @return The mapped name, an empty string for columns that are not stored, or the header itself if it is not mapped.
      */
-    private static Date tryConvertDate(String value, DataType dataType) {
-        // Define multiple date formats
-        String[] dateFormatsLRS = {
-                "MM.dd.yyyy HH:mm",  // Expected format for LRS (e.g., 07.28.2024 07:58)
-        };
-
-        String[] dateFormatsWGS = {
-                "dd-MM-yyyy", // Expected format for WGS (e.g., 10-06-2024)
-        };
-
-        SimpleDateFormat sdf;
-
-// Handle both LRS and WGS types with the same logic
-        if (dataType.name().equals("LRS") || dataType.name().equals("WGS")) {
-            // Choose the correct date formats based on the data type
-            String[] dateFormats = dataType.name().equals("LRS") ? dateFormatsLRS : dateFormatsWGS;
-
-            for (String format : dateFormats) {
-                sdf = new SimpleDateFormat(format);
-                try {
-                    Date date = sdf.parse(value.trim());
-                    // Return in yyyy-MM-dd format
-                    SimpleDateFormat outputFormat = new SimpleDateFormat("yyyy-MM-dd");
-                    return outputFormat.parse(outputFormat.format(date));
-                } catch (ParseException e) {
-                    // Continue if parsing fails
-                }
+    static String mapHeaderName(String header, DataType dataType) {
+        String[][] nameMappings = dataType == DataType.LRS ? LRS_HEADER_NAMES : WGS_WES_HEADERS;
+        for (String[] nameMapping : nameMappings) {
+            if (header.equals(nameMapping[0])) {
+                return nameMapping[1];
             }
         }
-
-        // If no format matched, log and return null
-        LOG.error("Failed to parse date: {}", value);
-        return null;
+        return header;
     }
 
     /**
@@ -0,0 +1,118 @@
+package org.umcn.gen.tamatoa;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Parses the rows of a CsvRowReader on a separate thread while the caller consumes them, so parsing the next
+ * rows overlaps with the database latency of writing the previous ones. At most {@code capacity} parsed rows
+ * are buffered, the parser thread blocks when the consumer falls behind.
+ * A read error on the parser thread is rethrown to the consumer as UncheckedIOException.
+ */
+public class CsvRowHandoff implements Iterator<CsvData>, Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(CsvRowHandoff.class);
+
+    private static final Object END_OF_FILE = new Object();
+
+    private final CsvRowReader reader;
+    private final BlockingQueue<Object> queue;
+    private final Thread parser;
+    private volatile boolean closed = false;
+    private Object next;
+
+    /**
+     * Starts parsing the rows of the reader on a new thread.
+     *
+     * @param reader   The reader to take the rows from, it is closed when parsing ends.
+     * @param capacity The maximum number of parsed rows waiting for the consumer.
+     */
+    public CsvRowHandoff(CsvRowReader reader, int capacity) {
+        this.reader = reader;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.parser = new Thread(this::parseAll, "csv-parser-" + reader.getFile().getName());
+        this.parser.setDaemon(true);
+        this.parser.start();
+    }
+
+    private void parseAll() {
+        try (reader) {
+            while (!closed && reader.hasNext()) {
+                queue.put(reader.next());
+            }
+            queue.put(END_OF_FILE);
+        } catch (InterruptedException e) {
+            // Closed by the consumer
+        } catch (IOException | RuntimeException e) {
+            if (!closed) {
+                queue.clear();
+                queue.offer(new ParseFailure(e));
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            if (closed) {
+                return false;
+            }
+            try {
+                next = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for parsed rows", e);
+            }
+        }
+        if (next instanceof ParseFailure failure) {
+            Exception cause = failure.cause();
+            if (cause instanceof UncheckedIOException uncheckedIOException) {
+                throw uncheckedIOException;
+            }
+            if (cause instanceof IOException ioException) {
+                throw new UncheckedIOException(ioException);
+            }
+            throw (RuntimeException) cause;
+        }
+        return next != END_OF_FILE;
+    }
+
+    @Override
+    public CsvData next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        CsvData row = (CsvData) next;
+        next = null;
+        return row;
+    }
+
+    /**
+     * Stops the parser thread if it is still running and discards the rows it buffered.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        parser.interrupt();
+        queue.clear();
+        try {
+            parser.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Interrupted while stopping the parser of file: {}", reader.getFile().getName());
+        }
+    }
+
+    private record ParseFailure(Exception cause) {
+    }
+}
@@ -0,0 +1,305 @@
+package org.umcn.gen.tamatoa;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads the rows of a CSV file one at a time. The column plan of the header is looked up when the reader is opened,
+ * each data line is parsed into a CsvData object when it is requested, so memory use does not depend on the file size.
+ * Read errors while iterating are thrown as UncheckedIOException.
+ * <p>
+ * With more than one parse thread, the data lines of a large file are memory-mapped and parsed in parallel chunks
+ * by a {@link MappedChunkParser}, and the rows are handed out in file order as their chunk is parsed.
+ * <p>
+ * Compressed files ({@code .csv.gz}, {@code .csv.zip}) are decompressed while they are read by a
+ * {@link CompressedInput}, on a thread of its own. They are always read line by line from the start.
+ */
+public class CsvRowReader implements Iterator<CsvData>, Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(CsvRowReader.class);
+
+    private final File file;
+    // Files with fewer bytes of data lines are read line by line, also when more parse threads are configured
+    static final long MAPPED_MIN_BYTES = 64L << 20;
+
+    private final BufferedReader reader;
+    private final ParseState state;
+    private final MappedChunkParser chunks;
+    private Iterator<CsvData> chunkRows = Collections.emptyIterator();
+    private String nextLine;
+    private long readNanos = 0;
+    private long parseNanos = 0;
+    private long lineCount = 0;
+    private boolean closed = false;
+
+    /**
+     * Opens the file and looks up the column plan of its header line.
+     *
+     * @param file     The CSV file to read.
+     * @param dataType The DataType used to determine the format and delimiter for parsing.
+     * @throws IOException If an error occurs while opening the file or reading its header.
+     */
+    CsvRowReader(File file, DataType dataType) throws IOException {
+        this(file, dataType, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Opens the file, looks up the column plan of its header line and positions the reader at a byte offset,
+     * to read only the lines appended after an ingested prefix. The lines are read up to a byte limit, so lines
+     * appended while the file is read are left to the next ingest.
+     *
+     * @param file     The CSV file to read.
+     * @param dataType The DataType used to determine the format and delimiter for parsing.
+     * @param offset   The offset of the first data line to read, 0 to read from the line after the header.
+     * @param limit    The offset at which reading stops, the size of the file when it was checked.
+     * @throws IOException If an error occurs while opening the file or reading its header.
+     */
+    CsvRowReader(File file, DataType dataType, long offset, long limit) throws IOException {
+        this(file, dataType, offset, limit, 1, MAPPED_MIN_BYTES, MappedChunkParser.DEFAULT_CHUNK_BYTES);
+    }
+
+    /**
+     * Opens the file like {@link #CsvRowReader(File, DataType, long, long)}, parsing the data lines in parallel
+     * chunks when there is more than one parse thread and they hold at least mappedMinBytes bytes. A compressed
+     * file is read in full, its limit is ignored.
+     *
+     * @param file           The CSV file to read.
+     * @param dataType       The DataType used to determine the format and delimiter for parsing.
+     * @param offset         The offset of the first data line to read, 0 to read from the line after the header.
+     * @param limit          The offset at which reading stops, the size of the file when it was checked.
+     * @param parseThreads   The number of threads parsing the file, 1 to parse it line by line.
+     * @param mappedMinBytes The number of bytes of data lines from which the file is parsed in parallel.
+     * @param chunkBytes     The number of bytes per parallel chunk.
+     * @throws IOException              If an error occurs while opening the file or reading its header.
+     * @throws IllegalArgumentException If an offset is given for a compressed file.
+     */
+    CsvRowReader(File file, DataType dataType, long offset, long limit, int parseThreads, long mappedMinBytes,
+                 int chunkBytes) throws IOException {
+        this.file = file;
+        boolean compressed = CompressedInput.isCompressed(file);
+        if (compressed && offset > 0) {
+            throw new IllegalArgumentException("Compressed file can only be read from the start: " + file.getAbsolutePath());
+        }
+        if (parseThreads > 1 && !compressed) {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                long end = Math.min(limit, channel.size());
+                long start = offset > 0 ? offset : MappedChunkParser.lineStart(channel, 0, end);
+                if (end - start >= mappedMinBytes) {
+                    String headerLine;
+                    try (BufferedReader headerReader = Files.newBufferedReader(file.toPath())) {
+                        headerLine = headerReader.readLine();
+                    }
+                    ColumnPlan plan = ColumnPlan.forHeader(headerLine, dataType);
+                    this.state = new ParseState(file.getName(), dataType, plan);
+                    this.reader = null;
+                    this.chunks = new MappedChunkParser(channel, file.getName(), dataType, plan, start, end, parseThreads, chunkBytes);
+                    LOG.debug("Parsing {} bytes of file: {} in parallel on {} threads", end - start, file.getName(), parseThreads);
+                    return;
+                }
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+            channel.close();
+        }
+        this.chunks = null;
+
+        String headerLine;
+        if (offset > 0) {
+            try (BufferedReader headerReader = Files.newBufferedReader(file.toPath())) {
+                headerLine = headerReader.readLine();
+            }
+        } else {
+            headerLine = null;
+        }
+
+        if (compressed) {
+            this.reader = new BufferedReader(new InputStreamReader(CompressedInput.open(file), StandardCharsets.UTF_8.newDecoder()));
+        } else {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                channel.position(offset);
+                InputStream in = new LimitedInputStream(Channels.newInputStream(channel), limit - offset);
+                this.reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8.newDecoder()));
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+        try {
+            if (offset == 0) {
+                headerLine = reader.readLine();
+            }
+            if (headerLine == null) {
+                LOG.error("File is empty: {}", file.getAbsolutePath());
+                this.state = null;
+            } else {
+                this.state = new ParseState(file.getName(), dataType, ColumnPlan.forHeader(headerLine, dataType));
+            }
+        } catch (IOException | RuntimeException e) {
+            reader.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextLine != null) {
+            return true;
+        }
+        if (state == null) {
+            return false;
+        }
+        if (chunks != null) {
+            return hasNextChunkRow();
+        }
+        long startTime = System.nanoTime();
+        try {
+            nextLine = reader.readLine();
+            readNanos += System.nanoTime() - startTime;
+            if (nextLine != null) {
+                lineCount++;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reading file: " + file.getAbsolutePath(), e);
+        }
+        return nextLine != null;
+    }
+
+    @Override
+    public CsvData next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        if (chunks != null) {
+            return chunkRows.next();
+        }
+        String line = nextLine;
+        nextLine = null;
+        long startTime = System.nanoTime();
+        CsvData csvData = CsvParser.parseRow(line, state);
+        parseNanos += System.nanoTime() - startTime;
+        return csvData;
+    }
+
+    /**
+     * Moves on to the next parsed chunk when the rows of the current one are handed out. Waiting for a chunk to
+     * be parsed is recorded as read time.
+     */
+    private boolean hasNextChunkRow() {
+        long startTime = System.nanoTime();
+        while (!chunkRows.hasNext() && chunks.hasNext()) {
+            chunkRows = chunks.next().rows().iterator();
+        }
+        readNanos += System.nanoTime() - startTime;
+        return chunkRows.hasNext();
+    }
+
+    /**
+     * @return The file being read.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return The number of data lines read so far, including lines that hold no data.
+     */
+    public long getLineCount() {
+        return chunks != null ? chunks.getLineCount() : lineCount;
+    }
+
+    /**
+     * Wraps the remaining rows in a sequential stream that closes this reader when the stream is closed.
+     *
+     * @return A stream of the remaining rows.
+     */
+    public Stream<CsvData> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(() -> {
+                    try {
+                        close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+    /**
+     * Closes the file and records the time spent reading and parsing it in the {@link IngestMetrics}.
+     * The parse time of a file parsed in parallel is summed over the parse threads.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed && state != null) {
+            IngestMetrics metrics = IngestMetrics.get();
+            String dataType = state.getDataType().name();
+            metrics.record(dataType, IngestMetrics.Stage.READ, readNanos);
+            metrics.record(dataType, IngestMetrics.Stage.PARSE, chunks != null ? chunks.getParseNanos() : parseNanos);
+            metrics.record(dataType, IngestMetrics.Stage.DATE, chunks != null ? chunks.getDateNanos() : state.getDateNanos());
+        }
+        closed = true;
+        if (chunks != null) {
+            chunks.close();
+        } else {
+            reader.close();
+        }
+    }
+
+    /**
+     * Ends the stream of a file at the size the file had when it was checked.
+     */
+    private static final class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = super.read(b, off, (int) Math.min(len, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+    }
+}
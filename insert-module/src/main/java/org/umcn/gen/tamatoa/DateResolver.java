@@ -0,0 +1,109 @@
+package org.umcn.gen.tamatoa;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.text.ParsePosition;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Resolves the analysis dates of the rows of a DataType into LocalDate values, which bind directly to the
+ * SQL date column. Every DataType has its own list of immutable java.time formatters, tried in order.
+ * <p>
+ * All rows of a run share the same date string, so resolved strings are remembered, including the ones that
+ * could not be parsed. The resolver of a DataType is shared by all parser threads.
+ */
+final class DateResolver {
+    private static final Logger LOG = LoggerFactory.getLogger(DateResolver.class);
+
+    // Upper bound on the remembered date strings, reached only for files with a distinct time on every row
+    private static final int MAX_CACHED_DATES = 10_000;
+
+    // A date in the yyyy_MM_dd or yyyy-MM-dd format (e.g., 2024_01_11 or 2024-01-11)
+    private static final Pattern FILENAME_DATE = Pattern.compile("(\\d{4})[-_](\\d{2})[-_](\\d{2})");
+
+    private static final Map<DataType, DateResolver> RESOLVERS = new EnumMap<>(DataType.class);
+
+    static {
+        // LRS e.g. 07.28.2024 07:58, only the date is kept
+        RESOLVERS.put(DataType.LRS, new DateResolver(DataType.LRS, List.of(DateTimeFormatter.ofPattern("M.d.uuuu H:mm"))));
+        // WGS e.g. 10-06-2024
+        RESOLVERS.put(DataType.WGS, new DateResolver(DataType.WGS, List.of(DateTimeFormatter.ofPattern("d-M-uuuu"))));
+        // WES rows carry no date, it is taken from the filename
+        RESOLVERS.put(DataType.WES, new DateResolver(DataType.WES, List.of()));
+    }
+
+    private final DataType dataType;
+    private final List<DateTimeFormatter> formatters;
+    private final Map<String, Optional<LocalDate>> resolved = new ConcurrentHashMap<>();
+
+    private DateResolver(DataType dataType, List<DateTimeFormatter> formatters) {
+        this.dataType = dataType;
+        this.formatters = formatters;
+    }
+
+    /**
+     * @param dataType The DataType whose dates are resolved.
+     * @return The shared resolver of the DataType.
+     */
+    static DateResolver forDataType(DataType dataType) {
+        return RESOLVERS.get(dataType);
+    }
+
+    /**
+     * Resolves a date string. Text following the date, such as the time of day, is ignored.
+     *
+     * @param value The trimmed date string.
+     * @return The date, or null if no formatter of the DataType matches.
+     */
+    LocalDate resolve(String value) {
+        Optional<LocalDate> date = resolved.get(value);
+        if (date == null) {
+            if (resolved.size() >= MAX_CACHED_DATES) {
+                resolved.clear();
+            }
+            date = resolved.computeIfAbsent(value, this::parse);
+        }
+        return date.orElse(null);
+    }
+
+    private Optional<LocalDate> parse(String value) {
+        for (DateTimeFormatter formatter : formatters) {
+            try {
+                return Optional.of(LocalDate.from(formatter.parse(value, new ParsePosition(0))));
+            } catch (DateTimeException e) {
+                // Try the next format
+            }
+        }
+        LOG.error("Failed to parse date: {} of Datatype: {}", value, dataType.name());
+        return Optional.empty();
+    }
+
+    /**
+     * Extracts a date from a filename, meant to be called once per file.
+     *
+     * @param fileName The filename to extract the date from.
+     * @return The date, or null if the filename contains no valid date.
+     */
+    static LocalDate fromFilename(String fileName) {
+        Matcher matcher = FILENAME_DATE.matcher(fileName);
+        if (!matcher.find()) {
+            return null;
+        }
+        try {
+            return LocalDate.of(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)), Integer.parseInt(matcher.group(3)));
+        } catch (DateTimeException e) {
+            LOG.warn("Invalid date in filename {}: {}", fileName, e.getMessage());
+            return null;
+        }
+    }
+}
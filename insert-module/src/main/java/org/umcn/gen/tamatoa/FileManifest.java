@@ -0,0 +1,342 @@
+package org.umcn.gen.tamatoa;
+
+import org.jooq.DSLContext;
+import org.jooq.impl.DSL;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of the files that have been ingested for a DataType in the Ingest_Manifest table, so that
+ * unchanged files can be skipped and changed files replace the rows of their previous version.
+ * A file is considered unchanged when its size and modification time match the manifest, or, when only
+ * the modification time differs, when its content hash still matches.
+ * <p>
+ * The trend files are cumulative, new samples are appended to them. The manifest entry of a file is therefore
+ * also the checkpoint of its ingestion: the file size is the byte offset up to which it was ingested, with the
+ * number of data lines before that offset and a hash of the header. A file that grew while its header and its
+ * ingested prefix stayed the same only has its appended lines ingested, any other change re-reads it in full.
+ */
+public class FileManifest {
+    private static final Logger LOG = LoggerFactory.getLogger(FileManifest.class);
+
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+    private final DataType dataType;
+    private final Map<String, Fingerprint> entries = new ConcurrentHashMap<>();
+
+    private FileManifest(DataType dataType) {
+        this.dataType = dataType;
+    }
+
+    /**
+     * Loads the manifest entries of a DataType with a single query.
+     *
+     * @param dataType The DataType whose ingested files are loaded.
+     * @return The manifest of the DataType.
+     * @throws SQLException If the manifest can not be read.
+     */
+    public static FileManifest load(DataType dataType) throws SQLException {
+        FileManifest manifest = new FileManifest(dataType);
+        try (Connection connection = PostgresConnector.getConnection()) {
+            manifest.readEntries(DSL.using(connection));
+        } catch (RuntimeException e) {
+            throw new SQLException("Error loading the manifest of Datatype: " + dataType.name(), e);
+        }
+        LOG.info("Loaded {} manifest entries for Datatype: {}", manifest.entries.size(), dataType.name());
+        return manifest;
+    }
+
+    private void readEntries(DSLContext dsl) {
+        List<Fingerprint> fingerprints = dsl
+                .select(DSL.field("file_name", String.class), DSL.field("file_path", String.class),
+                        DSL.field("file_size", Long.class), DSL.field("last_modified", Long.class),
+                        DSL.field("content_hash", String.class), DSL.field("header_hash", String.class),
+                        DSL.field("line_count", Long.class))
+                .from(DSL.table("Ingest_Manifest"))
+                .where(DSL.field("ngs_type", String.class).eq(dataType.name()))
+                .fetchInto(Fingerprint.class);
+        for (Fingerprint fingerprint : fingerprints) {
+            entries.put(fingerprint.fileName(), fingerprint);
+        }
+    }
+
+    /**
+     * Checks a file against the manifest. Only the file's metadata is read when its size and modification time
+     * are unchanged; otherwise its content is hashed. When the file grew and its header is unchanged, the prefix
+     * that was ingested before is hashed in the same pass, to find out whether lines were only appended.
+     * A compressed file has no header hash and is always ingested in full, as its lines can not be read from
+     * a byte offset.
+     *
+     * @param file The file to check.
+     * @return The change to ingest, or null if the file is unchanged.
+     * @throws IOException  If the file can not be read.
+     * @throws SQLException If the modification time of an unchanged file can not be updated in the manifest.
+     */
+    public Change changeOf(File file) throws IOException, SQLException {
+        long size = file.length();
+        long lastModified = file.lastModified();
+        Fingerprint entry = entries.get(file.getName());
+        if (entry != null && entry.fileSize() == size && entry.lastModified() == lastModified) {
+            return null;
+        }
+
+        String headerHash = CompressedInput.isCompressed(file) ? null : headerHash(file);
+        boolean mayBeAppended = headerHash != null && entry != null && size > entry.fileSize()
+                && headerHash.equals(entry.headerHash());
+        Hashes hashes = hash(file, size, mayBeAppended ? entry.fileSize() : 0);
+        Fingerprint fingerprint = new Fingerprint(file.getName(), file.getAbsolutePath(), size, lastModified,
+                hashes.content(), headerHash, 0);
+        if (entry != null && entry.contentHash().equals(fingerprint.contentHash())) {
+            // Touched but not modified, remember the new metadata so the file is not hashed again next run
+            try (Connection connection = PostgresConnector.getConnection()) {
+                record(connection, fingerprint.withLineCount(entry.lineCount()));
+            }
+            return null;
+        }
+        boolean appended = mayBeAppended && entry.contentHash().equals(hashes.prefix());
+        return new Change(fingerprint, appended ? entry : null);
+    }
+
+    /**
+     * Deletes the rows a previous ingest of the file left behind: its samples and their quality metrics,
+     * and experiments that have no samples left together with their run quality metrics.
+     * Deleted experiments are evicted from the identity cache.
+     *
+     * @param connection    The connection to delete the rows with.
+     * @param fileName      The name of the file whose rows are deleted.
+     * @param identityCache The identity cache of the ingest run.
+     * @return The number of samples deleted.
+     * @throws SQLException If the rows can not be deleted, in which case none are.
+     */
+    public int removeFileRows(Connection connection, String fileName, IdentityCache identityCache) throws SQLException {
+        List<Long> deletedExperimentIds = new ArrayList<>();
+        try {
+            return deleteFileRows(DSL.using(connection), fileName, deletedExperimentIds);
+        } catch (Exception e) {
+            throw new SQLException("Error removing previous rows of file: " + fileName, e);
+        } finally {
+            identityCache.evictExperiments(deletedExperimentIds);
+        }
+    }
+
+    private int deleteFileRows(DSLContext dsl, String fileName, List<Long> deletedExperimentIds) {
+        return dsl.transactionResult(configuration -> {
+            DSLContext txDsl = DSL.using(configuration);
+            List<Long> experimentIds = txDsl.fetch(
+                            "SELECT DISTINCT s.Experiment_experiment_identifier FROM Sample s "
+                                    + "JOIN Experiment e ON e.experiment_identifier = s.Experiment_experiment_identifier "
+                                    + "WHERE s.source_file = ? AND e.NGS_ngs_type = ?", fileName, dataType.name())
+                    .getValues(0, Long.class);
+            if (experimentIds.isEmpty()) {
+                return 0;
+            }
+            Long[] ids = experimentIds.toArray(new Long[0]);
+            List<LocalDate> months = txDsl.fetch(
+                            "SELECT DISTINCT " + String.format(MonthlyRollup.MONTH_OF, "analysis_date")
+                                    + " FROM Experiment WHERE experiment_identifier = ANY(?)", (Object) ids)
+                    .getValues(0, LocalDate.class);
+
+            txDsl.execute("DELETE FROM Sample_Metric_Wide w USING Sample s "
+                    + "WHERE w.Sample_sample_identifier = s.sample_identifier "
+                    + "AND s.source_file = ? AND s.Experiment_experiment_identifier = ANY(?)", fileName, ids);
+            txDsl.execute("DELETE FROM Quality_Metrics q USING Sample s "
+                    + "WHERE q.Sample_sample_identifier = s.sample_identifier "
+                    + "AND s.source_file = ? AND s.Experiment_experiment_identifier = ANY(?)", fileName, ids);
+            int samples = txDsl.execute("DELETE FROM Sample WHERE source_file = ? AND Experiment_experiment_identifier = ANY(?)",
+                    fileName, ids);
+            txDsl.execute("DELETE FROM Run_Quality_Metrics r WHERE r.Experiment_experiment_identifier = ANY(?) "
+                    + "AND NOT EXISTS (SELECT 1 FROM Sample s WHERE s.Experiment_experiment_identifier = r.Experiment_experiment_identifier)", (Object) ids);
+            deletedExperimentIds.addAll(txDsl.fetch("DELETE FROM Experiment e WHERE e.experiment_identifier = ANY(?) "
+                    + "AND NOT EXISTS (SELECT 1 FROM Sample s WHERE s.Experiment_experiment_identifier = e.experiment_identifier) "
+                    + "RETURNING e.experiment_identifier", (Object) ids).getValues(0, Long.class));
+            MonthlyRollup.refreshMonths(txDsl, dataType.name(), months);
+
+            LOG.info("Removed {} samples of the previous version of file: {}", samples, fileName);
+            return samples;
+        });
+    }
+
+    /**
+     * Invalidates the checkpoint of a file before the lines appended to it are written, so that a file whose
+     * appended lines could not all be written is re-read in full, replacing its rows, instead of having the
+     * same lines appended twice. Recording the file afterwards restores the checkpoint.
+     *
+     * @param connection The connection to update the manifest entry with.
+     * @param fileName   The name of the file.
+     * @throws SQLException If the manifest entry can not be updated.
+     */
+    public void invalidate(Connection connection, String fileName) throws SQLException {
+        entries.remove(fileName);
+        try {
+            DSL.using(connection).execute("UPDATE Ingest_Manifest SET header_hash = NULL WHERE ngs_type = ? AND file_name = ?",
+                    dataType.name(), fileName);
+        } catch (Exception e) {
+            throw new SQLException("Error invalidating the manifest entry of file: " + fileName, e);
+        }
+    }
+
+    /**
+     * Records a file as ingested.
+     *
+     * @param connection  The connection to write the manifest entry with.
+     * @param fingerprint The fingerprint of the ingested file.
+     * @throws SQLException If the manifest entry can not be written.
+     */
+    public void record(Connection connection, Fingerprint fingerprint) throws SQLException {
+        try {
+            writeEntry(DSL.using(connection), fingerprint);
+        } catch (Exception e) {
+            throw new SQLException("Error recording file in the manifest: " + fingerprint.fileName(), e);
+        }
+        entries.put(fingerprint.fileName(), fingerprint);
+    }
+
+    private void writeEntry(DSLContext dsl, Fingerprint fingerprint) {
+        dsl.insertInto(DSL.table("Ingest_Manifest"))
+                .set(DSL.field("ngs_type", String.class), dataType.name())
+                .set(DSL.field("file_name", String.class), fingerprint.fileName())
+                .set(DSL.field("file_path", String.class), fingerprint.filePath())
+                .set(DSL.field("file_size", Long.class), fingerprint.fileSize())
+                .set(DSL.field("last_modified", Long.class), fingerprint.lastModified())
+                .set(DSL.field("content_hash", String.class), fingerprint.contentHash())
+                .set(DSL.field("header_hash", String.class), fingerprint.headerHash())
+                .set(DSL.field("line_count", Long.class), fingerprint.lineCount())
+                .onConflict(DSL.field("ngs_type"), DSL.field("file_name"))
+                .doUpdate()
+                .set(DSL.field("file_path", String.class), fingerprint.filePath())
+                .set(DSL.field("file_size", Long.class), fingerprint.fileSize())
+                .set(DSL.field("last_modified", Long.class), fingerprint.lastModified())
+                .set(DSL.field("content_hash", String.class), fingerprint.contentHash())
+                .set(DSL.field("header_hash", String.class), fingerprint.headerHash())
+                .set(DSL.field("line_count", Long.class), fingerprint.lineCount())
+                .set(DSL.field("ingested_at", Timestamp.class), DSL.currentTimestamp())
+                .execute();
+    }
+
+    /**
+     * Computes the SHA-256 hash of the header line of a file.
+     *
+     * @param file The file to hash.
+     * @return The hash as a lowercase hexadecimal string, the hash of an empty line for an empty file.
+     * @throws IOException If the file can not be read.
+     */
+    static String headerHash(File file) throws IOException {
+        String headerLine;
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath())) {
+            headerLine = reader.readLine();
+        }
+        byte[] header = (headerLine != null ? headerLine : "").getBytes(StandardCharsets.UTF_8);
+        return HexFormat.of().formatHex(newDigest().digest(header));
+    }
+
+    /**
+     * Computes the SHA-256 hash of a file's content, and of a prefix of it in the same pass.
+     * Only the given number of bytes is hashed, so lines appended while hashing are left to the next check.
+     *
+     * @param file         The file to hash.
+     * @param length       The number of bytes to hash, the size of the file when it was checked.
+     * @param prefixLength The number of bytes of the prefix to hash, 0 to hash no prefix.
+     * @return The hash of the content, and the hash of the prefix if it ends with a complete line.
+     * @throws IOException If the file can not be read.
+     */
+    static Hashes hash(File file, long length, long prefixLength) throws IOException {
+        MessageDigest digest = newDigest();
+        String prefixHash = null;
+        byte[] buffer = new byte[HASH_BUFFER_SIZE];
+        long position = 0;
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int read;
+            while (position < length && (read = in.read(buffer, 0, (int) Math.min(buffer.length, length - position))) > 0) {
+                if (position < prefixLength && position + read >= prefixLength) {
+                    int split = (int) (prefixLength - position);
+                    digest.update(buffer, 0, split);
+                    // A last line without a line break may have been extended, the prefix is then not reused
+                    if (buffer[split - 1] == '\n') {
+                        prefixHash = HexFormat.of().formatHex(copyOf(digest).digest());
+                    }
+                    digest.update(buffer, split, read - split);
+                } else {
+                    digest.update(buffer, 0, read);
+                }
+                position += read;
+            }
+        }
+        return new Hashes(HexFormat.of().formatHex(digest.digest()), prefixHash);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported by this Java runtime", e);
+        }
+    }
+
+    private static MessageDigest copyOf(MessageDigest digest) {
+        try {
+            return (MessageDigest) digest.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException("SHA-256 digests can not be copied by this Java runtime", e);
+        }
+    }
+
+    /**
+     * The identity of an ingested file as stored in the manifest. The file size is the byte offset up to which
+     * the file was ingested, the line count the number of data lines before that offset.
+     */
+    public record Fingerprint(String fileName, String filePath, long fileSize, long lastModified, String contentHash,
+                              String headerHash, long lineCount) {
+
+        /**
+         * @param lineCount The number of data lines before the ingested offset.
+         * @return A copy of this fingerprint with the given line count.
+         */
+        public Fingerprint withLineCount(long lineCount) {
+            return new Fingerprint(fileName, filePath, fileSize, lastModified, contentHash, headerHash, lineCount);
+        }
+    }
+
+    /**
+     * A file that has to be ingested.
+     *
+     * @param fingerprint The fingerprint to record once the file has been ingested, without its line count.
+     * @param ingested    The manifest entry of the prefix that was ingested before, when lines were only appended
+     *                    to it since, or null if the file has to be ingested from its first line.
+     */
+    public record Change(Fingerprint fingerprint, Fingerprint ingested) {
+
+        /**
+         * @return Whether only the lines appended after the ingested prefix have to be ingested.
+         */
+        public boolean isAppend() {
+            return ingested != null;
+        }
+    }
+
+    /**
+     * The hashes of a file's content and of its ingested prefix.
+     *
+     * @param content The hash of the content.
+     * @param prefix  The hash of the prefix, or null if no prefix was hashed or it does not end with a line break.
+     */
+    record Hashes(String content, String prefix) {
+    }
+}
@@ -5,9 +5,11 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -17,55 +19,347 @@ import java.util.List;
 public class FolderReader {
     private static final Logger LOG = LoggerFactory.getLogger(FolderReader.class);
 
+    // Rows whose experiments are resolved together in row mode, and merged together in merge mode, a trend file
+    // usually fits in one chunk
+    private static final int RESOLVE_CHUNK_SIZE = 1000;
+
     public static void main(String[] args) {
 
+        IngestOptions options = null;
         try {
-            processDataType(DataType.WGS);
-            processDataType(DataType.WES);
-            processDataType(DataType.LRS);
+            options = IngestOptions.parse(args);
+            PostgresConnector.initPool(options.getPoolSize());
+            if (options.isWatch()) {
+                if (options.getMetricsFile() != null) {
+                    IngestMetrics.get().startExport(options.getMetricsFile(), options.getMetricsIntervalSeconds());
+                }
+                new FolderWatcher(options).run(DataType.WGS, DataType.WES, DataType.LRS);
+            } else if (options.getWorkers() > 1) {
+                new ParallelIngestor(options).run(DataType.WGS, DataType.WES, DataType.LRS);
+            } else {
+                processDataType(DataType.WGS, options);
+                processDataType(DataType.WES, options);
+                processDataType(DataType.LRS, options);
+            }
         } catch (Exception e) {
             System.err.println("An error occurred while reading data from folders: " + e.getMessage());
+        } finally {
+            PostgresConnector.shutdown();
+            exportMetrics(options);
         }
 
     }
 
 
     /**
-     * Processes all CSV files for a specific DataType by reading the folder, parsing
-     * the files, and inserting the parsed data into a database.
+     * Logs the ingest metrics of the run and writes them to the metrics file, if one is configured.
+     *
+     * @param options The options of the run, or null if they could not be parsed.
+     */
+    static void exportMetrics(IngestOptions options) {
+        IngestMetrics metrics = IngestMetrics.get();
+        metrics.stopExport();
+        metrics.logSummary();
+        if (options != null && options.getMetricsFile() != null) {
+            try {
+                metrics.writeTo(options.getMetricsFile());
+            } catch (IOException e) {
+                LOG.error("Unable to write the ingest metrics to {}: {}", options.getMetricsFile(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Processes all CSV files for a specific DataType with the default options.
      *
      * @param dataType The DataType for which CSV files are to be processed.
      * @throws IOException If an error occurs while reading the files or the folder.
      */
     static void processDataType(DataType dataType) throws IOException {
+        processDataType(dataType, new IngestOptions());
+    }
+
+    /**
+     * Processes all CSV files for a specific DataType by reading the folder, parsing
+     * the files, and inserting the parsed data into a database. A file that can not be read or written is
+     * logged and counted as failed, the remaining files are still processed.
+     *
+     * @param dataType The DataType for which CSV files are to be processed.
+     * @param options  The options deciding how the parsed data is written.
+     * @throws IOException If an error occurs while reading the folder or the manifest.
+     */
+    static void processDataType(DataType dataType, IngestOptions options) throws IOException {
         File folder = dataType.getFolder();
         List<File> csvFiles = checkFolder(folder);
+        FileManifest manifest = loadManifest(dataType, options);
+        IdentityCache identityCache = new IdentityCache();
+        long startTime = System.nanoTime();
+        long sampleCount = processFiles(csvFiles, dataType, options, manifest, identityCache);
+        logThroughput(dataType, options.getMode(), csvFiles.size(), sampleCount, System.nanoTime() - startTime);
+        identityCache.logStatistics();
+    }
 
+    /**
+     * Processes files one after the other. A file that can not be read or written is logged and counted as
+     * failed, the files after it are still processed.
+     *
+     * @param csvFiles      The files to process.
+     * @param dataType      The DataType of the files.
+     * @param options       The options deciding how the parsed data is written.
+     * @param manifest      The manifest of ingested files, or null to ingest the files unconditionally.
+     * @param identityCache The NGS types and experiments known to exist, shared by the files of the run.
+     * @return The number of samples written.
+     */
+    static long processFiles(List<File> csvFiles, DataType dataType, IngestOptions options, FileManifest manifest,
+                             IdentityCache identityCache) {
+        long sampleCount = 0;
         for (File csvFile : csvFiles) {
             try {
-                List<CsvData> csvDataList = CsvParser.readCsvFile(csvFile, dataType);
+                sampleCount += processFile(csvFile, dataType, options, manifest, identityCache);
+            } catch (IOException | RuntimeException e) {
+                fileFailed(csvFile, dataType, e);
+            }
+        }
+        return sampleCount;
+    }
+
+    /**
+     * Loads the manifest of ingested files of a DataType when incremental ingestion is enabled.
+     *
+     * @param dataType The DataType whose manifest is loaded.
+     * @param options  The options of the run.
+     * @return The manifest, or null if every file is to be ingested.
+     * @throws IOException If incremental ingestion is enabled but the manifest can not be read.
+     */
+    static FileManifest loadManifest(DataType dataType, IngestOptions options) throws IOException {
+        if (!options.isIncremental()) {
+            return null;
+        }
+        try {
+            return FileManifest.load(dataType);
+        } catch (SQLException e) {
+            throw new IOException("Unable to load the manifest of Datatype: " + dataType.name(), e);
+        }
+    }
+
+    /**
+     * Parses a single CSV file and writes its rows to the database with the configured ingest mode.
+     * Rows are parsed while they are written, with {@link IngestOptions#getParseAhead()} rows parsed ahead
+     * on a separate thread, so a file is never held in memory as a whole.
+     * Database errors are logged, the rows committed before the error stay in the database.
+     * <p>
+     * With a manifest, a file that has not changed since it was last ingested is skipped without being parsed.
+     * A file to which lines were only appended has just those lines read and written. Otherwise the rows of its
+     * previous version are removed first, except in merge mode. The file is recorded in the manifest once all its rows are written.
+     *
+     * @param csvFile       The CSV file to process.
+     * @param dataType      The DataType of the file.
+     * @param options       The options deciding how the parsed data is written.
+     * @param manifest      The manifest of ingested files, or null to ingest the file unconditionally.
+     * @param identityCache The NGS types and experiments known to exist, shared by the files of the run.
+     * @return The number of samples written.
+     * @throws IOException If an error occurs while reading the file.
+     */
+    static long processFile(File csvFile, DataType dataType, IngestOptions options, FileManifest manifest,
+                            IdentityCache identityCache) throws IOException {
+        IngestMetrics metrics = IngestMetrics.get();
+        long startTime = System.nanoTime();
+        long sampleCount = 0;
+        try {
+            FileManifest.Change change = null;
+            if (manifest != null) {
+                change = manifest.changeOf(csvFile);
+                if (change == null) {
+                    LOG.debug("Skipping unchanged file: {}", csvFile.getName());
+                    return 0;
+                }
+            }
+            // Only the lines appended after the ingested prefix are read, up to the size the file was checked at
+            FileManifest.Fingerprint ingested = change != null ? change.ingested() : null;
+            long offset = ingested != null ? ingested.fileSize() : 0;
+            long limit = change != null ? change.fingerprint().fileSize() : Long.MAX_VALUE;
 
-                if (csvDataList.isEmpty()) {
+            try (CsvRowReader reader = CsvParser.openCsvFile(csvFile, dataType, offset, limit, options.getParseThreads());
+                 CsvRowHandoff handoff = options.getParseAhead() > 0 ? new CsvRowHandoff(reader, options.getParseAhead()) : null) {
+                Iterator<CsvData> rows = handoff != null ? handoff : reader;
+                long ingestedLines = ingested != null ? ingested.lineCount() : 0;
+
+                if (!rows.hasNext()) {
                     LOG.warn("No valid data found in file: {}", csvFile.getName());
-                    continue;
+                    if (ingested != null) {
+                        // Only blank lines were appended, move the checkpoint past them
+                        try (Connection connection = PostgresConnector.getConnection()) {
+                            manifest.record(connection, change.fingerprint().withLineCount(ingestedLines + reader.getLineCount()));
+                        }
+                    }
+                    return 0;
                 }
 
+                long waitStart = System.nanoTime();
                 try (Connection connection = PostgresConnector.getConnection()) {
-                    CsvDataInserter inserter = new CsvDataInserter(connection);
+                    metrics.record(dataType.name(), IngestMetrics.Stage.CONNECTION_WAIT, System.nanoTime() - waitStart);
+                    if (ingested != null) {
+                        // Until the appended lines are recorded, an interrupted ingest makes the next run re-read the file
+                        manifest.invalidate(connection, csvFile.getName());
+                        LOG.info("Ingesting the lines appended to file: {} after {} ingested lines", csvFile.getName(), ingestedLines);
+                    } else if (manifest != null && options.getMode() != IngestMode.MERGE) {
+                        // In merge mode the rows of the previous version are updated in place instead
+                        manifest.removeFileRows(connection, csvFile.getName(), identityCache);
+                    }
 
-                    for (CsvData csvData : csvDataList) {
-                        if (csvData.getQualityData().isEmpty()) {
-                            LOG.warn("Skipping empty CSV data: {}", csvFile.getName());
-                            continue;
-                        }
-                        inserter.insertCsvData(csvData);
-                        LOG.info("Successfully inserted data for sample: {} of Datatype: {}", csvData.getSampleId(), dataType.name());
+                    sampleCount = writeRows(connection, rows, csvFile.getName(), dataType, options, identityCache);
+
+                    if (manifest != null) {
+                        manifest.record(connection, change.fingerprint().withLineCount(ingestedLines + reader.getLineCount()));
                     }
                 }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        } catch (SQLException e) {
+            LOG.error("Error processing file {}: {}", csvFile.getName(), e.getMessage());
+            metrics.count(dataType.name(), IngestMetrics.Counter.FAILED_FILES, 1);
+        }
+        metrics.count(dataType.name(), IngestMetrics.Counter.FILES, 1);
+        metrics.count(dataType.name(), IngestMetrics.Counter.ROWS, sampleCount);
+        metrics.record(dataType.name(), IngestMetrics.Stage.FILE, System.nanoTime() - startTime);
+        return sampleCount;
+    }
+
+    /**
+     * Logs a file that could not be read or written by {@link #processFile} and counts it as failed, so the
+     * files after it are still processed.
+     *
+     * @param csvFile  The file that failed.
+     * @param dataType The DataType of the file.
+     * @param e        The error that ended the file.
+     */
+    static void fileFailed(File csvFile, DataType dataType, Exception e) {
+        LOG.error("Error processing file {}: {}", csvFile.getName(), e.getMessage());
+        IngestMetrics.get().count(dataType.name(), IngestMetrics.Counter.FAILED_FILES, 1);
+    }
+
+    /**
+     * Writes the rows of one file to the database with the configured ingest mode. In row mode the rows are
+     * committed per row, per number of rows or once per file, see {@link RowTransaction}; in copy and merge
+     * mode the file is always written in a single transaction.
+     *
+     * @param connection    The connection to write the rows with.
+     * @param rows          The parsed rows of the file.
+     * @param fileName      The name of the file, used in log messages.
+     * @param dataType      The DataType of the file.
+     * @param options       The options deciding how the parsed data is written.
+     * @param identityCache The NGS types and experiments known to exist, shared by the files of the run.
+     * @return The number of samples written.
+     * @throws SQLException If the rows can not be written.
+     */
+    static long writeRows(Connection connection, Iterator<CsvData> rows, String fileName, DataType dataType,
+                          IngestOptions options, IdentityCache identityCache) throws SQLException {
+        if (options.getMode() == IngestMode.COPY) {
+            long sampleCount = new CsvDataBulkLoader(connection).load(rows);
+            LOG.info("Successfully loaded {} samples from file: {} of Datatype: {}", sampleCount, fileName, dataType.name());
+            return sampleCount;
+        }
+
+        boolean merge = options.getMode() == IngestMode.MERGE;
+        int commitRows = merge ? 0 : options.getCommitRows();
+        try (RowTransaction transaction = RowTransaction.begin(connection, commitRows, identityCache, dataType)) {
+            CsvDataInserter inserter = new CsvDataInserter(connection, options.getBatchSize(), transaction.getIdentityCache(),
+                    transaction.getRollup());
+            List<CsvData> chunk = new ArrayList<>();
+            long sampleCount = 0;
+            while (rows.hasNext()) {
+                CsvData csvData = rows.next();
+                if (csvData.isEmpty()) {
+                    LOG.warn("Skipping empty CSV data: {}", fileName);
+                    continue;
+                }
+                chunk.add(csvData);
+                if (chunk.size() == RESOLVE_CHUNK_SIZE) {
+                    sampleCount += merge ? mergeRows(inserter, chunk) : insertRows(inserter, chunk, dataType, options, transaction);
+                }
+            }
+            sampleCount += merge ? mergeRows(inserter, chunk) : insertRows(inserter, chunk, dataType, options, transaction);
+            transaction.finish();
+            if (merge) {
+                LOG.info("Successfully merged {} samples from file: {} of Datatype: {}", sampleCount, fileName, dataType.name());
+            }
+            return sampleCount;
+        }
+    }
+
+    /**
+     * Merges a chunk of rows with set-based upserts, see {@link CsvDataInserter#mergeRows}.
+     *
+     * @param inserter The inserter to write the rows with.
+     * @param chunk    The rows to merge, the list is cleared afterwards.
+     * @return The number of samples merged.
+     * @throws SQLException If the rows can not be merged.
+     */
+    private static long mergeRows(CsvDataInserter inserter, List<CsvData> chunk) throws SQLException {
+        if (chunk.isEmpty()) {
+            return 0;
+        }
+        long merged = inserter.mergeRows(chunk);
+        chunk.clear();
+        return merged;
+    }
+
+    /**
+     * Resolves the experiments of a chunk of rows in one go and then inserts the rows one by one.
+     * A row that can not be inserted fails the file, or is skipped when {@link IngestOptions#isSkipFailedRows()}.
+     * A sample that was ingested before is skipped and not counted.
+     *
+     * @param inserter    The inserter to write the rows with.
+     * @param chunk       The rows to insert, the list is cleared afterwards.
+     * @param dataType    The DataType of the rows.
+     * @param options     The options deciding what happens to a row that can not be inserted.
+     * @param transaction The transaction the rows are written in.
+     * @return The number of samples written.
+     * @throws SQLException If a row can not be inserted and failed rows are not skipped.
+     */
+    private static long insertRows(CsvDataInserter inserter, List<CsvData> chunk, DataType dataType, IngestOptions options,
+                                   RowTransaction transaction) throws SQLException {
+        if (chunk.isEmpty()) {
+            return 0;
+        }
+        inserter.resolveExperiments(chunk);
+        int inserted = 0;
+        for (CsvData csvData : chunk) {
+            try {
+                if (!inserter.insertCsvData(csvData)) {
+                    continue;
+                }
             } catch (SQLException e) {
-                LOG.error("Error processing file {}: {}", csvFile.getName(), e.getMessage());
+                if (!options.isSkipFailedRows()) {
+                    throw e;
+                }
+                IngestMetrics.get().count(dataType.name(), IngestMetrics.Counter.FAILED_ROWS, 1);
+                LOG.warn("Skipped sample: {} of file: {} of Datatype: {}", csvData.getSampleId(), csvData.getFileName(), dataType.name());
+                continue;
             }
+            transaction.rowWritten();
+            inserted++;
+            LOG.info("Successfully inserted data for sample: {} of Datatype: {}", csvData.getSampleId(), dataType.name());
         }
+        chunk.clear();
+        return inserted;
+    }
+
+    /**
+     * Logs how many samples of a DataType were written and at which rate, so ingest modes can be compared.
+     *
+     * @param dataType     The DataType that was processed.
+     * @param mode         The ingest mode that was used.
+     * @param fileCount    The number of files processed.
+     * @param sampleCount  The number of samples written.
+     * @param elapsedNanos The time spent on the DataType in nanoseconds.
+     */
+    static void logThroughput(DataType dataType, IngestMode mode, int fileCount, long sampleCount, long elapsedNanos) {
+        double seconds = elapsedNanos / 1_000_000_000.0;
+        double samplesPerSecond = seconds > 0 ? sampleCount / seconds : 0;
+        LOG.info("Processed {} samples from {} files of Datatype: {} in {} s using {} mode ({} samples/s)",
+                sampleCount, fileCount, dataType.name(), String.format("%.2f", seconds), mode, String.format("%.1f", samplesPerSecond));
     }
 
 
@@ -102,7 +396,7 @@ public class FolderReader {
             throw new IOException("The directory is empty: " + folder.getAbsolutePath());
         }
         for (File file : allFiles) {
-            if (file.isFile() && file.getName().toLowerCase().endsWith(".csv")) {
+            if (isCsvFile(file)) {
                 csvFiles.add(file);
             } else {
                 nonCsvCount++;
@@ -112,6 +406,17 @@ public class FolderReader {
         return csvFiles;
     }
 
+    /**
+     * Checks whether a file is a regular file with a CSV extension, or a CSV file compressed as
+     * {@code .csv.gz} or {@code .csv.zip}.
+     *
+     * @param file The file to check.
+     * @return True if the file is to be ingested, false otherwise.
+     */
+    static boolean isCsvFile(File file) {
+        return file.isFile() && (file.getName().toLowerCase().endsWith(".csv") || CompressedInput.isCompressed(file));
+    }
+
     /**
      * Logs a warning if non-CSV files are detected in the folder.
      *
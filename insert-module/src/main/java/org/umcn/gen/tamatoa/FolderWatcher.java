@@ -0,0 +1,330 @@
+package org.umcn.gen.tamatoa;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs ingestion as a long-running process that picks up new and modified CSV files as they land in the
+ * DataType folders. Changes are detected with a WatchService and, because file system events are not delivered
+ * for many network mounts, with a periodic poll of the folders' file metadata as well.
+ * <p>
+ * A changed file is only ingested once its size and modification time have been stable for the quiet period,
+ * so files that are still being written are not read halfway. Stable files wait in a bounded backlog for one
+ * of the ingest workers. Ingestion goes through the file manifest, so a modified file replaces its previous rows
+ * and a file that only grew has just its appended lines ingested.
+ */
+public class FolderWatcher {
+    private static final Logger LOG = LoggerFactory.getLogger(FolderWatcher.class);
+
+    private static final long DEBOUNCE_TICK_MILLIS = 1000;
+    private static final long WATCH_POLL_MILLIS = 1000;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 60;
+
+    private final IngestOptions options;
+    private final Map<DataType, FileManifest> manifests = new EnumMap<>(DataType.class);
+    // Last known size and modification time per file, used by the folder poll to detect changes
+    private final Map<Path, FileState> knownFiles = new ConcurrentHashMap<>();
+    // Changed files waiting for their quiet period to pass
+    private final Map<Path, PendingFile> pendingFiles = new ConcurrentHashMap<>();
+    // Files in the backlog or being ingested, a file is never ingested by two workers at the same time
+    private final Set<Path> claimedFiles = ConcurrentHashMap.newKeySet();
+    private final BlockingQueue<PendingFile> backlog;
+    private final IdentityCache identityCache = new IdentityCache();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private volatile boolean running = true;
+    private volatile boolean backlogFullWarned = false;
+
+    /**
+     * Initializes the FolderWatcher.
+     *
+     * @param options The options of the run, including the watch intervals, backlog size and number of workers.
+     */
+    public FolderWatcher(IngestOptions options) {
+        this.options = options;
+        this.backlog = new ArrayBlockingQueue<>(options.getBacklogSize());
+    }
+
+    /**
+     * Watches the folders of the given DataTypes until the process is shut down. Files already present are
+     * checked against the manifest on start, so files that changed while the watcher was down are caught up.
+     *
+     * @param dataTypes The DataTypes whose folders are watched.
+     * @throws IOException          If a folder or its manifest can not be read.
+     * @throws InterruptedException If the calling thread is interrupted.
+     */
+    public void run(DataType... dataTypes) throws IOException, InterruptedException {
+        for (DataType dataType : dataTypes) {
+            FolderReader.checkFolder(dataType.getFolder());
+            try {
+                manifests.put(dataType, FileManifest.load(dataType));
+            } catch (SQLException e) {
+                throw new IOException("Unable to load the manifest of Datatype: " + dataType.name(), e);
+            }
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stopAndAwait, "folder-watcher-shutdown"));
+
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "folder-watcher-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> runLogged(() -> pollFolders(dataTypes)), 0, options.getPollIntervalSeconds(), TimeUnit.SECONDS);
+        scheduler.scheduleWithFixedDelay(() -> runLogged(this::promoteStableFiles), DEBOUNCE_TICK_MILLIS, DEBOUNCE_TICK_MILLIS, TimeUnit.MILLISECONDS);
+
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < options.getWorkers(); i++) {
+            Thread worker = new Thread(this::ingestFromBacklog, "watch-worker-" + (i + 1));
+            workers.add(worker);
+            worker.start();
+        }
+
+        LOG.info("Watching {} folders with {} workers, poll interval {} s, quiet period {} s",
+                dataTypes.length, workers.size(), options.getPollIntervalSeconds(), options.getQuietPeriodSeconds());
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            Map<WatchKey, DataType> watchKeys = register(watchService, dataTypes);
+            watchForEvents(watchService, watchKeys, dataTypes);
+        } finally {
+            running = false;
+            scheduler.shutdownNow();
+            for (Thread worker : workers) {
+                worker.join(TimeUnit.SECONDS.toMillis(SHUTDOWN_TIMEOUT_SECONDS));
+            }
+            identityCache.logStatistics();
+            if (!backlog.isEmpty()) {
+                LOG.info("{} files left in the backlog, they are picked up on the next start", backlog.size());
+            }
+            stopped.countDown();
+        }
+    }
+
+    /**
+     * Asks the watcher to stop. Workers finish the file they are ingesting, the backlog is not drained.
+     */
+    public void stop() {
+        running = false;
+    }
+
+    private void stopAndAwait() {
+        LOG.info("Shutting down the folder watcher");
+        stop();
+        try {
+            if (!stopped.await(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOG.warn("Folder watcher did not stop within {} s", SHUTDOWN_TIMEOUT_SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs a scheduled task, logging its errors instead of letting them cancel all later runs of the task.
+     */
+    private static void runLogged(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            LOG.error("Error in scheduled folder watch task: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Registers the folders with the WatchService. A folder that can not be registered is still polled.
+     */
+    private Map<WatchKey, DataType> register(WatchService watchService, DataType... dataTypes) {
+        Map<WatchKey, DataType> watchKeys = new HashMap<>();
+        for (DataType dataType : dataTypes) {
+            try {
+                WatchKey key = dataType.getFolder().toPath().register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+                watchKeys.put(key, dataType);
+            } catch (IOException | UnsupportedOperationException e) {
+                LOG.warn("Folder {} can not be watched, relying on polling: {}", dataType.getFolder(), e.getMessage());
+            }
+        }
+        return watchKeys;
+    }
+
+    private void watchForEvents(WatchService watchService, Map<WatchKey, DataType> watchKeys, DataType... dataTypes)
+            throws InterruptedException {
+        while (running) {
+            WatchKey key;
+            try {
+                key = watchService.poll(WATCH_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+            if (key == null) {
+                continue;
+            }
+            DataType dataType = watchKeys.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    // Events were lost, fall back to comparing the folder with the known metadata
+                    pollFolders(dataTypes);
+                } else if (dataType != null) {
+                    Path path = dataType.getFolder().toPath().resolve((Path) event.context());
+                    noteChange(path.toFile(), dataType);
+                }
+            }
+            key.reset();
+        }
+    }
+
+    /**
+     * Compares the metadata of the files in the folders with the last known state, which catches changes
+     * the WatchService does not report. Only the directory listing and file attributes are read.
+     */
+    private void pollFolders(DataType... dataTypes) {
+        for (DataType dataType : dataTypes) {
+            File[] files = dataType.getFolder().listFiles();
+            if (files == null) {
+                LOG.warn("Error listing files in directory: {}", dataType.getFolder().getAbsolutePath());
+                continue;
+            }
+            for (File file : files) {
+                FileState known = knownFiles.get(file.toPath());
+                if (known == null || known.size() != file.length() || known.lastModified() != file.lastModified()) {
+                    noteChange(file, dataType);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records that a file has been created or modified, which (re)starts its quiet period.
+     *
+     * @param file     The file that changed.
+     * @param dataType The DataType of the folder the file is in.
+     */
+    void noteChange(File file, DataType dataType) {
+        if (!FolderReader.isCsvFile(file)) {
+            return;
+        }
+        FileState state = new FileState(file.length(), file.lastModified());
+        knownFiles.put(file.toPath(), state);
+        pendingFiles.compute(file.toPath(), (path, pending) ->
+                pending != null && pending.state().equals(state) ? pending : new PendingFile(file, dataType, state, System.nanoTime()));
+    }
+
+    /**
+     * Moves files whose size and modification time have not changed for the quiet period to the backlog.
+     * When the backlog is full the files stay pending and are offered again on the next tick.
+     */
+    private void promoteStableFiles() {
+        promoteStableFiles(System.nanoTime());
+    }
+
+    /**
+     * Moves the files that were stable for the quiet period at the given time to the backlog.
+     *
+     * @param now The time of the tick, in {@link System#nanoTime()} units.
+     */
+    void promoteStableFiles(long now) {
+        long quietNanos = TimeUnit.SECONDS.toNanos(options.getQuietPeriodSeconds());
+        Iterator<Map.Entry<Path, PendingFile>> iterator = pendingFiles.entrySet().iterator();
+        while (iterator.hasNext()) {
+            PendingFile pending = iterator.next().getValue();
+            File file = pending.file();
+            if (!file.isFile()) {
+                iterator.remove();
+                knownFiles.remove(file.toPath());
+                continue;
+            }
+            FileState current = new FileState(file.length(), file.lastModified());
+            if (!current.equals(pending.state())) {
+                noteChange(file, pending.dataType());
+                continue;
+            }
+            if (now - pending.changedAt() < quietNanos || !claimedFiles.add(file.toPath())) {
+                continue;
+            }
+            if (backlog.offer(pending)) {
+                iterator.remove();
+                backlogFullWarned = false;
+            } else {
+                claimedFiles.remove(file.toPath());
+                if (!backlogFullWarned) {
+                    LOG.warn("Backlog of {} files is full, holding back new files", options.getBacklogSize());
+                    backlogFullWarned = true;
+                }
+            }
+        }
+    }
+
+    private void ingestFromBacklog() {
+        while (running) {
+            PendingFile pending;
+            try {
+                pending = takeFromBacklog(WATCH_POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (pending == null) {
+                continue;
+            }
+            try {
+                long samples = FolderReader.processFile(pending.file(), pending.dataType(), options, manifests.get(pending.dataType()), identityCache);
+                if (samples > 0) {
+                    LOG.info("Ingested {} samples from file: {} of Datatype: {}", samples, pending.file().getName(), pending.dataType().name());
+                }
+            } catch (IOException | RuntimeException e) {
+                FolderReader.fileFailed(pending.file(), pending.dataType(), e);
+            } finally {
+                release(pending);
+            }
+        }
+    }
+
+    /**
+     * Takes the next stable file from the backlog. The file stays claimed until it is released.
+     *
+     * @param timeoutMillis How long to wait for a file when the backlog is empty.
+     * @return The next file, or null if the backlog stayed empty.
+     * @throws InterruptedException If the calling thread is interrupted while waiting.
+     */
+    PendingFile takeFromBacklog(long timeoutMillis) throws InterruptedException {
+        return backlog.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Releases the claim on a file taken from the backlog, so later changes to it can be ingested again.
+     *
+     * @param pending The file whose ingestion finished.
+     */
+    void release(PendingFile pending) {
+        claimedFiles.remove(pending.file().toPath());
+    }
+
+    record FileState(long size, long lastModified) {
+    }
+
+    record PendingFile(File file, DataType dataType, FileState state, long changedAt) {
+    }
+}
@@ -0,0 +1,202 @@
+package org.umcn.gen.tamatoa;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the NGS types, metric key identifiers and experiment identifiers written or looked up during one
+ * ingest run, so the rows of a run, which all share their NGS type, metric keys and experiment, do not each
+ * check them in the database.
+ * Entries are only added once the transaction that wrote them has committed, and experiments deleted by
+ * re-ingesting a changed file are evicted. The cache is shared by all workers of a run. A transaction of
+ * several rows collects its entries in a {@link #pending()} cache, which is published when it commits.
+ * <p>
+ * Experiments are keyed by their natural key (experiment_name, analysis_date, NGS_ngs_type), the unique
+ * constraint on that key keeps concurrent ingests from creating the same experiment twice.
+ */
+public class IdentityCache {
+    private static final Logger LOG = LoggerFactory.getLogger(IdentityCache.class);
+
+    // Upper bound on the cached experiments, a long running watch is cleared once it is reached
+    private static final int MAX_CACHED_EXPERIMENTS = 100_000;
+
+    private final Set<String> ngsTypes = ConcurrentHashMap.newKeySet();
+    private final Map<String, Short> metricKeyIds = new ConcurrentHashMap<>();
+    private final Map<ExperimentKey, Long> experimentIds = new ConcurrentHashMap<>();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong loadCount = new AtomicLong();
+    // The cache the entries are published to, null for the cache of a run
+    private final IdentityCache committed;
+
+    public IdentityCache() {
+        this(null);
+    }
+
+    private IdentityCache(IdentityCache committed) {
+        this.committed = committed;
+    }
+
+    /**
+     * Creates a cache for the entries written by a transaction that has not committed yet. Lookups fall back
+     * to this cache, new entries are only visible to the transaction until {@link #publish()} is called.
+     *
+     * @return A cache on top of this one.
+     */
+    public IdentityCache pending() {
+        return new IdentityCache(this);
+    }
+
+    /**
+     * Adds the entries of a pending cache to the cache it was created from, once its transaction has committed.
+     */
+    public void publish() {
+        if (committed == null) {
+            return;
+        }
+        committed.ngsTypes.addAll(ngsTypes);
+        committed.metricKeyIds.putAll(metricKeyIds);
+        experimentIds.forEach(committed::putExperimentId);
+        discard();
+    }
+
+    /**
+     * Drops the entries of a pending cache, once its transaction has been rolled back.
+     */
+    public void discard() {
+        if (committed == null) {
+            return;
+        }
+        committed.hitCount.addAndGet(hitCount.getAndSet(0));
+        ngsTypes.clear();
+        metricKeyIds.clear();
+        experimentIds.clear();
+    }
+
+    /**
+     * @param ngsType The NGS type.
+     * @return Whether the NGS type is known to exist in the NGS table.
+     */
+    public boolean isKnownNgsType(String ngsType) {
+        return ngsTypes.contains(ngsType) || committed != null && committed.isKnownNgsType(ngsType);
+    }
+
+    /**
+     * Records that an NGS type exists in the NGS table.
+     *
+     * @param ngsType The NGS type.
+     */
+    public void addNgsType(String ngsType) {
+        ngsTypes.add(ngsType);
+    }
+
+    /**
+     * @param metricKey The metric key.
+     * @return The identifier of the metric key in the Metric_Key table, or null if it is not cached.
+     */
+    public Short getMetricKeyId(String metricKey) {
+        Short metricKeyId = metricKeyIds.get(metricKey);
+        return metricKeyId == null && committed != null ? committed.getMetricKeyId(metricKey) : metricKeyId;
+    }
+
+    /**
+     * Records the identifier of a metric key that exists in the Metric_Key table. Metric keys are never
+     * deleted, so they stay cached for the whole run.
+     *
+     * @param metricKey   The metric key.
+     * @param metricKeyId The identifier of the metric key.
+     */
+    public void putMetricKeyId(String metricKey, short metricKeyId) {
+        metricKeyIds.put(metricKey, metricKeyId);
+    }
+
+    /**
+     * Looks up the identifier of an experiment.
+     *
+     * @param key The natural key of the experiment.
+     * @return The experiment identifier, or null if it is not cached.
+     */
+    public Long getExperimentId(ExperimentKey key) {
+        Long experimentId = experimentIds.get(key);
+        if (experimentId != null) {
+            hitCount.incrementAndGet();
+        } else if (committed != null) {
+            return committed.getExperimentId(key);
+        }
+        return experimentId;
+    }
+
+    /**
+     * Checks whether an experiment is cached, without counting it as a lookup.
+     *
+     * @param key The natural key of the experiment.
+     * @return Whether the identifier of the experiment is cached.
+     */
+    public boolean containsExperiment(ExperimentKey key) {
+        return experimentIds.containsKey(key) || committed != null && committed.containsExperiment(key);
+    }
+
+    /**
+     * Records the identifier of an experiment that exists in the Experiment table.
+     *
+     * @param key          The natural key of the experiment.
+     * @param experimentId The experiment identifier.
+     */
+    public void putExperimentId(ExperimentKey key, long experimentId) {
+        if (experimentIds.size() >= MAX_CACHED_EXPERIMENTS) {
+            experimentIds.clear();
+        }
+        experimentIds.put(key, experimentId);
+        if (committed == null) {
+            loadCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Forgets experiments that have been deleted from the Experiment table.
+     *
+     * @param deletedIds The identifiers of the deleted experiments.
+     */
+    public void evictExperiments(Collection<Long> deletedIds) {
+        if (!deletedIds.isEmpty()) {
+            Set<Long> ids = new HashSet<>(deletedIds);
+            experimentIds.values().removeIf(ids::contains);
+            if (committed != null) {
+                committed.evictExperiments(deletedIds);
+            }
+        }
+    }
+
+    /**
+     * Logs how many experiment lookups were answered from the cache and how many experiments had to be
+     * written or read in the database.
+     */
+    public void logStatistics() {
+        LOG.info("Identity cache: {} experiment lookups answered from cache, {} experiments resolved in the database",
+                hitCount.get(), loadCount.get());
+    }
+
+    /**
+     * The natural key of an experiment.
+     */
+    public record ExperimentKey(String experimentName, LocalDate analysisDate, String ngsType) {
+
+        /**
+         * @param csvData A parsed row.
+         * @return The key of the row's experiment, or null if the row lacks one of its parts.
+         */
+        public static ExperimentKey of(CsvData csvData) {
+            if (csvData.getExperimentName() == null || csvData.getAnalysisDate() == null || csvData.getNgsType() == null) {
+                return null;
+            }
+            return new ExperimentKey(csvData.getExperimentName(), csvData.getAnalysisDate(), csvData.getNgsType());
+        }
+    }
+}
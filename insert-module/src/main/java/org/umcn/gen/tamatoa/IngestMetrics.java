@@ -0,0 +1,345 @@
+package org.umcn.gen.tamatoa;
+
+import org.jooq.ExecuteContext;
+import org.jooq.ExecuteListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects counters and latency histograms of an ingest run per stage and per DataType, and exports them in the
+ * Prometheus text format, at the end of a run and periodically while watching. The collection is process-wide,
+ * like the connection pool, so the static parsing and ingest methods record into it without passing it along.
+ * <p>
+ * Latencies are recorded per file for the stages that run for every row (reading, parsing and resolving dates
+ * are summed over the rows of a file), per statement or transaction for the database stages. Recording is
+ * lock-free and cheap enough to stay enabled; when no metrics file is configured the summary is only logged.
+ */
+public final class IngestMetrics {
+    private static final Logger LOG = LoggerFactory.getLogger(IngestMetrics.class);
+
+    private static final IngestMetrics INSTANCE = new IngestMetrics();
+
+    // Upper bounds of the latency buckets in seconds, the last bucket is +Inf
+    private static final double[] BUCKET_SECONDS = {
+            0.0001, 0.0005, 0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5, 10, 30, 60};
+
+    /**
+     * The stages of an ingest whose latency is recorded.
+     */
+    public enum Stage {
+        /** Reading the lines of a file, per file. */
+        READ,
+        /** Parsing the lines of a file into rows, including the dates, per file. */
+        PARSE,
+        /** Resolving the analysis dates of a file, per file. */
+        DATE,
+        /** Waiting for a pooled database connection, per file. */
+        CONNECTION_WAIT,
+        /** Looking up or creating the experiments of a chunk of rows, per lookup. */
+        EXPERIMENT,
+        /** Looking up or creating new metric keys, per lookup that reaches the database. */
+        METRIC_KEYS,
+        /** Inserting one row with its metrics, in its own transaction or under a savepoint, per row. */
+        INSERT,
+        /** Committing a transaction of several rows, per commit. */
+        COMMIT,
+        /** Streaming the rows of a file into the staging table, including waiting for parsed rows, per file. */
+        COPY,
+        /** Merging the staged rows of a file into the tables in copy mode, per file, or a chunk of rows in merge mode. */
+        MERGE,
+        /** Ingesting a file from opening it to the last write, per file. */
+        FILE;
+
+        String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * The counters of an ingest.
+     */
+    public enum Counter {
+        FILES("files", "Files ingested."),
+        FAILED_FILES("failed_files", "Files whose rows could not be written."),
+        ROWS("rows", "Rows written."),
+        FAILED_ROWS("failed_rows", "Rows that could not be written and were skipped."),
+        EXISTING_ROWS("existing_rows", "Rows of samples that were ingested before and were skipped."),
+        METRICS("metrics", "Metric values written.");
+
+        private final String label;
+        private final String help;
+
+        Counter(String label, String help) {
+            this.label = label;
+            this.help = help;
+        }
+    }
+
+    private final long startNanos = System.nanoTime();
+    private final Map<String, LongAdder[]> counters = new ConcurrentHashMap<>();
+    private final Map<HistogramKey, Histogram> histograms = new ConcurrentHashMap<>();
+    private final LongAdder roundTrips = new LongAdder();
+    private ScheduledExecutorService exporter;
+
+    IngestMetrics() {
+    }
+
+    /**
+     * @return The metrics of this process.
+     */
+    public static IngestMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Adds to a counter.
+     *
+     * @param dataType The name of the DataType, the NGS type of the rows.
+     * @param counter  The counter.
+     * @param amount   The amount to add.
+     */
+    public void count(String dataType, Counter counter, long amount) {
+        counters.computeIfAbsent(labelOf(dataType), d -> newCounters())[counter.ordinal()].add(amount);
+    }
+
+    /**
+     * Records the latency of a stage.
+     *
+     * @param dataType     The name of the DataType, the NGS type of the rows.
+     * @param stage        The stage.
+     * @param elapsedNanos The time the stage took in nanoseconds.
+     */
+    public void record(String dataType, Stage stage, long elapsedNanos) {
+        histograms.computeIfAbsent(new HistogramKey(labelOf(dataType), stage), k -> new Histogram()).record(elapsedNanos);
+    }
+
+    /**
+     * Counts a statement sent to the database.
+     */
+    public void roundTrip() {
+        roundTrips.increment();
+    }
+
+    /**
+     * @param dataType The name of the DataType.
+     * @param counter  The counter.
+     * @return The current value of the counter.
+     */
+    public long getCount(String dataType, Counter counter) {
+        LongAdder[] values = counters.get(labelOf(dataType));
+        return values != null ? values[counter.ordinal()].sum() : 0;
+    }
+
+    /**
+     * @return The number of statements sent to the database.
+     */
+    public long getRoundTrips() {
+        return roundTrips.sum();
+    }
+
+    /**
+     * Writes the metrics to a file every interval until {@link #stopExport} is called, for runs that do not end
+     * by themselves.
+     *
+     * @param file            The file to write the metrics to.
+     * @param intervalSeconds The number of seconds between writes.
+     */
+    public synchronized void startExport(Path file, int intervalSeconds) {
+        if (exporter != null) {
+            return;
+        }
+        exporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-exporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        exporter.scheduleAtFixedRate(() -> writeQuietly(file), intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the periodic export.
+     */
+    public synchronized void stopExport() {
+        if (exporter != null) {
+            exporter.shutdownNow();
+            exporter = null;
+        }
+    }
+
+    /**
+     * Writes the metrics to a file in the Prometheus text format. The file is replaced in one step, so a reader
+     * never sees a partly written file.
+     *
+     * @param file The file to write the metrics to.
+     * @throws IOException If the file can not be written.
+     */
+    public void writeTo(Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                writer.write(toPrometheusText());
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private void writeQuietly(Path file) {
+        try {
+            writeTo(file);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Unable to write the ingest metrics to {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * @return The metrics in the Prometheus text exposition format.
+     */
+    public String toPrometheusText() {
+        double uptimeSeconds = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+        Map<String, LongAdder[]> sortedCounters = new TreeMap<>(counters);
+        StringBuilder text = new StringBuilder();
+
+        for (Counter counter : Counter.values()) {
+            String name = "tamatoa_ingest_" + counter.label + "_total";
+            header(text, name, counter.help, "counter");
+            sortedCounters.forEach((dataType, values) ->
+                    sample(text, name, "data_type=\"" + dataType + "\"", values[counter.ordinal()].sum()));
+        }
+        for (Counter counter : new Counter[]{Counter.ROWS, Counter.METRICS}) {
+            String name = "tamatoa_ingest_" + counter.label + "_per_second";
+            header(text, name, "Average " + counter.label + " written per second since the start of the run.", "gauge");
+            sortedCounters.forEach((dataType, values) ->
+                    sample(text, name, "data_type=\"" + dataType + "\"", uptimeSeconds > 0 ? values[counter.ordinal()].sum() / uptimeSeconds : 0));
+        }
+
+        header(text, "tamatoa_db_round_trips_total", "Statements sent to the database.", "counter");
+        sample(text, "tamatoa_db_round_trips_total", null, roundTrips.sum());
+        header(text, "tamatoa_ingest_uptime_seconds", "Seconds since the start of the run.", "gauge");
+        sample(text, "tamatoa_ingest_uptime_seconds", null, uptimeSeconds);
+
+        String name = "tamatoa_ingest_stage_seconds";
+        header(text, name, "Latency of the stages of an ingest.", "histogram");
+        Map<HistogramKey, Histogram> sortedHistograms = new TreeMap<>(histograms);
+        sortedHistograms.forEach((key, histogram) -> {
+            String labels = "data_type=\"" + key.dataType() + "\",stage=\"" + key.stage().label() + "\"";
+            long cumulative = 0;
+            for (int i = 0; i <= BUCKET_SECONDS.length; i++) {
+                cumulative += histogram.buckets.get(i);
+                String bound = i < BUCKET_SECONDS.length ? formatNumber(BUCKET_SECONDS[i]) : "+Inf";
+                sample(text, name + "_bucket", labels + ",le=\"" + bound + "\"", cumulative);
+            }
+            sample(text, name + "_sum", labels, histogram.sumNanos.sum() / 1_000_000_000.0);
+            sample(text, name + "_count", labels, histogram.count.sum());
+        });
+        return text.toString();
+    }
+
+    /**
+     * Logs the counters and the time spent per stage of every DataType.
+     */
+    public void logSummary() {
+        double uptimeSeconds = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+        new TreeMap<>(counters).forEach((dataType, values) -> {
+            long rows = values[Counter.ROWS.ordinal()].sum();
+            long metrics = values[Counter.METRICS.ordinal()].sum();
+            LOG.info("Datatype {}: {} files ({} failed), {} rows ({} skipped, {} ingested before), {} metrics ({} rows/s, {} metrics/s)",
+                    dataType, values[Counter.FILES.ordinal()].sum(), values[Counter.FAILED_FILES.ordinal()].sum(), rows,
+                    values[Counter.FAILED_ROWS.ordinal()].sum(), values[Counter.EXISTING_ROWS.ordinal()].sum(), metrics,
+                    String.format(Locale.ROOT, "%.1f", uptimeSeconds > 0 ? rows / uptimeSeconds : 0),
+                    String.format(Locale.ROOT, "%.1f", uptimeSeconds > 0 ? metrics / uptimeSeconds : 0));
+        });
+        new TreeMap<>(histograms).forEach((key, histogram) -> LOG.info("Datatype {} stage {}: {} times, {} s in total",
+                key.dataType(), key.stage().label(), histogram.count.sum(),
+                String.format(Locale.ROOT, "%.3f", histogram.sumNanos.sum() / 1_000_000_000.0)));
+        LOG.info("{} database round trips", roundTrips.sum());
+    }
+
+    private static String labelOf(String dataType) {
+        return dataType != null ? dataType : "unknown";
+    }
+
+    private static void header(StringBuilder text, String name, String help, String type) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder text, String name, String labels, double value) {
+        text.append(name);
+        if (labels != null) {
+            text.append('{').append(labels).append('}');
+        }
+        text.append(' ').append(formatNumber(value)).append('\n');
+    }
+
+    private static String formatNumber(double value) {
+        return value == Math.rint(value) && Math.abs(value) < 1e15 ? Long.toString((long) value) : BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+    }
+
+    private static LongAdder[] newCounters() {
+        LongAdder[] values = new LongAdder[Counter.values().length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new LongAdder();
+        }
+        return values;
+    }
+
+    /**
+     * Counts every statement executed through a DSLContext as a database round trip.
+     */
+    static final class RoundTripListener implements ExecuteListener {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void executeEnd(ExecuteContext ctx) {
+            INSTANCE.roundTrip();
+        }
+    }
+
+    private record HistogramKey(String dataType, Stage stage) implements Comparable<HistogramKey> {
+        @Override
+        public int compareTo(HistogramKey other) {
+            int byDataType = dataType.compareTo(other.dataType);
+            return byDataType != 0 ? byDataType : stage.compareTo(other.stage);
+        }
+    }
+
+    /**
+     * A latency histogram with fixed buckets, the count per bucket is not cumulative.
+     */
+    private static final class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_SECONDS.length + 1);
+        private final LongAdder sumNanos = new LongAdder();
+        private final LongAdder count = new LongAdder();
+
+        void record(long elapsedNanos) {
+            double seconds = elapsedNanos / 1_000_000_000.0;
+            int bucket = 0;
+            while (bucket < BUCKET_SECONDS.length && seconds > BUCKET_SECONDS[bucket]) {
+                bucket++;
+            }
+            buckets.incrementAndGet(bucket);
+            sumNanos.add(elapsedNanos);
+            count.increment();
+        }
+    }
+}
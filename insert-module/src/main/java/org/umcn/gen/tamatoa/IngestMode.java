@@ -0,0 +1,13 @@
+package org.umcn.gen.tamatoa;
+
+/**
+ * The strategies available for writing parsed CSV data to the database.
+ */
+public enum IngestMode {
+    // One transaction per sample through CsvDataInserter
+    ROW,
+    // COPY ... FROM STDIN into the staging table and a set-based merge through CsvDataBulkLoader
+    COPY,
+    // Set-based upserts of the rows of a file on their natural keys through CsvDataInserter, safe to repeat
+    MERGE
+}
@@ -0,0 +1,275 @@
+package org.umcn.gen.tamatoa;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+/**
+ * Holds the options of an ingest run, parsed from the command line arguments of {@link FolderReader#main}.
+ * Arguments have the form {@code --name=value}, every option has a default so no argument is required.
+ */
+public class IngestOptions {
+
+    private IngestMode mode = IngestMode.ROW;
+    private int batchSize = CsvDataInserter.DEFAULT_BATCH_SIZE;
+    private int commitRows = 1;
+    private boolean skipFailedRows = false;
+    private int workers = 1;
+    private boolean virtualThreads = false;
+    private int poolSize = 0;
+    private boolean incremental = false;
+    private boolean watch = false;
+    private int pollIntervalSeconds = 60;
+    private int quietPeriodSeconds = 15;
+    private int backlogSize = 1000;
+    private int parseAhead = 1024;
+    private int parseThreads = 1;
+    private Path metricsFile = null;
+    private int metricsIntervalSeconds = 60;
+
+    /**
+     * Parses the command line arguments into an IngestOptions object.
+     *
+     * @param args The command line arguments.
+     * @return The parsed options.
+     * @throws IllegalArgumentException If an argument is unknown or has an invalid value.
+     */
+    public static IngestOptions parse(String[] args) {
+        IngestOptions options = new IngestOptions();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Expected an argument of the form --name=value, got: " + arg);
+            }
+            String name = arg.substring(2, separator);
+            String value = arg.substring(separator + 1);
+
+            switch (name) {
+                case "mode":
+                    options.mode = IngestMode.valueOf(value.toUpperCase(Locale.ROOT));
+                    break;
+                case "batch-size":
+                    options.batchSize = parseBatchSize(name, value);
+                    break;
+                case "commit":
+                    options.commitRows = parseCommit(value);
+                    break;
+                case "on-row-error":
+                    options.skipFailedRows = parseRowErrorAction(value);
+                    break;
+                case "workers":
+                    options.workers = parsePositiveInt(name, value);
+                    break;
+                case "threads":
+                    options.virtualThreads = parseThreadKind(value);
+                    break;
+                case "pool-size":
+                    options.poolSize = parsePositiveInt(name, value);
+                    break;
+                case "incremental":
+                    options.incremental = parseBoolean(name, value);
+                    break;
+                case "watch":
+                    options.watch = parseBoolean(name, value);
+                    break;
+                case "poll-interval":
+                    options.pollIntervalSeconds = parsePositiveInt(name, value);
+                    break;
+                case "quiet-period":
+                    options.quietPeriodSeconds = parsePositiveInt(name, value);
+                    break;
+                case "backlog":
+                    options.backlogSize = parsePositiveInt(name, value);
+                    break;
+                case "parse-ahead":
+                    options.parseAhead = parseNonNegativeInt(name, value);
+                    break;
+                case "parse-threads":
+                    options.parseThreads = parseNonNegativeInt(name, value);
+                    break;
+                case "metrics-file":
+                    options.metricsFile = Paths.get(value);
+                    break;
+                case "metrics-interval":
+                    options.metricsIntervalSeconds = parsePositiveInt(name, value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+        return options;
+    }
+
+    private static int parsePositiveInt(String name, String value) {
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed > 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Argument --" + name + " expects a positive number, got: " + value);
+    }
+
+    private static int parseBatchSize(String name, String value) {
+        int batchSize = parsePositiveInt(name, value);
+        if (batchSize > CsvDataInserter.MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("Argument --" + name + " expects at most " + CsvDataInserter.MAX_BATCH_SIZE
+                    + ", as every metric row binds 4 of the 65535 parameters of a statement, got: " + value);
+        }
+        return batchSize;
+    }
+
+    private static int parseNonNegativeInt(String name, String value) {
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed >= 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Argument --" + name + " expects zero or a positive number, got: " + value);
+    }
+
+    private static boolean parseBoolean(String name, String value) {
+        if ("true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value)) {
+            return Boolean.parseBoolean(value);
+        }
+        throw new IllegalArgumentException("Argument --" + name + " expects true or false, got: " + value);
+    }
+
+    private static int parseCommit(String value) {
+        switch (value.toLowerCase(Locale.ROOT)) {
+            case "row":
+                return 1;
+            case "file":
+                return 0;
+            default:
+                try {
+                    int parsed = Integer.parseInt(value);
+                    if (parsed > 0) {
+                        return parsed;
+                    }
+                } catch (NumberFormatException e) {
+                    // Reported below
+                }
+                throw new IllegalArgumentException("Argument --commit expects row, file or a positive number of rows, got: " + value);
+        }
+    }
+
+    private static boolean parseRowErrorAction(String value) {
+        switch (value.toLowerCase(Locale.ROOT)) {
+            case "fail":
+                return false;
+            case "skip":
+                return true;
+            default:
+                throw new IllegalArgumentException("Argument --on-row-error expects fail or skip, got: " + value);
+        }
+    }
+
+    private static boolean parseThreadKind(String value) {
+        switch (value.toLowerCase(Locale.ROOT)) {
+            case "platform":
+                return false;
+            case "virtual":
+                return true;
+            default:
+                throw new IllegalArgumentException("Argument --threads expects platform or virtual, got: " + value);
+        }
+    }
+
+    public IngestMode getMode() {
+        return mode;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return The number of rows committed together in row mode, 1 to commit every row on its own
+     * and 0 to commit all rows of a file at once.
+     */
+    public int getCommitRows() {
+        return commitRows;
+    }
+
+    /**
+     * @return Whether a row that can not be written is rolled back and skipped, instead of failing its file.
+     */
+    public boolean isSkipFailedRows() {
+        return skipFailedRows;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public boolean useVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * @return The maximum number of pooled database connections, by default one per worker
+     * but never fewer than {@link PostgresConnector#DEFAULT_POOL_SIZE}.
+     */
+    public int getPoolSize() {
+        return poolSize > 0 ? poolSize : Math.max(workers, PostgresConnector.DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * @return Whether unchanged files are skipped using the manifest, always the case in watch mode.
+     */
+    public boolean isIncremental() {
+        return incremental || watch;
+    }
+
+    public boolean isWatch() {
+        return watch;
+    }
+
+    public int getPollIntervalSeconds() {
+        return pollIntervalSeconds;
+    }
+
+    public int getQuietPeriodSeconds() {
+        return quietPeriodSeconds;
+    }
+
+    public int getBacklogSize() {
+        return backlogSize;
+    }
+
+    /**
+     * @return The number of rows parsed ahead of the database writes on a separate thread,
+     * 0 to parse each row on the writing thread when it is needed.
+     */
+    public int getParseAhead() {
+        return parseAhead;
+    }
+
+    /**
+     * @return The number of threads parsing one large file in memory-mapped chunks, 1 to parse every file
+     * line by line. Configured as 0, the number of available processors.
+     */
+    public int getParseThreads() {
+        return parseThreads > 0 ? parseThreads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * @return The file the ingest metrics are written to in the Prometheus text format, or null to only log them.
+     */
+    public Path getMetricsFile() {
+        return metricsFile;
+    }
+
+    /**
+     * @return The number of seconds between writes of the metrics file in watch mode.
+     */
+    public int getMetricsIntervalSeconds() {
+        return metricsIntervalSeconds;
+    }
+}
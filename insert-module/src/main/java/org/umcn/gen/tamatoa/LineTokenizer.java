@@ -0,0 +1,189 @@
+package org.umcn.gen.tamatoa;
+
+import java.util.Arrays;
+
+/**
+ * Splits a CSV data line into its fields in a single pass over the characters, without regular expressions.
+ * <p>
+ * A field may be enclosed in double quotes, in which case delimiters inside it are part of the value and a
+ * doubled quote stands for one quote character. Quotes elsewhere in a field are dropped. Every field is trimmed
+ * and a trailing ".0" is removed, so "12.0" is read as "12". A quoted field can not span several lines.
+ * <p>
+ * The characters of all fields are copied into one buffer that is reused for the next line, Strings are only
+ * created for the fields that are asked for. An instance is not thread-safe, use one per file being read.
+ */
+final class LineTokenizer {
+    private static final int INITIAL_FIELDS = 64;
+
+    private final char delimiter;
+    private char[] buffer = new char[1024];
+    private int[] starts = new int[INITIAL_FIELDS];
+    private int[] ends = new int[INITIAL_FIELDS];
+    private boolean[] innerSpaces = new boolean[INITIAL_FIELDS];
+    private int fieldCount;
+
+    /**
+     * Initializes a LineTokenizer for the delimiter of a DataType.
+     *
+     * @param dataType The DataType whose delimiter separates the fields.
+     * @throws IllegalArgumentException If the delimiter of the DataType is not a single character.
+     */
+    LineTokenizer(DataType dataType) {
+        this(delimiterOf(dataType));
+    }
+
+    /**
+     * Initializes a LineTokenizer.
+     *
+     * @param delimiter The character separating the fields.
+     */
+    LineTokenizer(char delimiter) {
+        this.delimiter = delimiter;
+    }
+
+    private static char delimiterOf(DataType dataType) {
+        String delimiter = dataType.getDelimiter();
+        if (delimiter.length() != 1) {
+            throw new IllegalArgumentException("Expected a single character delimiter for Datatype: " + dataType.name());
+        }
+        return delimiter.charAt(0);
+    }
+
+    /**
+     * Splits a line into fields, replacing the fields of the previous line.
+     *
+     * @param line The raw data line, without line terminator.
+     * @return The number of fields in the line.
+     */
+    int tokenize(String line) {
+        int length = line.length();
+        if (buffer.length < length) {
+            buffer = new char[Math.max(length, buffer.length * 2)];
+        }
+        fieldCount = 0;
+        int position = 0;
+        int index = 0;
+
+        while (true) {
+            int fieldStart = position;
+            int spaces = 0;
+            boolean inQuotes = false;
+            for (; index < length; index++) {
+                char c = line.charAt(index);
+                if (c == '"') {
+                    if (inQuotes && index + 1 < length && line.charAt(index + 1) == '"') {
+                        buffer[position++] = '"';
+                        index++;
+                    } else {
+                        inQuotes = !inQuotes;
+                    }
+                } else if (c == delimiter && !inQuotes) {
+                    break;
+                } else {
+                    if (c == ' ') {
+                        spaces++;
+                    }
+                    buffer[position++] = c;
+                }
+            }
+
+            int start = fieldStart;
+            int end = position;
+            while (start < end && buffer[start] <= ' ') {
+                if (buffer[start++] == ' ') {
+                    spaces--;
+                }
+            }
+            while (end > start && buffer[end - 1] <= ' ') {
+                if (buffer[--end] == ' ') {
+                    spaces--;
+                }
+            }
+            if (end - start >= 2 && buffer[end - 1] == '0' && buffer[end - 2] == '.') {
+                end -= 2;
+            }
+            addField(start, end, spaces > 0);
+
+            if (index >= length) {
+                return fieldCount;
+            }
+            index++; // Skip the delimiter
+        }
+    }
+
+    private void addField(int start, int end, boolean innerSpace) {
+        if (fieldCount == starts.length) {
+            int capacity = starts.length * 2;
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            innerSpaces = Arrays.copyOf(innerSpaces, capacity);
+        }
+        starts[fieldCount] = start;
+        ends[fieldCount] = end;
+        innerSpaces[fieldCount] = innerSpace;
+        fieldCount++;
+    }
+
+    /**
+     * @return The number of fields of the last tokenized line.
+     */
+    int fieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * @param index The index of the field.
+     * @return Whether the field is empty after trimming.
+     */
+    boolean isEmpty(int index) {
+        return starts[index] == ends[index];
+    }
+
+    /**
+     * Compares a field with a value, ignoring case, without creating a String for the field.
+     *
+     * @param index The index of the field.
+     * @param value The value to compare with.
+     * @return Whether the field equals the value.
+     */
+    boolean fieldEqualsIgnoreCase(int index, String value) {
+        int start = starts[index];
+        int length = ends[index] - start;
+        if (length != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char a = buffer[start + i];
+            char b = value.charAt(i);
+            if (a != b && Character.toUpperCase(a) != Character.toUpperCase(b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param index The index of the field.
+     * @return The trimmed value of the field.
+     */
+    String field(int index) {
+        return new String(buffer, starts[index], ends[index] - starts[index]);
+    }
+
+    /**
+     * @param index The index of the field.
+     * @return The value of the field with all spaces removed, as stored for quality metrics.
+     */
+    String compactField(int index) {
+        if (!innerSpaces[index]) {
+            return field(index);
+        }
+        StringBuilder compact = new StringBuilder(ends[index] - starts[index]);
+        for (int i = starts[index]; i < ends[index]; i++) {
+            if (buffer[i] != ' ') {
+                compact.append(buffer[i]);
+            }
+        }
+        return compact.toString();
+    }
+}
@@ -0,0 +1,226 @@
+package org.umcn.gen.tamatoa;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Parses the data lines of a large file in parallel. The byte range of the data lines is split into chunks that
+ * end at a line break, every chunk is memory-mapped and parsed on a fork-join pool, and the parsed chunks are
+ * handed out in file order. At most two chunks per thread are parsed ahead of the chunk being handed out, so
+ * memory use does not depend on the file size.
+ * <p>
+ * All chunks share the column plan of the file's header, each chunk is parsed with a {@link ParseState} of its
+ * own, as the tokenizer and column types of a parse state are not thread-safe. Lines are split and decoded like
+ * {@link CsvRowReader} reads smaller files with {@link java.io.BufferedReader#readLine()}: a line ends at a line
+ * feed, a carriage return or both, and malformed UTF-8 fails the file instead of being replaced.
+ * An instance is not thread-safe, it is used by the one thread reading the file.
+ */
+final class MappedChunkParser implements Closeable {
+    // Bytes of data lines per chunk, a chunk is extended to the end of the line it ends in
+    static final int DEFAULT_CHUNK_BYTES = 8 << 20;
+
+    // Bytes read at a time while looking for the line break that ends a chunk
+    private static final int SCAN_BYTES = 8192;
+
+    private final FileChannel channel;
+    private final String fileName;
+    private final DataType dataType;
+    private final ColumnPlan plan;
+    private final long end;
+    private final int chunkBytes;
+    private final ForkJoinPool pool;
+    private final int maxPending;
+    private final Deque<ForkJoinTask<Chunk>> pending = new ArrayDeque<>();
+    private long nextStart;
+    private long lineCount = 0;
+    private long parseNanos = 0;
+    private long dateNanos = 0;
+
+    /**
+     * The parsed rows of one chunk.
+     *
+     * @param rows       The rows in file order, one for every line.
+     * @param parseNanos The time spent mapping, decoding and parsing the chunk.
+     * @param dateNanos  The part of the parse time spent resolving dates.
+     */
+    record Chunk(List<CsvData> rows, long parseNanos, long dateNanos) {
+    }
+
+    /**
+     * Starts parsing the data lines between two offsets.
+     *
+     * @param channel     The open channel of the file, closed when this parser is closed.
+     * @param fileName    The name of the file.
+     * @param dataType    The DataType of the file.
+     * @param plan        The column plan of the file's header.
+     * @param start       The offset of the first data line.
+     * @param end         The offset at which parsing stops.
+     * @param parallelism The number of threads parsing chunks.
+     * @param chunkBytes  The number of bytes per chunk.
+     */
+    MappedChunkParser(FileChannel channel, String fileName, DataType dataType, ColumnPlan plan, long start, long end,
+                      int parallelism, int chunkBytes) {
+        this.channel = channel;
+        this.fileName = fileName;
+        this.dataType = dataType;
+        this.plan = plan;
+        this.end = end;
+        this.chunkBytes = chunkBytes;
+        this.pool = new ForkJoinPool(parallelism);
+        this.maxPending = parallelism * 2;
+        this.nextStart = start;
+        fill();
+    }
+
+    /**
+     * @return True if there are chunks left to hand out.
+     */
+    boolean hasNext() {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * Waits for the next chunk in file order to be parsed and starts parsing a further chunk.
+     *
+     * @return The parsed chunk.
+     * @throws UncheckedIOException If the chunk can not be read.
+     */
+    Chunk next() {
+        Chunk chunk = pending.removeFirst().join();
+        lineCount += chunk.rows().size();
+        parseNanos += chunk.parseNanos();
+        dateNanos += chunk.dateNanos();
+        fill();
+        return chunk;
+    }
+
+    /**
+     * @return The number of data lines handed out so far.
+     */
+    long getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * @return The time spent parsing the chunks handed out so far, summed over the threads.
+     */
+    long getParseNanos() {
+        return parseNanos;
+    }
+
+    /**
+     * @return The part of the parse time spent resolving dates.
+     */
+    long getDateNanos() {
+        return dateNanos;
+    }
+
+    /**
+     * Stops the chunks that are still being parsed and closes the file.
+     *
+     * @throws IOException If the file can not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        pool.shutdownNow();
+        channel.close();
+    }
+
+    /**
+     * Starts parsing chunks until the maximum number of chunks is pending or the data lines are exhausted.
+     */
+    private void fill() {
+        while (pending.size() < maxPending && nextStart < end) {
+            long chunkStart = nextStart;
+            long chunkEnd;
+            try {
+                chunkEnd = chunkStart + chunkBytes >= end ? end : lineStart(channel, chunkStart + chunkBytes - 1, end);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Error reading file: " + fileName, e);
+            }
+            nextStart = chunkEnd;
+            pending.addLast(pool.submit(() -> parse(chunkStart, chunkEnd)));
+        }
+    }
+
+    /**
+     * Maps a chunk and parses its lines.
+     */
+    private Chunk parse(long start, long end) {
+        long startTime = System.nanoTime();
+        ParseState state = new ParseState(fileName, dataType, plan);
+        List<CsvData> rows = new ArrayList<>();
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            int limit = buffer.limit();
+            int lineStart = 0;
+            while (lineStart < limit) {
+                int lineEnd = lineStart;
+                while (lineEnd < limit && buffer.get(lineEnd) != '\n' && buffer.get(lineEnd) != '\r') {
+                    lineEnd++;
+                }
+                String line = decoder.decode(buffer.slice(lineStart, lineEnd - lineStart)).toString();
+                rows.add(CsvParser.parseRow(line, state));
+                lineStart = lineEnd + 1;
+                if (lineEnd < limit && buffer.get(lineEnd) == '\r' && lineStart < limit && buffer.get(lineStart) == '\n') {
+                    lineStart++;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reading file: " + fileName, e);
+        }
+        return new Chunk(rows, System.nanoTime() - startTime, state.getDateNanos());
+    }
+
+    /**
+     * Finds the start of the line following a position. A line ends at a line feed, a carriage return or a
+     * carriage return followed by a line feed, as with {@link java.io.BufferedReader#readLine()}.
+     *
+     * @param channel  The channel of the file.
+     * @param position The position to look for a line break from.
+     * @param end      The offset at which to stop looking.
+     * @return The offset after the first line break at or after position, or end if there is none before it.
+     * @throws IOException If the file can not be read.
+     */
+    static long lineStart(FileChannel channel, long position, long end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BYTES);
+        boolean carriageReturn = false;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(SCAN_BYTES, end - position));
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                byte b = buffer.get(i);
+                if (carriageReturn) {
+                    // A carriage return ends the line, together with a line feed that follows it
+                    return b == '\n' ? position + i + 1 : position + i;
+                }
+                if (b == '\n') {
+                    return position + i + 1;
+                }
+                carriageReturn = b == '\r';
+            }
+            position += read;
+        }
+        return end;
+    }
+}
@@ -0,0 +1,276 @@
+package org.umcn.gen.tamatoa;
+
+import org.jooq.DSLContext;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Maintains the Monthly_Count and Monthly_Metric_Summary rollup tables, which the dashboard reads instead of
+ * aggregating Experiment, Sample and the metric tables on every refresh.
+ * <p>
+ * Additions are applied as increments in the transaction that writes the rows. The row mode collects the
+ * increments of its rows in {@link Increments} and writes them once per transaction, sorted by key, so concurrent
+ * workers update the few rollup rows of a month in the same order and hold their locks only until the commit.
+ * Removals cannot be applied that way, as the minimum and maximum of a month cannot be decremented, so the months
+ * touched by a removal are aggregated again from the base tables, one transaction per month at a time.
+ */
+final class MonthlyRollup {
+
+    // Truncates an analysis date to the first day of its month
+    static final String MONTH_OF = "date_trunc('month', %s)::date";
+
+    // Conflict clauses adding a batch of new rows to the existing rollup rows
+    static final String ADD_TO_COUNTS =
+            "ON CONFLICT (NGS_ngs_type, analysis_month) DO UPDATE SET "
+                    + "experiment_count = Monthly_Count.experiment_count + EXCLUDED.experiment_count, "
+                    + "sample_count = Monthly_Count.sample_count + EXCLUDED.sample_count";
+    static final String ADD_TO_METRIC_SUMMARY =
+            "ON CONFLICT (Metric_Key_metric_key_identifier, NGS_ngs_type, analysis_month) DO UPDATE SET "
+                    + "value_count = Monthly_Metric_Summary.value_count + EXCLUDED.value_count, "
+                    + "value_sum = Monthly_Metric_Summary.value_sum + EXCLUDED.value_sum, "
+                    + "value_sum_of_squares = Monthly_Metric_Summary.value_sum_of_squares + EXCLUDED.value_sum_of_squares, "
+                    + "value_min = LEAST(Monthly_Metric_Summary.value_min, EXCLUDED.value_min), "
+                    + "value_max = GREATEST(Monthly_Metric_Summary.value_max, EXCLUDED.value_max)";
+
+    // Adds the increments of a transaction, the rows in the order of their key
+    private static final String ADD_COUNTS =
+            "INSERT INTO Monthly_Count (NGS_ngs_type, analysis_month, experiment_count, sample_count) "
+                    + "SELECT ngs_type, analysis_month, experiment_count, sample_count "
+                    + "FROM unnest(?::varchar[], ?::date[], ?::bigint[], ?::bigint[]) WITH ORDINALITY "
+                    + "AS t(ngs_type, analysis_month, experiment_count, sample_count, position) "
+                    + "ORDER BY position "
+                    + ADD_TO_COUNTS;
+
+    private static final String ADD_METRICS =
+            "INSERT INTO Monthly_Metric_Summary (Metric_Key_metric_key_identifier, NGS_ngs_type, analysis_month, "
+                    + "value_count, value_sum, value_sum_of_squares, value_min, value_max) "
+                    + "SELECT key_identifier, ngs_type, analysis_month, value_count, value_sum, value_sum_of_squares, value_min, value_max "
+                    + "FROM unnest(?::smallint[], ?::varchar[], ?::date[], ?::bigint[], ?::float8[], ?::float8[], ?::float8[], ?::float8[]) "
+                    + "WITH ORDINALITY AS t(key_identifier, ngs_type, analysis_month, value_count, value_sum, "
+                    + "value_sum_of_squares, value_min, value_max, position) "
+                    + "ORDER BY position "
+                    + ADD_TO_METRIC_SUMMARY;
+
+    // Serializes the aggregation of a month of an NGS type, the months locked in order
+    private static final String LOCK_MONTHS =
+            "SELECT pg_advisory_xact_lock(hashtext(?), m.analysis_month - DATE '1970-01-01') "
+                    + "FROM (SELECT DISTINCT unnest(?::date[]) AS analysis_month ORDER BY 1) m";
+
+    private static final String DELETE_COUNTS =
+            "DELETE FROM Monthly_Count WHERE NGS_ngs_type = ? AND analysis_month = ANY(?::date[])";
+
+    private static final String AGGREGATE_COUNTS =
+            "INSERT INTO Monthly_Count (NGS_ngs_type, analysis_month, experiment_count, sample_count) "
+                    + "SELECT e.NGS_ngs_type, " + String.format(MONTH_OF, "e.analysis_date") + ", "
+                    + "count(DISTINCT e.experiment_identifier), count(s.sample_identifier) "
+                    + "FROM Experiment e LEFT JOIN Sample s ON s.Experiment_experiment_identifier = e.experiment_identifier "
+                    + "WHERE e.NGS_ngs_type = ? AND " + String.format(MONTH_OF, "e.analysis_date") + " = ANY(?::date[]) "
+                    + "GROUP BY 1, 2 "
+                    + "ON CONFLICT (NGS_ngs_type, analysis_month) DO UPDATE SET "
+                    + "experiment_count = EXCLUDED.experiment_count, sample_count = EXCLUDED.sample_count";
+
+    private static final String DELETE_METRIC_SUMMARY =
+            "DELETE FROM Monthly_Metric_Summary WHERE NGS_ngs_type = ? AND analysis_month = ANY(?::date[])";
+
+    private static final String AGGREGATE_METRIC_SUMMARY =
+            "INSERT INTO Monthly_Metric_Summary (Metric_Key_metric_key_identifier, NGS_ngs_type, analysis_month, "
+                    + "value_count, value_sum, value_sum_of_squares, value_min, value_max) "
+                    + "SELECT m.key_identifier, e.NGS_ngs_type, " + String.format(MONTH_OF, "e.analysis_date") + ", "
+                    + "count(*), sum(m.value), sum(m.value * m.value), min(m.value), max(m.value) "
+                    + "FROM Experiment e JOIN ("
+                    + "SELECT s.Experiment_experiment_identifier AS experiment_identifier, "
+                    + "q.Metric_Key_metric_key_identifier AS key_identifier, q.quality_metric_value AS value "
+                    + "FROM Sample s JOIN Quality_Metrics q ON q.Sample_sample_identifier = s.sample_identifier "
+                    + "UNION ALL "
+                    + "SELECT r.Experiment_experiment_identifier, r.Metric_Key_metric_key_identifier, r.run_quality_metric_value "
+                    + "FROM Run_Quality_Metrics r"
+                    + ") m ON m.experiment_identifier = e.experiment_identifier "
+                    + "WHERE e.NGS_ngs_type = ? AND " + String.format(MONTH_OF, "e.analysis_date") + " = ANY(?::date[]) "
+                    + "AND m.value IS NOT NULL "
+                    + "GROUP BY 1, 2, 3 "
+                    + "ON CONFLICT (Metric_Key_metric_key_identifier, NGS_ngs_type, analysis_month) DO UPDATE SET "
+                    + "value_count = EXCLUDED.value_count, value_sum = EXCLUDED.value_sum, "
+                    + "value_sum_of_squares = EXCLUDED.value_sum_of_squares, "
+                    + "value_min = EXCLUDED.value_min, value_max = EXCLUDED.value_max";
+
+    private MonthlyRollup() {
+    }
+
+    /**
+     * Aggregates the rollup rows of some months again, after rows of those months have been removed.
+     * The months are locked for the rest of the transaction first, so two workers refreshing the same month
+     * take turns instead of both inserting its rows.
+     *
+     * @param txDsl   The DSLContext of the transaction that removed the rows.
+     * @param ngsType The NGS type.
+     * @param months  The first days of the months to aggregate again.
+     */
+    static void refreshMonths(DSLContext txDsl, String ngsType, Collection<LocalDate> months) {
+        if (months.isEmpty()) {
+            return;
+        }
+        String[] monthArray = months.stream().map(LocalDate::toString).toArray(String[]::new);
+        txDsl.fetch(LOCK_MONTHS, ngsType, monthArray);
+        txDsl.execute(DELETE_COUNTS, ngsType, monthArray);
+        txDsl.execute(AGGREGATE_COUNTS, ngsType, monthArray);
+        txDsl.execute(DELETE_METRIC_SUMMARY, ngsType, monthArray);
+        txDsl.execute(AGGREGATE_METRIC_SUMMARY, ngsType, monthArray);
+    }
+
+    /**
+     * The increments of the rows written in one transaction, summed per rollup row until they are written.
+     * Not thread-safe, each transaction has its own.
+     */
+    static final class Increments {
+        private static final Comparator<LocalDate> MONTH_ORDER = Comparator.nullsFirst(Comparator.naturalOrder());
+        private static final Comparator<CountKey> COUNT_ORDER =
+                Comparator.comparing(CountKey::ngsType).thenComparing(CountKey::month, MONTH_ORDER);
+        private static final Comparator<SummaryKey> SUMMARY_ORDER =
+                Comparator.comparingInt(SummaryKey::keyId).thenComparing(SummaryKey::ngsType)
+                        .thenComparing(SummaryKey::month, MONTH_ORDER);
+
+        private final Map<CountKey, long[]> counts = new TreeMap<>(COUNT_ORDER);
+        private final Map<SummaryKey, Summary> summaries = new TreeMap<>(SUMMARY_ORDER);
+
+        private record CountKey(String ngsType, LocalDate month) {
+        }
+
+        private record SummaryKey(short keyId, String ngsType, LocalDate month) {
+        }
+
+        private static final class Summary {
+            private long count;
+            private double sum;
+            private double sumOfSquares;
+            private double min = Double.POSITIVE_INFINITY;
+            private double max = Double.NEGATIVE_INFINITY;
+
+            void add(Summary other) {
+                count += other.count;
+                sum += other.sum;
+                sumOfSquares += other.sumOfSquares;
+                min = Math.min(min, other.min);
+                max = Math.max(max, other.max);
+            }
+        }
+
+        /**
+         * Adds new experiments and samples to the count of their month.
+         *
+         * @param ngsType      The NGS type.
+         * @param analysisDate The analysis date of the experiment.
+         * @param experiments  The number of experiments added.
+         * @param samples      The number of samples added.
+         */
+        void addCounts(String ngsType, LocalDate analysisDate, int experiments, int samples) {
+            long[] count = counts.computeIfAbsent(new CountKey(ngsType, monthOf(analysisDate)), key -> new long[2]);
+            count[0] += experiments;
+            count[1] += samples;
+        }
+
+        /**
+         * Adds the numeric metrics of one sample, or of one run for LRS, to the summary of their month.
+         *
+         * @param ngsType       The NGS type.
+         * @param analysisDate  The analysis date of the experiment.
+         * @param valuesByKeyId The metric values, the value of the metric with identifier k at index k - 1.
+         */
+        void addMetrics(String ngsType, LocalDate analysisDate, Double[] valuesByKeyId) {
+            LocalDate month = monthOf(analysisDate);
+            for (int i = 0; i < valuesByKeyId.length; i++) {
+                Double value = valuesByKeyId[i];
+                if (value == null) {
+                    continue;
+                }
+                Summary summary = summaries.computeIfAbsent(new SummaryKey((short) (i + 1), ngsType, month), key -> new Summary());
+                summary.count++;
+                summary.sum += value;
+                summary.sumOfSquares += value * value;
+                summary.min = Math.min(summary.min, value);
+                summary.max = Math.max(summary.max, value);
+            }
+        }
+
+        /**
+         * Adds the increments of a row that was written to the increments of its transaction.
+         *
+         * @param other The increments of the row.
+         */
+        void addAll(Increments other) {
+            other.counts.forEach((key, count) -> {
+                long[] total = counts.computeIfAbsent(key, k -> new long[2]);
+                total[0] += count[0];
+                total[1] += count[1];
+            });
+            other.summaries.forEach((key, summary) -> summaries.computeIfAbsent(key, k -> new Summary()).add(summary));
+        }
+
+        /**
+         * Writes the increments with one statement per rollup table, in the order of the rollup rows' keys,
+         * and clears them.
+         *
+         * @param txDsl The DSLContext of the transaction that wrote the rows.
+         */
+        void write(DSLContext txDsl) {
+            if (!counts.isEmpty()) {
+                int size = counts.size();
+                String[] ngsTypes = new String[size];
+                String[] months = new String[size];
+                Long[] experiments = new Long[size];
+                Long[] samples = new Long[size];
+                int i = 0;
+                for (Map.Entry<CountKey, long[]> entry : counts.entrySet()) {
+                    ngsTypes[i] = entry.getKey().ngsType();
+                    months[i] = Objects.toString(entry.getKey().month(), null);
+                    experiments[i] = entry.getValue()[0];
+                    samples[i] = entry.getValue()[1];
+                    i++;
+                }
+                txDsl.execute(ADD_COUNTS, ngsTypes, months, experiments, samples);
+            }
+            if (!summaries.isEmpty()) {
+                int size = summaries.size();
+                Short[] keyIds = new Short[size];
+                String[] ngsTypes = new String[size];
+                String[] months = new String[size];
+                Long[] valueCounts = new Long[size];
+                Double[] sums = new Double[size];
+                Double[] sumsOfSquares = new Double[size];
+                Double[] mins = new Double[size];
+                Double[] maxs = new Double[size];
+                int i = 0;
+                for (Map.Entry<SummaryKey, Summary> entry : summaries.entrySet()) {
+                    keyIds[i] = entry.getKey().keyId();
+                    ngsTypes[i] = entry.getKey().ngsType();
+                    months[i] = Objects.toString(entry.getKey().month(), null);
+                    Summary summary = entry.getValue();
+                    valueCounts[i] = summary.count;
+                    sums[i] = summary.sum;
+                    sumsOfSquares[i] = summary.sumOfSquares;
+                    mins[i] = summary.min;
+                    maxs[i] = summary.max;
+                    i++;
+                }
+                txDsl.execute(ADD_METRICS, keyIds, ngsTypes, months, valueCounts, sums, sumsOfSquares, mins, maxs);
+            }
+            clear();
+        }
+
+        /**
+         * Drops the increments, once their transaction has been rolled back.
+         */
+        void clear() {
+            counts.clear();
+            summaries.clear();
+        }
+
+        private static LocalDate monthOf(LocalDate analysisDate) {
+            return analysisDate != null ? analysisDate.withDayOfMonth(1) : null;
+        }
+    }
+}
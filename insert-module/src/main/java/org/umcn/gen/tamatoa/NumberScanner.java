@@ -0,0 +1,181 @@
+package org.umcn.gen.tamatoa;
+
+/**
+ * Classifies CSV values as integer, decimal or text with a single scan of their characters, instead of trying
+ * {@link Integer#parseInt} and {@link Double#parseDouble} and catching their NumberFormatException.
+ * <p>
+ * Numbers are written back in the canonical form the parser has always stored: integers that fit an int as
+ * {@link Integer#toString(int)}, other numbers as {@link Double#toString(double)}. Hexadecimal floating point
+ * literals are treated as text.
+ */
+final class NumberScanner {
+
+    /**
+     * The kind of value found in a field.
+     */
+    enum Kind {
+        INTEGER,
+        DECIMAL,
+        TEXT
+    }
+
+    private NumberScanner() {
+    }
+
+    /**
+     * Classifies a trimmed value.
+     *
+     * @param value The value to classify.
+     * @return INTEGER if the value is an integer within the range of an int, DECIMAL if it is any other
+     * decimal number {@link Double#parseDouble} accepts, TEXT otherwise.
+     */
+    static Kind classify(String value) {
+        int length = value.length();
+        int index = 0;
+        if (index < length && (value.charAt(index) == '+' || value.charAt(index) == '-')) {
+            index++;
+        }
+        if (index == length) {
+            return Kind.TEXT;
+        }
+        if (value.startsWith("NaN", index) || value.startsWith("Infinity", index)) {
+            return length - index == (value.charAt(index) == 'N' ? 3 : 8) ? Kind.DECIMAL : Kind.TEXT;
+        }
+
+        int integerDigits = skipDigits(value, index);
+        index += integerDigits;
+        if (index == length) {
+            return fitsInt(value) ? Kind.INTEGER : Kind.DECIMAL;
+        }
+
+        int fractionDigits = 0;
+        if (value.charAt(index) == '.') {
+            index++;
+            fractionDigits = skipDigits(value, index);
+            index += fractionDigits;
+        }
+        if (integerDigits == 0 && fractionDigits == 0) {
+            return Kind.TEXT;
+        }
+        if (index < length && (value.charAt(index) == 'e' || value.charAt(index) == 'E')) {
+            index++;
+            if (index < length && (value.charAt(index) == '+' || value.charAt(index) == '-')) {
+                index++;
+            }
+            int exponentDigits = skipDigits(value, index);
+            if (exponentDigits == 0) {
+                return Kind.TEXT;
+            }
+            index += exponentDigits;
+        }
+        if (index < length && "fFdD".indexOf(value.charAt(index)) >= 0) {
+            index++;
+        }
+        return index == length ? Kind.DECIMAL : Kind.TEXT;
+    }
+
+    /**
+     * Converts a trimmed value to the form it is stored in.
+     *
+     * @param value The value to convert.
+     * @return The canonical form of a number, or the value itself if it is text.
+     */
+    static String canonical(String value) {
+        return canonical(value, classify(value));
+    }
+
+    /**
+     * Converts a trimmed value of a known kind to the form it is stored in.
+     *
+     * @param value The value to convert.
+     * @param kind  The kind of the value as returned by {@link #classify}.
+     * @return The canonical form of a number, or the value itself if it is text.
+     */
+    static String canonical(String value, Kind kind) {
+        switch (kind) {
+            case INTEGER:
+                return canonicalInteger(value);
+            case DECIMAL:
+                return Double.toString(Double.parseDouble(value));
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * Reads a value as it is stored in a metric table.
+     *
+     * @param value The trimmed value.
+     * @return The value as a double if it is a number, or null if it is text.
+     */
+    static Double toDoubleOrNull(String value) {
+        return classify(value) == Kind.TEXT ? null : Double.parseDouble(value);
+    }
+
+    /**
+     * Checks in one pass whether a value is an integer, as used for columns locked to integers.
+     *
+     * @param value The trimmed value.
+     * @return True if the value is an optionally signed integer within the range of an int.
+     */
+    static boolean isInteger(String value) {
+        int length = value.length();
+        int start = length > 0 && (value.charAt(0) == '+' || value.charAt(0) == '-') ? 1 : 0;
+        return start < length && skipDigits(value, start) == length - start && fitsInt(value);
+    }
+
+    /**
+     * Returns the value itself when it is already in canonical form, which is the common case,
+     * so no new String is created for it.
+     */
+    private static String canonicalInteger(String value) {
+        char first = value.charAt(0);
+        boolean canonical = first != '+'
+                && !(first == '0' && value.length() > 1)
+                && !(first == '-' && (value.charAt(1) == '0'));
+        return canonical ? value : Integer.toString(parseInt(value));
+    }
+
+    /**
+     * Checks whether an optionally signed string of digits fits in an int, without parsing it twice.
+     */
+    private static boolean fitsInt(String value) {
+        int index = value.charAt(0) == '+' || value.charAt(0) == '-' ? 1 : 0;
+        while (index < value.length() - 1 && value.charAt(index) == '0') {
+            index++;
+        }
+        int significantDigits = value.length() - index;
+        if (significantDigits < 10) {
+            return true;
+        }
+        if (significantDigits > 10) {
+            return false;
+        }
+        long parsed = 0;
+        for (; index < value.length(); index++) {
+            parsed = parsed * 10 + (value.charAt(index) - '0');
+        }
+        return value.charAt(0) == '-' ? parsed <= -(long) Integer.MIN_VALUE : parsed <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * Parses an optionally signed string of digits known to fit in an int, as classified INTEGER.
+     */
+    static int parseInt(String value) {
+        boolean negative = value.charAt(0) == '-';
+        int index = negative || value.charAt(0) == '+' ? 1 : 0;
+        long parsed = 0;
+        for (; index < value.length(); index++) {
+            parsed = parsed * 10 + (value.charAt(index) - '0');
+        }
+        return (int) (negative ? -parsed : parsed);
+    }
+
+    private static int skipDigits(String value, int start) {
+        int index = start;
+        while (index < value.length() && value.charAt(index) >= '0' && value.charAt(index) <= '9') {
+            index++;
+        }
+        return index - start;
+    }
+}
@@ -0,0 +1,150 @@
+package org.umcn.gen.tamatoa;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Ingests the CSV files of several DataType folders concurrently. A fixed number of workers take files from a
+ * shared queue, each worker parses a file and writes it over its own database connection.
+ */
+public class ParallelIngestor {
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelIngestor.class);
+
+    private final IngestOptions options;
+    private final IdentityCache identityCache = new IdentityCache();
+
+    /**
+     * Initializes the ParallelIngestor.
+     *
+     * @param options The options of the run, {@link IngestOptions#getWorkers()} decides the number of workers.
+     */
+    public ParallelIngestor(IngestOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * Processes all CSV files of the given DataTypes and logs the throughput of every worker when done.
+     * A DataType whose folder cannot be read is logged and skipped.
+     *
+     * @param dataTypes The DataTypes whose folders are to be processed.
+     * @throws InterruptedException If the calling thread is interrupted while waiting for the workers.
+     */
+    public void run(DataType... dataTypes) throws InterruptedException {
+        Queue<FileTask> tasks = new ConcurrentLinkedQueue<>(collectTasks(dataTypes));
+        int workerCount = options.getWorkers();
+        List<Worker> workers = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        long startTime = System.nanoTime();
+
+        LOG.info("Ingesting {} files with {} {} workers", tasks.size(), workerCount, options.useVirtualThreads() ? "virtual" : "platform");
+        for (int i = 0; i < workerCount; i++) {
+            Worker worker = new Worker("ingest-worker-" + (i + 1), tasks);
+            Thread thread = newThread(worker);
+            workers.add(worker);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        logThroughput(workers, System.nanoTime() - startTime);
+        identityCache.logStatistics();
+    }
+
+    /**
+     * Lists the CSV files of all DataTypes, largest first so a big file does not end up last on a single worker.
+     */
+    private List<FileTask> collectTasks(DataType... dataTypes) {
+        List<FileTask> tasks = new ArrayList<>();
+        for (DataType dataType : dataTypes) {
+            try {
+                List<File> csvFiles = FolderReader.checkFolder(dataType.getFolder());
+                FileManifest manifest = FolderReader.loadManifest(dataType, options);
+                for (File csvFile : csvFiles) {
+                    tasks.add(new FileTask(csvFile, dataType, manifest, csvFile.length()));
+                }
+            } catch (IOException e) {
+                LOG.error("Skipping Datatype {}: {}", dataType.name(), e.getMessage());
+            }
+        }
+        tasks.sort(Comparator.comparingLong(FileTask::size).reversed());
+        return tasks;
+    }
+
+    /**
+     * Creates the thread for a worker. Virtual threads are only available from Java 21 onwards,
+     * they are looked up reflectively and platform threads are used on older runtimes.
+     */
+    private Thread newThread(Worker worker) {
+        if (options.useVirtualThreads()) {
+            try {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                Method name = Class.forName("java.lang.Thread$Builder").getMethod("name", String.class);
+                Method unstarted = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+                return (Thread) unstarted.invoke(name.invoke(builder, worker.name), worker);
+            } catch (ReflectiveOperationException e) {
+                LOG.warn("Virtual threads are not supported by this Java runtime, using platform threads");
+            }
+        }
+        return new Thread(worker, worker.name);
+    }
+
+    private static void logThroughput(List<Worker> workers, long elapsedNanos) {
+        long totalFiles = 0;
+        long totalSamples = 0;
+        for (Worker worker : workers) {
+            double seconds = worker.busyNanos / 1_000_000_000.0;
+            LOG.info("{}: {} files, {} samples in {} s ({} samples/s)", worker.name, worker.fileCount, worker.sampleCount,
+                    String.format("%.2f", seconds), String.format("%.1f", seconds > 0 ? worker.sampleCount / seconds : 0));
+            totalFiles += worker.fileCount;
+            totalSamples += worker.sampleCount;
+        }
+        double seconds = elapsedNanos / 1_000_000_000.0;
+        LOG.info("Processed {} samples from {} files in {} s with {} workers ({} samples/s)", totalSamples, totalFiles,
+                String.format("%.2f", seconds), workers.size(), String.format("%.1f", seconds > 0 ? totalSamples / seconds : 0));
+    }
+
+    private record FileTask(File file, DataType dataType, FileManifest manifest, long size) {
+    }
+
+    /**
+     * Takes files from the shared queue until it is empty. The counters are only written by the worker's own
+     * thread and read after it has been joined.
+     */
+    private class Worker implements Runnable {
+        private final String name;
+        private final Queue<FileTask> tasks;
+        private long fileCount;
+        private long sampleCount;
+        private long busyNanos;
+
+        Worker(String name, Queue<FileTask> tasks) {
+            this.name = name;
+            this.tasks = tasks;
+        }
+
+        @Override
+        public void run() {
+            FileTask task;
+            while ((task = tasks.poll()) != null) {
+                long startTime = System.nanoTime();
+                try {
+                    sampleCount += FolderReader.processFile(task.file(), task.dataType(), options, task.manifest(), identityCache);
+                } catch (IOException | RuntimeException e) {
+                    FolderReader.fileFailed(task.file(), task.dataType(), e);
+                }
+                fileCount++;
+                busyNanos += System.nanoTime() - startTime;
+            }
+        }
+    }
+}
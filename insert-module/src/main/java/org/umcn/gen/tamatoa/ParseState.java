@@ -0,0 +1,87 @@
+package org.umcn.gen.tamatoa;
+
+import java.time.LocalDate;
+
+/**
+ * The state needed to parse the rows of one file: its column plan, the tokenizer and column types reused from
+ * row to row, the date resolver of its DataType and the date in its filename, which is extracted only once.
+ * An instance is not thread-safe, use one per file being read.
+ */
+final class ParseState {
+    private final String fileName;
+    private final DataType dataType;
+    private final ColumnPlan plan;
+    private final LineTokenizer tokenizer;
+    private final ColumnTypes types;
+    private final DateResolver dates;
+    private LocalDate filenameDate;
+    private boolean filenameDateResolved = false;
+    private long dateNanos = 0;
+
+    /**
+     * Initializes the ParseState of a file.
+     *
+     * @param fileName The name of the file.
+     * @param dataType The DataType of the file.
+     * @param plan     The column plan compiled from the header of the file.
+     */
+    ParseState(String fileName, DataType dataType, ColumnPlan plan) {
+        this.fileName = fileName;
+        this.dataType = dataType;
+        this.plan = plan;
+        this.tokenizer = new LineTokenizer(dataType);
+        this.types = new ColumnTypes(plan.size());
+        this.dates = DateResolver.forDataType(dataType);
+    }
+
+    String getFileName() {
+        return fileName;
+    }
+
+    DataType getDataType() {
+        return dataType;
+    }
+
+    ColumnPlan getPlan() {
+        return plan;
+    }
+
+    LineTokenizer getTokenizer() {
+        return tokenizer;
+    }
+
+    ColumnTypes getTypes() {
+        return types;
+    }
+
+    DateResolver getDates() {
+        return dates;
+    }
+
+    /**
+     * @return The date in the name of the file, or null if it contains none.
+     */
+    LocalDate getFilenameDate() {
+        if (!filenameDateResolved) {
+            filenameDate = DateResolver.fromFilename(fileName);
+            filenameDateResolved = true;
+        }
+        return filenameDate;
+    }
+
+    /**
+     * Adds to the time spent resolving the dates of the file.
+     *
+     * @param elapsedNanos The time spent in nanoseconds.
+     */
+    void addDateNanos(long elapsedNanos) {
+        dateNanos += elapsedNanos;
+    }
+
+    /**
+     * @return The time spent resolving the dates of the file so far, in nanoseconds.
+     */
+    long getDateNanos() {
+        return dateNanos;
+    }
+}
@@ -0,0 +1,167 @@
+package org.umcn.gen.tamatoa;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Creates the yearly partitions of the tables that CreateQCDatabasePartitioned.sql partitions by analysis_date,
+ * before data of a year is loaded into them for the first time. On a database created with CreateQCDatabase.sql
+ * no table is partitioned and nothing is created.
+ * <p>
+ * The partitioned tables and their partitions are read from the catalog once, after that a partition is only
+ * created when the year has not been seen before, so loading rows of known years costs no statement.
+ */
+final class PartitionManager {
+    private static final Logger LOG = LoggerFactory.getLogger(PartitionManager.class);
+
+    private static final String SELECT_PARTITIONS =
+            "SELECT parent.relname, child.relname FROM pg_partitioned_table p "
+                    + "JOIN pg_class parent ON parent.oid = p.partrelid "
+                    + "LEFT JOIN pg_inherits i ON i.inhparent = parent.oid "
+                    + "LEFT JOIN pg_class child ON child.oid = i.inhrelid "
+                    + "WHERE pg_table_is_visible(parent.oid)";
+
+    private static final String CREATE_PARTITION =
+            "CREATE TABLE IF NOT EXISTS %s PARTITION OF %s FOR VALUES FROM ('%d-01-01') TO ('%d-01-01')";
+
+    // SQL states of a partition created by a concurrent ingest between the existence check and the creation
+    private static final Set<String> ALREADY_EXISTS_STATES = Set.of("42P07", "23505");
+
+    private static final Set<String> knownPartitions = ConcurrentHashMap.newKeySet();
+    private static volatile List<String> partitionedTables;
+
+    private PartitionManager() {
+    }
+
+    /**
+     * Makes sure every partitioned table has a partition for each year of the given dates. In a transaction
+     * the creation of a partition is guarded by a savepoint, so a partition created concurrently by another
+     * ingest does not abort the transaction.
+     *
+     * @param connection The connection the rows will be written with.
+     * @param dates      The analysis dates of the rows, null dates are ignored.
+     * @throws SQLException If the catalog can not be read or a partition can not be created.
+     */
+    static void ensurePartitions(Connection connection, Collection<LocalDate> dates) throws SQLException {
+        List<String> tables = partitionedTables(connection);
+        if (tables.isEmpty()) {
+            return;
+        }
+        Set<Integer> years = new TreeSet<>();
+        for (LocalDate date : dates) {
+            if (date != null) {
+                years.add(date.getYear());
+            }
+        }
+        for (int year : years) {
+            for (String table : tables) {
+                String partition = partitionName(table, year);
+                if (!knownPartitions.contains(partition)) {
+                    createPartition(connection, table, partition, year);
+                    knownPartitions.add(partition);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rolls back the transaction of a connection and forgets the partitions known to exist, as the partitions
+     * created in the transaction are rolled back with it.
+     *
+     * @param connection The connection whose transaction is rolled back.
+     * @throws SQLException If the transaction can not be rolled back.
+     */
+    static void rollback(Connection connection) throws SQLException {
+        try {
+            connection.rollback();
+        } finally {
+            forgetPartitions();
+        }
+    }
+
+    /**
+     * Forgets the partitions known to exist, after a transaction that may have created some was rolled back.
+     * They are read from the catalog again on the next call of {@link #ensurePartitions}.
+     */
+    static void forgetPartitions() {
+        synchronized (PartitionManager.class) {
+            partitionedTables = null;
+            knownPartitions.clear();
+        }
+    }
+
+    /**
+     * @param table The name of a partitioned table.
+     * @param year  The year held by the partition.
+     * @return The name of the partition of the table holding the year.
+     */
+    static String partitionName(String table, int year) {
+        return table + "_y" + year;
+    }
+
+    private static List<String> partitionedTables(Connection connection) throws SQLException {
+        List<String> tables = partitionedTables;
+        if (tables == null) {
+            synchronized (PartitionManager.class) {
+                tables = partitionedTables;
+                if (tables == null) {
+                    tables = readPartitions(connection);
+                    partitionedTables = tables;
+                }
+            }
+        }
+        return tables;
+    }
+
+    private static List<String> readPartitions(Connection connection) throws SQLException {
+        List<String> tables = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(SELECT_PARTITIONS)) {
+            while (resultSet.next()) {
+                if (!tables.contains(resultSet.getString(1))) {
+                    tables.add(resultSet.getString(1));
+                }
+                if (resultSet.getString(2) != null) {
+                    knownPartitions.add(resultSet.getString(2));
+                }
+            }
+        }
+        if (!tables.isEmpty()) {
+            LOG.info("Partitioned tables: {}, {} existing partitions", tables, knownPartitions.size());
+        }
+        return tables;
+    }
+
+    private static void createPartition(Connection connection, String table, String partition, int year) throws SQLException {
+        Savepoint savepoint = connection.getAutoCommit() ? null : connection.setSavepoint();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(String.format(CREATE_PARTITION, partition, table, year, year + 1));
+            LOG.info("Created partition {} of table {} for {}", partition, table, year);
+        } catch (SQLException e) {
+            if (savepoint != null) {
+                connection.rollback(savepoint);
+            }
+            if (!ALREADY_EXISTS_STATES.contains(e.getSQLState())) {
+                throw e;
+            }
+            LOG.debug("Partition {} was created by another ingest", partition);
+            return;
+        }
+        if (savepoint != null) {
+            connection.releaseSavepoint(savepoint);
+        }
+    }
+}
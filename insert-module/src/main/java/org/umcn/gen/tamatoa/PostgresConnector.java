@@ -4,29 +4,65 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 
 public class PostgresConnector {
     private static final Logger LOG = LoggerFactory.getLogger(PostgresConnector.class);
 
-    private static final String URL = "";
-    private static final String USER = "";
-    private static final String PASSWORD = "";
+    // The credentials can also be given as system properties, e.g. -Dtamatoa.db.url=jdbc:postgresql://localhost/qc
+    private static final String URL = System.getProperty("tamatoa.db.url", "");
+    private static final String USER = System.getProperty("tamatoa.db.user", "");
+    private static final String PASSWORD = System.getProperty("tamatoa.db.password", "");
 
-    // Returns a connection object to the PostgreSQL database
-    public static Connection getConnection() {
+    // Connection pool settings
+    public static final int DEFAULT_POOL_SIZE = 4;
+    private static final long ACQUIRE_TIMEOUT_MILLIS = 30_000;
+    private static final long IDLE_TIMEOUT_MILLIS = 300_000;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+    private static ConnectionPool pool;
+
+    /**
+     * Creates the connection pool with the given maximum size. Must be called before the first
+     * {@link #getConnection()}, otherwise a pool of {@link #DEFAULT_POOL_SIZE} connections is created.
+     *
+     * @param poolSize The maximum number of connections in use at the same time.
+     * @throws IllegalStateException If the pool has already been created.
+     */
+    public static synchronized void initPool(int poolSize) {
+        if (pool != null) {
+            throw new IllegalStateException("The connection pool has already been created.");
+        }
+        pool = new ConnectionPool(URL, USER, PASSWORD, poolSize, ACQUIRE_TIMEOUT_MILLIS, IDLE_TIMEOUT_MILLIS, VALIDATION_TIMEOUT_SECONDS);
+    }
+
+    // Returns a pooled connection to the PostgreSQL database, closing it hands it back to the pool
+    public static Connection getConnection() throws SQLException {
+        if (URL.isEmpty() || USER.isEmpty() || PASSWORD.isEmpty()) {
+            LOG.error("Database log in credentials are missing.");
+            throw new SQLException("Database log in credentials are missing.");
+        }
         try {
-            if (URL.isEmpty() || USER.isEmpty() || PASSWORD.isEmpty()) {
-                LOG.error("Database log in credentials are missing.");
-            } else {
-                Connection connection = DriverManager.getConnection(URL, USER, PASSWORD);
-                LOG.info("Successfully connected to the database.");
-                return connection;
-            }
+            return getPool().borrow();
         } catch (SQLException e) {
             LOG.error("Failed to establish connection: {} - {}", e.getSQLState(), e.getMessage());
+            throw e;
+        }
+    }
+
+    // Logs the pool counters and closes all pooled connections
+    public static synchronized void shutdown() {
+        if (pool != null) {
+            pool.logStatistics();
+            pool.close();
+            pool = null;
+        }
+    }
+
+    private static synchronized ConnectionPool getPool() {
+        if (pool == null) {
+            initPool(DEFAULT_POOL_SIZE);
         }
-        return null;
+        return pool;
     }
 }
@@ -0,0 +1,83 @@
+package org.umcn.gen.tamatoa;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The value columns of the rows of a file: their names, in header order, and whether they hold quality metrics.
+ * A {@link CsvData} row stores its values by the index of their column in the schema, so the column names are
+ * held once per file instead of once per row. A column name that occurs more than once in the header has a
+ * single index, the last value of the row wins.
+ * <p>
+ * The schema of a header is compiled with its {@link ColumnPlan} and shared by all files with that header.
+ * Schemas are immutable.
+ */
+public final class RowSchema {
+    private final String[] names;
+    private final boolean[] metrics;
+    private final Map<String, Integer> indexes;
+
+    private RowSchema(String[] names) {
+        this.names = names;
+        this.metrics = new boolean[names.length];
+        this.indexes = new HashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            metrics[i] = CsvDataInserter.isMetricColumn(names[i]);
+            indexes.put(names[i], i);
+        }
+    }
+
+    /**
+     * Creates the schema of a list of column names.
+     *
+     * @param names The names of the value columns, duplicates are ignored.
+     * @return The schema of the columns.
+     */
+    static RowSchema of(Collection<String> names) {
+        return new RowSchema(new LinkedHashSet<>(names).toArray(new String[0]));
+    }
+
+    /**
+     * @return The number of columns in the schema.
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * @param index The index of the column.
+     * @return The name of the column.
+     */
+    public String name(int index) {
+        return names[index];
+    }
+
+    /**
+     * @param index The index of the column.
+     * @return True if the column is stored in one of the metric tables, see {@link CsvDataInserter#isMetricColumn}.
+     */
+    public boolean isMetric(int index) {
+        return metrics[index];
+    }
+
+    /**
+     * @param name The name of a column.
+     * @return The index of the column, or -1 if the schema has no column with that name.
+     */
+    public int indexOf(String name) {
+        Integer index = indexes.get(name);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * @return The names of the columns in header order.
+     */
+    public List<String> names() {
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+}
@@ -0,0 +1,131 @@
+package org.umcn.gen.tamatoa;
+
+import org.jooq.impl.DSL;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Groups the rows a file writes in row mode into transactions, following {@link IngestOptions#getCommitRows()}.
+ * <p>
+ * When every row commits on its own the connection stays in auto-commit mode and this class does nothing, each
+ * row is then written in a transaction of its own by {@link CsvDataInserter#insertCsvData}. Otherwise the
+ * connection is switched to manual commit mode, the inserter guards each row with a savepoint and the rows are
+ * committed every {@code commitRows} rows, or once at the end of the file. The NGS types, metric keys and
+ * experiments written in the open transaction are kept in a pending identity cache, which is published when
+ * the transaction commits and dropped when it is rolled back. The monthly rollup increments of its rows are
+ * collected as well and written just before the commit, see {@link MonthlyRollup.Increments}.
+ * <p>
+ * Closing the transaction rolls back the rows written since the last commit, unless {@link #finish()} was
+ * called, and restores auto-commit mode.
+ */
+class RowTransaction implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(RowTransaction.class);
+
+    private final Connection connection;
+    private final IdentityCache identityCache;
+    private final int commitRows;
+    private final String ngsType;
+    private final MonthlyRollup.Increments rollup;
+    private int uncommittedRows;
+    private boolean finished;
+
+    private RowTransaction(Connection connection, IdentityCache identityCache, int commitRows, String ngsType) {
+        this.connection = connection;
+        this.identityCache = identityCache;
+        this.commitRows = commitRows;
+        this.ngsType = ngsType;
+        this.rollup = commitRows == 1 ? null : new MonthlyRollup.Increments();
+    }
+
+    /**
+     * Starts writing the rows of a file.
+     *
+     * @param connection    The connection the rows are written with, it must be in auto-commit mode.
+     * @param commitRows    The number of rows per transaction, 1 to commit every row, 0 to commit once per file.
+     * @param identityCache The identity cache of the ingest run.
+     * @param dataType      The DataType of the file.
+     * @return The transaction of the file's first rows.
+     * @throws SQLException If the connection can not be switched to manual commit mode.
+     */
+    static RowTransaction begin(Connection connection, int commitRows, IdentityCache identityCache, DataType dataType) throws SQLException {
+        if (commitRows == 1) {
+            return new RowTransaction(connection, identityCache, commitRows, dataType.name());
+        }
+        connection.setAutoCommit(false);
+        return new RowTransaction(connection, identityCache.pending(), commitRows, dataType.name());
+    }
+
+    /**
+     * @return The identity cache the rows of the transaction are written with.
+     */
+    IdentityCache getIdentityCache() {
+        return identityCache;
+    }
+
+    /**
+     * @return The monthly rollup increments of the transaction, or null when every row commits on its own and
+     * writes its own increments.
+     */
+    MonthlyRollup.Increments getRollup() {
+        return rollup;
+    }
+
+    /**
+     * Counts a written row and commits when the transaction holds {@code commitRows} rows.
+     *
+     * @throws SQLException If the transaction can not be committed.
+     */
+    void rowWritten() throws SQLException {
+        uncommittedRows++;
+        if (commitRows > 1 && uncommittedRows >= commitRows) {
+            commit();
+        }
+    }
+
+    /**
+     * Commits the rows written since the last commit, at the end of the file.
+     *
+     * @throws SQLException If the transaction can not be committed.
+     */
+    void finish() throws SQLException {
+        if (commitRows != 1) {
+            commit();
+        }
+        finished = true;
+    }
+
+    private void commit() throws SQLException {
+        long startTime = System.nanoTime();
+        try {
+            rollup.write(DSL.using(connection));
+        } catch (RuntimeException e) {
+            throw new SQLException("Error writing the monthly rollups of " + uncommittedRows + " rows", e);
+        }
+        connection.commit();
+        identityCache.publish();
+        IngestMetrics.get().record(ngsType, IngestMetrics.Stage.COMMIT, System.nanoTime() - startTime);
+        LOG.debug("Committed {} rows", uncommittedRows);
+        uncommittedRows = 0;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        if (commitRows == 1) {
+            return;
+        }
+        try {
+            if (!finished) {
+                // Partitions created in the transaction are gone as well
+                PartitionManager.rollback(connection);
+                identityCache.discard();
+                rollup.clear();
+                LOG.warn("Rolled back {} uncommitted rows", uncommittedRows);
+            }
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+}
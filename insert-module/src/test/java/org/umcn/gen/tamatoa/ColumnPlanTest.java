@@ -0,0 +1,43 @@
+package org.umcn.gen.tamatoa;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ColumnPlanTest {
+
+    private static final String LRS_HEADER = "instrument,run_name,experiment_name,sample_name,transfer_complete,read_count";
+
+    /**
+     * Test to check that LRS header names are mapped once, classified by role and laid out in the row schema,
+     * with only the metric columns marked as metrics.
+     */
+    @Test
+    public void testCompileLrsHeader() {
+        ColumnPlan plan = ColumnPlan.compile(LRS_HEADER, DataType.LRS);
+
+        assertEquals(6, plan.size());
+        assertEquals("sequencer_id", plan.name(0));
+        assertFalse(plan.schema().isMetric(plan.slot(0)));
+        assertEquals(ColumnPlan.Role.EXPERIMENT_NAME, plan.role(1));
+        assertEquals(ColumnPlan.Role.DROPPED, plan.role(2));
+        assertEquals(ColumnPlan.Role.SAMPLE_ID, plan.role(3));
+        assertEquals(ColumnPlan.Role.ANALYSIS_DATE, plan.role(4));
+        assertEquals(ColumnPlan.Role.VALUE, plan.role(5));
+        assertEquals(-1, plan.slot(1));
+        assertEquals(plan.schema().indexOf("read_count"), plan.slot(5));
+        assertTrue(plan.schema().isMetric(plan.slot(5)));
+    }
+
+    /**
+     * Test to ensure that files sharing a header line share one compiled plan.
+     */
+    @Test
+    public void testPlansAreCachedByHeaderLine() {
+        ColumnPlan first = ColumnPlan.forHeader("sampleid\tcoverage", DataType.WGS);
+
+        assertSame(first, ColumnPlan.forHeader("sampleid\tcoverage", DataType.WGS));
+        assertNotSame(first, ColumnPlan.forHeader("sampleid\tcoverage", DataType.WES));
+        assertTrue(first.schema().isMetric(first.slot(1)));
+    }
+}
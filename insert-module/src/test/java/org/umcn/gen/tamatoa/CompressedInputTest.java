@@ -0,0 +1,123 @@
+package org.umcn.gen.tamatoa;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class CompressedInputTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Test to ensure that a decompression error is reported to the reader when the queue of decompressed blocks
+     * is full at the time of the error, instead of the reader waiting forever after the queued blocks.
+     *
+     * @throws Exception If an error occurs during file creation or while waiting.
+     */
+    @Test(timeout = 30000)
+    public void testTruncatedFileFailsAfterQueuedBlocks() throws Exception {
+        // Random bytes do not compress, so the truncated file decompresses to about as many bytes as it has left
+        byte[] content = new byte[12 << 18];
+        new Random(42).nextBytes(content);
+        File file = temporaryFolder.newFile("truncated.csv.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file.toPath()))) {
+            out.write(content);
+        }
+        try (RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+            truncated.setLength(17 << 17);
+        }
+
+        try (InputStream in = CompressedInput.open(file)) {
+            // Gives the decompression thread time to fill the queue before the error
+            Thread.sleep(500);
+            byte[] buffer = new byte[8192];
+            long read = 0;
+            try {
+                for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                    read += n;
+                }
+                fail("Truncated file read to its end");
+            } catch (IOException e) {
+                assertTrue(read >= 8 << 18);
+            }
+        }
+    }
+
+    /**
+     * Test to ensure that closing the stream while the file is being decompressed waits for the decompression
+     * thread to end, which closes the file, instead of closing the file under a running read.
+     *
+     * @throws Exception If an error occurs during file creation or while waiting.
+     */
+    @Test(timeout = 30000)
+    public void testCloseWhileDecompressingStopsThread() throws Exception {
+        byte[] content = new byte[32 << 20];
+        new Random(7).nextBytes(content);
+        File file = temporaryFolder.newFile("large.csv.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file.toPath()))) {
+            out.write(content);
+        }
+
+        List<Throwable> uncaught = new CopyOnWriteArrayList<>();
+        Thread.UncaughtExceptionHandler previous = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler((thread, e) -> uncaught.add(e));
+        try {
+            InputStream in = CompressedInput.open(file);
+            // Reading as fast as blocks come keeps the thread inflating when the stream is closed
+            byte[] buffer = new byte[1 << 16];
+            long read = 0;
+            while (read < content.length / 2) {
+                read += in.read(buffer);
+            }
+            in.close();
+
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                assertFalse(thread.getName().equals("decompress-large.csv.gz"));
+            }
+            assertTrue(uncaught.isEmpty());
+        } finally {
+            Thread.setDefaultUncaughtExceptionHandler(previous);
+        }
+    }
+
+    /**
+     * Test to ensure that a zip archive holding more than one file fails to be read instead of having its other
+     * files left out.
+     *
+     * @throws IOException If an error occurs during file creation.
+     */
+    @Test(timeout = 30000)
+    public void testZipWithSeveralEntriesIsRejected() throws IOException {
+        File file = temporaryFolder.newFile("trend_genome.csv.zip");
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(file.toPath()))) {
+            zip.putNextEntry(new ZipEntry("trend_genome.csv"));
+            zip.write("sampleid\tcoverage\nS1\t31.0\n".getBytes(StandardCharsets.UTF_8));
+            zip.putNextEntry(new ZipEntry("trend_exome.csv"));
+            zip.write("sampleid\tcoverage\nS2\t32.0\n".getBytes(StandardCharsets.UTF_8));
+        }
+
+        try (InputStream in = CompressedInput.open(file)) {
+            in.readAllBytes();
+            fail("Zip archive with two files was read");
+        } catch (IOException e) {
+            assertTrue(e.getCause().getMessage().startsWith("Zip archive holds more than one file"));
+        }
+    }
+}
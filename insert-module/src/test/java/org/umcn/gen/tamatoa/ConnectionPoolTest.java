@@ -0,0 +1,245 @@
+package org.umcn.gen.tamatoa;
+
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+import static org.umcn.gen.tamatoa.Fakes.proxy;
+
+public class ConnectionPoolTest {
+
+    static {
+        try {
+            DriverManager.registerDriver(new FakeDriver());
+        } catch (SQLException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Test to ensure that a borrow failing to open a connection gives its permit back, so the pool does not
+     * shrink with every failed borrow.
+     *
+     * @throws SQLException If the pool fails unexpectedly.
+     */
+    @Test
+    public void testFailedBorrowReleasesPermit() throws SQLException {
+        FakeDatabase database = FakeDatabase.create("failing");
+        database.failConnects = 1;
+        try (ConnectionPool pool = new ConnectionPool(database.url, "user", "password", 1, 1000, 60_000, 1)) {
+            try {
+                pool.borrow();
+                fail("Borrow succeeded while the database refused the connection");
+            } catch (SQLException e) {
+                assertEquals(0, pool.getActiveCount());
+            }
+
+            try (Connection connection = pool.borrow()) {
+                assertEquals(1, pool.getActiveCount());
+                assertFalse(connection.isClosed());
+            }
+            assertEquals(0, pool.getActiveCount());
+        }
+    }
+
+    /**
+     * Test to ensure that a borrow fails after the acquire timeout when all connections are in use, and that
+     * the returned connection is handed out again.
+     *
+     * @throws SQLException If the pool fails unexpectedly.
+     */
+    @Test(timeout = 10000)
+    public void testBorrowTimesOutWhenPoolIsExhausted() throws SQLException {
+        FakeDatabase database = FakeDatabase.create("exhausted");
+        try (ConnectionPool pool = new ConnectionPool(database.url, "user", "password", 1, 200, 60_000, 1)) {
+            Connection borrowed = pool.borrow();
+            long startTime = System.nanoTime();
+            try {
+                pool.borrow();
+                fail("Borrow succeeded while the only connection was in use");
+            } catch (SQLException e) {
+                assertTrue(e.getMessage().startsWith("Timed out after 200 ms"));
+                assertTrue(System.nanoTime() - startTime >= 150_000_000L);
+            }
+            assertEquals(1, pool.getActiveCount());
+
+            borrowed.close();
+            try (Connection connection = pool.borrow()) {
+                assertFalse(connection.isClosed());
+            }
+            assertEquals(1, database.connections.size());
+        }
+    }
+
+    /**
+     * Test to ensure that connections idle for longer than the idle timeout are closed by the evictor.
+     *
+     * @throws Exception If the pool fails unexpectedly or the wait is interrupted.
+     */
+    @Test(timeout = 10000)
+    public void testIdleConnectionsAreEvicted() throws Exception {
+        FakeDatabase database = FakeDatabase.create("idle");
+        try (ConnectionPool pool = new ConnectionPool(database.url, "user", "password", 2, 1000, 100, 1)) {
+            Connection first = pool.borrow();
+            Connection second = pool.borrow();
+            first.close();
+            second.close();
+            assertEquals(2, pool.getIdleCount());
+
+            while (pool.getIdleCount() > 0) {
+                Thread.sleep(20);
+            }
+            for (FakeConnection connection : database.connections) {
+                assertTrue(connection.closed);
+            }
+        }
+    }
+
+    /**
+     * Test to ensure that an idle connection that is no longer valid, and a connection that failed with a
+     * connection error, are closed instead of being handed out again.
+     *
+     * @throws SQLException If the pool fails unexpectedly.
+     */
+    @Test
+    public void testInvalidAndBrokenConnectionsAreNotReused() throws SQLException {
+        FakeDatabase database = FakeDatabase.create("broken");
+        try (ConnectionPool pool = new ConnectionPool(database.url, "user", "password", 1, 1000, 60_000, 1)) {
+            pool.borrow().close();
+            database.connections.get(0).valid = false;
+            try (Connection connection = pool.borrow()) {
+                assertFalse(connection.isClosed());
+            }
+            assertEquals(2, database.connections.size());
+            assertTrue(database.connections.get(0).closed);
+
+            database.connections.get(1).failure = new SQLException("Connection reset", "08006");
+            try (Connection connection = pool.borrow()) {
+                connection.createStatement();
+                fail("Statement created on a broken connection");
+            } catch (SQLException e) {
+                assertEquals("08006", e.getSQLState());
+            }
+            assertTrue(database.connections.get(1).closed);
+            assertEquals(0, pool.getIdleCount());
+        }
+    }
+
+    /**
+     * A database the fake driver connects to, keeping the connections it opened.
+     */
+    private static final class FakeDatabase {
+        private static final Map<String, FakeDatabase> DATABASES = new ConcurrentHashMap<>();
+
+        private final String url;
+        private final List<FakeConnection> connections = new ArrayList<>();
+        private int failConnects;
+
+        private FakeDatabase(String url) {
+            this.url = url;
+        }
+
+        static FakeDatabase create(String name) {
+            FakeDatabase database = new FakeDatabase("jdbc:fake:" + name);
+            DATABASES.put(database.url, database);
+            return database;
+        }
+
+        synchronized Connection connect() throws SQLException {
+            if (failConnects > 0) {
+                failConnects--;
+                throw new SQLException("Connection refused", "08001");
+            }
+            FakeConnection connection = new FakeConnection();
+            connections.add(connection);
+            return connection.open();
+        }
+    }
+
+    /**
+     * The state of a physical connection behind the pool.
+     */
+    private static final class FakeConnection {
+        private volatile boolean valid = true;
+        private volatile boolean closed;
+        private volatile SQLException failure;
+        private boolean autoCommit = true;
+
+        Connection open() {
+            return proxy(Connection.class, (method, args) -> {
+                switch (method) {
+                    case "isValid":
+                        return valid && !closed;
+                    case "isClosed":
+                        return closed;
+                    case "close":
+                        closed = true;
+                        return null;
+                    case "getAutoCommit":
+                        return autoCommit;
+                    case "setAutoCommit":
+                        autoCommit = (Boolean) args[0];
+                        return null;
+                    default:
+                        if (failure != null) {
+                            throw failure;
+                        }
+                        return null;
+                }
+            });
+        }
+    }
+
+    /**
+     * A JDBC driver for the {@code jdbc:fake:} URLs of the fake databases.
+     */
+    public static final class FakeDriver implements Driver {
+        @Override
+        public Connection connect(String url, Properties info) throws SQLException {
+            FakeDatabase database = FakeDatabase.DATABASES.get(url);
+            return database != null ? database.connect() : null;
+        }
+
+        @Override
+        public boolean acceptsURL(String url) {
+            return url.startsWith("jdbc:fake:");
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        @Override
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+    }
+}
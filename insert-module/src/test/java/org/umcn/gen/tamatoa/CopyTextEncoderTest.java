@@ -0,0 +1,90 @@
+package org.umcn.gen.tamatoa;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CopyTextEncoderTest {
+
+    /**
+     * Test to check that fields are separated by tabs, rows end with a newline and null is written as \N.
+     *
+     * @throws IOException If the encoder fails to write.
+     */
+    @Test
+    public void testFieldsAndNull() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CopyTextEncoder encoder = new CopyTextEncoder(out);
+
+        encoder.number(42);
+        encoder.text("sample");
+        encoder.text(null);
+        encoder.date(LocalDate.of(2024, 6, 10));
+        encoder.endRow();
+        encoder.flush();
+
+        assertEquals("42\tsample\t\\N\t2024-06-10\n", out.toString(StandardCharsets.UTF_8));
+        assertEquals(1, encoder.getRowCount());
+    }
+
+    /**
+     * Test to check that backslashes and control characters in text fields are escaped.
+     *
+     * @throws IOException If the encoder fails to write.
+     */
+    @Test
+    public void testTextEscaping() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CopyTextEncoder encoder = new CopyTextEncoder(out);
+
+        encoder.text("a\tb\nc\\d\re");
+        encoder.endRow();
+        encoder.flush();
+
+        assertEquals("a\\tb\\nc\\\\d\\re\n", out.toString(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Test to check that array elements are quoted and escaped for both the array and the COPY layer,
+     * and that non-ASCII characters are written as UTF-8.
+     *
+     * @throws IOException If the encoder fails to write.
+     */
+    @Test
+    public void testTextArray() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CopyTextEncoder encoder = new CopyTextEncoder(out);
+
+        encoder.textArray(List.of("plain", "quo\"te", "back\\slash", "≥30x"));
+        encoder.endRow();
+        encoder.flush();
+
+        assertEquals("{\"plain\",\"quo\\\\\"te\",\"back\\\\\\\\slash\",\"≥30x\"}\n", out.toString(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Test to check that a metric row is split into a double precision[] and a text[] field, with NULL for the
+     * elements that belong to the other array.
+     *
+     * @throws IOException If the encoder fails to write.
+     */
+    @Test
+    public void testNumberAndTextArraysWithNulls() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CopyTextEncoder encoder = new CopyTextEncoder(out);
+
+        encoder.numberArray(Arrays.asList("42", null, "1.0E10"));
+        encoder.textArray(Arrays.asList(null, "pass", null));
+        encoder.endRow();
+        encoder.flush();
+
+        assertEquals("{42,NULL,1.0E10}\t{NULL,\"pass\",NULL}\n", out.toString(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,133 @@
+package org.umcn.gen.tamatoa;
+
+import org.jooq.DSLContext;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.umcn.gen.tamatoa.Fakes.proxy;
+
+public class CsvDataInserterTest {
+
+    /**
+     * Test to ensure that the samples of an LRS run written in one transaction, as with --commit=file, insert the
+     * run metrics once and add them to the monthly rollup once, instead of violating the primary key of
+     * Run_Quality_Metrics with the second sample.
+     */
+    @Test
+    public void testRunMetricsOfTwoSampleLrsFileInOneTransaction() {
+        IdentityCache identityCache = new IdentityCache();
+        identityCache.putMetricKeyId("read_n50", (short) 1);
+        identityCache.putMetricKeyId("flowcell_type", (short) 2);
+        RunMetricsTable table = new RunMetricsTable();
+        DSLContext txDsl = table.dsl();
+
+        List<CsvData> rows = List.of(lrsRow("S1"), lrsRow("S2"));
+        MonthlyRollup.Increments rollup = new MonthlyRollup.Increments();
+        int inserted = 0;
+        for (CsvData row : rows) {
+            inserted += CsvDataInserter.insertRunQualityMetrics(txDsl, row, 7, identityCache, rollup);
+        }
+        rollup.write(txDsl);
+
+        assertEquals(2, inserted);
+        assertEquals(Set.of("7:1", "7:2"), table.rows);
+        assertEquals(1, table.rollups.size());
+        Object[] summary = table.rollups.get(0);
+        assertArrayEquals(new Short[]{1}, (Short[]) summary[0]);
+        assertArrayEquals(new Long[]{1L}, (Long[]) summary[3]);
+        assertArrayEquals(new Double[]{15000.0}, (Double[]) summary[4]);
+    }
+
+    /**
+     * Test to ensure that a batch size whose statements would bind more than the 65535 parameters PostgreSQL
+     * accepts is rejected up front, on the command line and by the inserter, instead of failing every sample.
+     */
+    @Test
+    public void testBatchSizeAboveBindParameterLimitIsRejected() {
+        int limit = CsvDataInserter.MAX_BATCH_SIZE;
+        assertEquals(limit, IngestOptions.parse(new String[]{"--batch-size=" + limit}).getBatchSize());
+        try {
+            IngestOptions.parse(new String[]{"--batch-size=" + (limit + 1)});
+            fail("Batch size above the limit was accepted on the command line");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains(Integer.toString(limit)));
+        }
+        try {
+            new CsvDataInserter(null, 16384);
+            fail("Batch size above the limit was accepted by the inserter");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains(Integer.toString(limit)));
+        }
+    }
+
+    private static CsvData lrsRow(String sampleId) {
+        Map<String, Object> qualityData = new LinkedHashMap<>();
+        qualityData.put("read_n50", "15000");
+        qualityData.put("flowcell_type", "FLO-PRO114M");
+        return new CsvData("lrs.csv", "LRS", sampleId, "RUN1", LocalDate.of(2024, 6, 10), qualityData);
+    }
+
+    /**
+     * The Run_Quality_Metrics table with its primary key on experiment and metric key, and the metric values
+     * added to the monthly rollup, behind the plain SQL statements of the inserter.
+     */
+    private static final class RunMetricsTable {
+        private final Set<String> rows = new HashSet<>();
+        private final List<Object[]> rollups = new ArrayList<>();
+
+        DSLContext dsl() {
+            return proxy(DSLContext.class, (method, args) -> {
+                String sql = (String) args[0];
+                Object[] bindings = (Object[]) args[1];
+                if (method.equals("fetch") && sql.startsWith("INSERT INTO Run_Quality_Metrics")) {
+                    return insert(sql, bindings);
+                }
+                if (method.equals("execute") && sql.startsWith("INSERT INTO Monthly_Metric_Summary")) {
+                    rollups.add(bindings);
+                    return 1;
+                }
+                throw new UnsupportedOperationException(sql);
+            });
+        }
+
+        private Result<Record> insert(String sql, Object[] bindings) {
+            long experimentId = (Long) bindings[0];
+            Short[] keys = (Short[]) bindings[1];
+            Double[] numbers = (Double[]) bindings[2];
+            List<Record> inserted = new ArrayList<>();
+            for (int i = 0; i < keys.length; i++) {
+                if (!rows.add(experimentId + ":" + keys[i])) {
+                    if (!sql.contains("ON CONFLICT DO NOTHING")) {
+                        throw new IllegalStateException("duplicate key value violates unique constraint \"run_quality_metrics_pk\"");
+                    }
+                    continue;
+                }
+                Object[] values = {keys[i], numbers[i]};
+                inserted.add(proxy(Record.class, (method, args) -> values[(Integer) args[0]]));
+            }
+            // Only the List methods of the result are used
+            @SuppressWarnings("unchecked")
+            Result<Record> result = (Result<Record>) Proxy.newProxyInstance(Result.class.getClassLoader(),
+                    new Class<?>[]{Result.class}, (proxy, method, args) -> {
+                        try {
+                            return method.invoke(inserted, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    });
+            return result;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.umcn.gen.tamatoa;
+
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class CsvDataTest {
+
+    /**
+     * Test to check that numbers and text are kept apart and read back in their canonical form.
+     */
+    @Test
+    public void testValuesByIndex() {
+        Map<String, Object> qualityData = new LinkedHashMap<>();
+        qualityData.put("run_id", "RUN1");
+        qualityData.put("coverage", "007");
+        qualityData.put("mean_quality", "2.50");
+        qualityData.put("pass_filter", "yes");
+        CsvData row = new CsvData("file.csv", "WGS", "S1", "EXP1", LocalDate.of(2024, 6, 10), qualityData);
+        RowSchema schema = row.getSchema();
+
+        int coverage = schema.indexOf("coverage");
+        assertTrue(row.isNumber(coverage));
+        assertEquals(7.0, row.getNumber(coverage), 0.0);
+        assertEquals("7", row.getString(coverage));
+        assertEquals("2.5", row.getValue("mean_quality"));
+        assertEquals("yes", row.getText(schema.indexOf("pass_filter")));
+        assertNull(row.getNumberOrNull(schema.indexOf("pass_filter")));
+        assertFalse(schema.isMetric(schema.indexOf("run_id")));
+        assertTrue(schema.isMetric(coverage));
+        assertNull(row.getValue("missing"));
+        assertFalse(row.isEmpty());
+    }
+
+    /**
+     * Test to ensure that iterating a row visits only the columns with a value, across bitmap words.
+     */
+    @Test
+    public void testNextIndexSkipsMissingValues() {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 150; i++) {
+            names.add("metric_" + i);
+        }
+        CsvData row = new CsvData("file.csv", "WGS", "S1", "EXP1", null, RowSchema.of(names));
+        assertTrue(row.isEmpty());
+        assertEquals(-1, row.nextIndex(0));
+
+        row.setNumber(3, 1.5, false);
+        row.setText(64, "high");
+        row.setNumber(149, 12, true);
+
+        List<Integer> visited = new ArrayList<>();
+        for (int i = row.nextIndex(0); i >= 0; i = row.nextIndex(i + 1)) {
+            visited.add(i);
+        }
+        assertEquals(List.of(3, 64, 149), visited);
+        assertEquals("12", row.getString(149));
+        assertFalse(row.has(65));
+
+        row.setNumber(64, 3, true);
+        assertTrue(row.isNumber(64));
+        assertNull(row.getText(64));
+    }
+}
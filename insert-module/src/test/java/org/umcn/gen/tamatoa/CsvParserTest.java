@@ -0,0 +1,262 @@
+package org.umcn.gen.tamatoa;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class CsvParserTest {
+
+    private static final String WGS_HEADER = "sampleid\texperiment_name\tanalysis_date\tcoverage";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Test to check that the rows of a file are read in order with their special columns split off.
+     *
+     * @throws IOException If an error occurs during file creation or reading.
+     */
+    @Test
+    public void testReadCsvFile() throws IOException {
+        File file = createWgsFile(3);
+
+        List<CsvData> rows = CsvParser.readCsvFile(file, DataType.WGS);
+
+        assertEquals(3, rows.size());
+        assertEquals("S1", rows.get(0).getSampleId());
+        assertEquals("EXP1", rows.get(0).getExperimentName());
+        assertEquals(LocalDate.of(2024, 6, 10), rows.get(0).getAnalysisDate());
+        assertEquals("31", rows.get(0).getValue("coverage"));
+        assertEquals("S3", rows.get(2).getSampleId());
+    }
+
+    /**
+     * Test to ensure that rows parsed ahead on a separate thread are handed over completely and in order.
+     *
+     * @throws IOException If an error occurs during file creation or reading.
+     */
+    @Test
+    public void testHandoffPreservesRowOrder() throws IOException {
+        File file = createWgsFile(100);
+
+        List<String> sampleIds = new ArrayList<>();
+        try (CsvRowHandoff handoff = new CsvRowHandoff(CsvParser.openCsvFile(file, DataType.WGS), 4)) {
+            handoff.forEachRemaining(row -> sampleIds.add(row.getSampleId()));
+        }
+
+        assertEquals(100, sampleIds.size());
+        for (int i = 0; i < sampleIds.size(); i++) {
+            assertEquals("S" + (i + 1), sampleIds.get(i));
+        }
+    }
+
+    /**
+     * Test to ensure that the LRS header mapping applies to every row, not only the first one.
+     *
+     * @throws IOException If an error occurs during file creation or reading.
+     */
+    @Test
+    public void testLrsExperimentNameOnEveryRow() throws IOException {
+        File file = temporaryFolder.newFile("lrs.csv");
+        Files.writeString(file.toPath(), "run_name,experiment_name,sample_name,transfer_complete,read_count\n"
+                + "RUN1,ignored,S1,07.28.2024 07:58,100\n"
+                + "RUN1,ignored,S2,07.28.2024 07:58,200\n");
+
+        List<CsvData> rows = CsvParser.readCsvFile(file, DataType.LRS);
+
+        assertEquals(2, rows.size());
+        for (CsvData row : rows) {
+            assertEquals("RUN1", row.getExperimentName());
+            assertNotNull(row.getAnalysisDate());
+        }
+        assertEquals("200", rows.get(1).getValue("read_count"));
+    }
+
+    /**
+     * Test to ensure that an empty file yields no rows instead of an error.
+     *
+     * @throws IOException If an error occurs during file creation or reading.
+     */
+    @Test
+    public void testEmptyFileHasNoRows() throws IOException {
+        File file = temporaryFolder.newFile("empty.csv");
+
+        try (CsvRowReader reader = CsvParser.openCsvFile(file, DataType.WGS)) {
+            assertFalse(reader.hasNext());
+        }
+    }
+
+    /**
+     * Test to check that only the lines between the ingested offset and the limit are read, with the header
+     * still read from the start of the file.
+     *
+     * @throws IOException If an error occurs during file creation or reading.
+     */
+    @Test
+    public void testReadAppendedLines() throws IOException {
+        File file = createWgsFile(3);
+        long ingestedSize = file.length();
+        Files.writeString(file.toPath(), "S4\tEXP2\t11-06-2024\t34.0\nS5\tEXP2\t11-06-2024\t35.0\n", StandardOpenOption.APPEND);
+        long checkedSize = file.length();
+        Files.writeString(file.toPath(), "S6\tEXP2\t11-06-2024\t36.0\n", StandardOpenOption.APPEND);
+
+        List<CsvData> rows = new ArrayList<>();
+        try (CsvRowReader reader = CsvParser.openCsvFile(file, DataType.WGS, ingestedSize, checkedSize)) {
+            reader.forEachRemaining(rows::add);
+            assertEquals(2, reader.getLineCount());
+        }
+
+        assertEquals(2, rows.size());
+        assertEquals("S4", rows.get(0).getSampleId());
+        assertEquals(LocalDate.of(2024, 6, 11), rows.get(0).getAnalysisDate());
+        assertEquals("35", rows.get(1).getValue("coverage"));
+    }
+
+    /**
+     * Test to ensure that parsing memory-mapped chunks in parallel hands out the same rows in the same order as
+     * reading the file line by line, also when lines end in a carriage return and chunks end mid-line.
+     *
+     * @throws IOException If an error occurs during file creation or reading.
+     */
+    @Test
+    public void testParallelChunksMatchLineByLine() throws IOException {
+        File file = createWgsFile(500);
+        Files.writeString(file.toPath(), "S501\tEXP1\t10-06-2024\t531.0\r\n\nS502\tEXP1\t10-06-2024\tNA", StandardOpenOption.APPEND);
+
+        List<CsvData> expected = CsvParser.readCsvFile(file, DataType.WGS);
+        List<CsvData> rows = new ArrayList<>();
+        try (CsvRowReader reader = new CsvRowReader(file, DataType.WGS, 0, Long.MAX_VALUE, 3, 0, 256)) {
+            reader.forEachRemaining(rows::add);
+            assertEquals(503, reader.getLineCount());
+        }
+
+        assertEquals(expected.size(), rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            assertEquals(expected.get(i).getSampleId(), rows.get(i).getSampleId());
+            assertEquals(expected.get(i).getAnalysisDate(), rows.get(i).getAnalysisDate());
+            assertEquals(expected.get(i).getValue("coverage"), rows.get(i).getValue("coverage"));
+        }
+        assertEquals("S501", rows.get(500).getSampleId());
+        assertTrue(rows.get(501).isEmpty());
+        assertEquals("S502", rows.get(502).getSampleId());
+    }
+
+    /**
+     * Test to ensure that the parallel chunks split lines at carriage returns and reject malformed UTF-8 like
+     * reading the file line by line, so a file is parsed the same regardless of its size.
+     *
+     * @throws IOException If an error occurs during file creation or reading.
+     */
+    @Test
+    public void testParallelChunksSplitAndDecodeLikeLineByLine() throws IOException {
+        StringBuilder content = new StringBuilder(WGS_HEADER).append("\r\n");
+        for (int i = 1; i <= 50; i++) {
+            content.append('S').append(i).append("\tEXP1\t10-06-2024\t").append(30 + i).append(i % 10 == 0 ? ".0\r" : ".0\r\n");
+        }
+        File file = temporaryFolder.newFile("wgs_crlf.csv");
+        Files.writeString(file.toPath(), content.toString());
+
+        List<CsvData> expected = CsvParser.readCsvFile(file, DataType.WGS);
+        List<CsvData> rows = new ArrayList<>();
+        try (CsvRowReader reader = new CsvRowReader(file, DataType.WGS, 0, Long.MAX_VALUE, 3, 0, 64)) {
+            reader.forEachRemaining(rows::add);
+        }
+        assertEquals(50, expected.size());
+        assertEquals(expected.size(), rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            assertEquals(expected.get(i).getSampleId(), rows.get(i).getSampleId());
+            assertEquals(expected.get(i).getValue("coverage"), rows.get(i).getValue("coverage"));
+            assertTrue(rows.get(i).isNumber(rows.get(i).getSchema().indexOf("coverage")));
+        }
+
+        // 0xC3 0x28 is not valid UTF-8, it follows enough lines for the header to be read without reaching it
+        File malformed = createWgsFile(500);
+        Files.writeString(malformed.toPath(), "S", StandardOpenOption.APPEND);
+        Files.write(malformed.toPath(), new byte[]{(byte) 0xC3, 0x28}, StandardOpenOption.APPEND);
+        Files.writeString(malformed.toPath(), "\tEXP1\t10-06-2024\t32.0\n", StandardOpenOption.APPEND);
+        for (int parseThreads : new int[]{1, 3}) {
+            try (CsvRowReader reader = new CsvRowReader(malformed, DataType.WGS, 0, Long.MAX_VALUE, parseThreads, 0, 64)) {
+                reader.forEachRemaining(row -> { });
+                fail("Malformed UTF-8 read with " + parseThreads + " parse threads");
+            } catch (UncheckedIOException e) {
+                assertTrue(e.getCause() instanceof CharacterCodingException);
+            }
+        }
+    }
+
+    /**
+     * Test to check that gzip and zip compressed files are read like the plain file, across decompressed blocks
+     * and concatenated gzip members, also when more parse threads are configured.
+     *
+     * @throws IOException If an error occurs during file creation or reading.
+     */
+    @Test
+    public void testReadCompressedFiles() throws IOException {
+        File file = createWgsFile(20000);
+        byte[] content = Files.readAllBytes(file.toPath());
+        int half = content.length / 2;
+
+        File gzipFile = temporaryFolder.newFile("wgs.csv.gz");
+        try (OutputStream out = Files.newOutputStream(gzipFile.toPath())) {
+            try (GZIPOutputStream first = new GZIPOutputStream(out) {
+                @Override
+                public void close() throws IOException {
+                    finish();
+                }
+            }) {
+                first.write(content, 0, half);
+            }
+            try (GZIPOutputStream second = new GZIPOutputStream(out)) {
+                second.write(content, half, content.length - half);
+            }
+        }
+        File zipFile = temporaryFolder.newFile("wgs.CSV.ZIP");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zipFile.toPath()))) {
+            out.putNextEntry(new ZipEntry("wgs.csv"));
+            out.write(content);
+            out.closeEntry();
+        }
+        assertTrue(FolderReader.isCsvFile(gzipFile));
+        assertTrue(FolderReader.isCsvFile(zipFile));
+
+        List<CsvData> expected = CsvParser.readCsvFile(file, DataType.WGS);
+        for (File compressed : List.of(gzipFile, zipFile)) {
+            List<CsvData> rows = new ArrayList<>();
+            try (CsvRowReader reader = new CsvRowReader(compressed, DataType.WGS, 0, compressed.length(), 4, 0, 256)) {
+                reader.forEachRemaining(rows::add);
+            }
+            assertEquals(expected.size(), rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                assertEquals(expected.get(i).getSampleId(), rows.get(i).getSampleId());
+                assertEquals(expected.get(i).getValue("coverage"), rows.get(i).getValue("coverage"));
+            }
+        }
+    }
+
+    private File createWgsFile(int rowCount) throws IOException {
+        StringBuilder content = new StringBuilder(WGS_HEADER).append('\n');
+        for (int i = 1; i <= rowCount; i++) {
+            content.append('S').append(i).append("\tEXP1\t10-06-2024\t").append(30 + i).append(".0\n");
+        }
+        File file = temporaryFolder.newFile("wgs_" + rowCount + ".csv");
+        Files.writeString(file.toPath(), content.toString());
+        return file;
+    }
+}
@@ -0,0 +1,33 @@
+package org.umcn.gen.tamatoa;
+
+import org.junit.Test;
+
+import java.time.LocalDate;
+
+import static org.junit.Assert.*;
+
+public class DateResolverTest {
+
+    /**
+     * Test to check that the dates of every DataType resolve to a LocalDate without their time of day.
+     */
+    @Test
+    public void testResolve() {
+        assertEquals(LocalDate.of(2024, 6, 10), DateResolver.forDataType(DataType.WGS).resolve("10-06-2024"));
+        assertEquals(LocalDate.of(2024, 6, 1), DateResolver.forDataType(DataType.WGS).resolve("1-6-2024"));
+        assertEquals(LocalDate.of(2024, 7, 28), DateResolver.forDataType(DataType.LRS).resolve("07.28.2024 07:58"));
+        assertNull(DateResolver.forDataType(DataType.WGS).resolve("2024/06/10"));
+        assertNull(DateResolver.forDataType(DataType.WES).resolve("10-06-2024"));
+    }
+
+    /**
+     * Test to check that a date is taken from a filename and that an invalid date is ignored.
+     */
+    @Test
+    public void testFromFilename() {
+        assertEquals(LocalDate.of(2024, 1, 11), DateResolver.fromFilename("trend_exome_2024_01_11.csv"));
+        assertEquals(LocalDate.of(2024, 1, 11), DateResolver.fromFilename("trend_exome_2024-01-11.csv"));
+        assertNull(DateResolver.fromFilename("trend_exome_2024_13_11.csv"));
+        assertNull(DateResolver.fromFilename("trend_exome.csv"));
+    }
+}
@@ -0,0 +1,36 @@
+package org.umcn.gen.tamatoa;
+
+import java.lang.reflect.Proxy;
+
+/**
+ * Builds fakes of JDBC and jOOQ interfaces for tests, whose calls are answered by method name, so the plain
+ * SQL the ingest sends can be checked without a database.
+ */
+final class Fakes {
+
+    /**
+     * Answers a call on a fake.
+     */
+    interface Handler {
+        /**
+         * @param method The name of the method called.
+         * @param args   The arguments of the call, null when it has none.
+         * @return The result of the call.
+         * @throws Throwable The error the call fails with.
+         */
+        Object invoke(String method, Object[] args) throws Throwable;
+    }
+
+    private Fakes() {
+    }
+
+    /**
+     * @param type    The interface to fake.
+     * @param handler Answers the calls on the fake.
+     * @return A fake of the interface.
+     */
+    static <T> T proxy(Class<T> type, Handler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> handler.invoke(method.getName(), args)));
+    }
+}
@@ -0,0 +1,84 @@
+package org.umcn.gen.tamatoa;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.*;
+
+public class FileManifestTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Test to check that the hash of the ingested prefix of a grown file equals the hash of the file before
+     * lines were appended, so the prefix is recognized as unchanged.
+     *
+     * @throws IOException If an error occurs during file creation or reading.
+     */
+    @Test
+    public void testPrefixHashOfAppendedFile() throws IOException {
+        File file = temporaryFolder.newFile("trend_genome.csv");
+        Files.writeString(file.toPath(), "sampleid\tcoverage\nS1\t31.0\n");
+        long ingestedSize = file.length();
+        String ingestedHash = FileManifest.hash(file, ingestedSize, 0).content();
+        String headerHash = FileManifest.headerHash(file);
+
+        Files.writeString(file.toPath(), "S2\t32.0\n", StandardOpenOption.APPEND);
+        FileManifest.Hashes hashes = FileManifest.hash(file, file.length(), ingestedSize);
+
+        assertEquals(ingestedHash, hashes.prefix());
+        assertFalse(ingestedHash.equals(hashes.content()));
+        assertEquals(headerHash, FileManifest.headerHash(file));
+    }
+
+    /**
+     * Test to ensure that an edit anywhere in the ingested prefix of a large file is detected, also far before
+     * its end, both when lines were appended and when the size of the file is unchanged.
+     *
+     * @throws IOException If an error occurs during file creation or reading.
+     */
+    @Test
+    public void testEditBeforeEndOfLargeFileIsDetected() throws IOException {
+        File file = temporaryFolder.newFile("trend_rna.csv");
+        String line = "S1\t31.0\n";
+        Files.writeString(file.toPath(), "sampleid\tcoverage\n" + line.repeat(300_000 / line.length()));
+        long ingestedSize = file.length();
+        String ingestedHash = FileManifest.hash(file, ingestedSize, 0).content();
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(100);
+            raf.write('9');
+        }
+        assertFalse(ingestedHash.equals(FileManifest.hash(file, file.length(), 0).content()));
+
+        Files.writeString(file.toPath(), "S2\t32.0\n", StandardOpenOption.APPEND);
+        FileManifest.Hashes hashes = FileManifest.hash(file, file.length(), ingestedSize);
+        assertNotNull(hashes.prefix());
+        assertFalse(ingestedHash.equals(hashes.prefix()));
+    }
+
+    /**
+     * Test to ensure that a prefix ending in the middle of a line is not reused, as that line may have been
+     * extended instead of new lines being appended.
+     *
+     * @throws IOException If an error occurs during file creation or reading.
+     */
+    @Test
+    public void testPrefixWithoutLineBreakIsNotReused() throws IOException {
+        File file = temporaryFolder.newFile("trend_exome.csv");
+        Files.writeString(file.toPath(), "sampleid\tcoverage\nS1\t31");
+        long ingestedSize = file.length();
+
+        Files.writeString(file.toPath(), ".5\nS2\t32.0\n", StandardOpenOption.APPEND);
+
+        assertNull(FileManifest.hash(file, file.length(), ingestedSize).prefix());
+    }
+}
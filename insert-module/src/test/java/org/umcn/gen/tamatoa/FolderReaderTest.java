@@ -104,6 +104,26 @@ public class FolderReaderTest {
     }
 
 
+    /**
+     * Test to ensure that a file that can not be read is counted as failed and does not keep the files after it
+     * from being processed.
+     *
+     * @throws IOException If an error occurs during file creation.
+     */
+    @Test
+    public void testUnreadableFileDoesNotStopTheFilesAfterIt() throws IOException {
+        File tempDir = temporaryFolder.newFolder("corrupt");
+        createTempFile(tempDir, "trend_genome_1.csv.gz", "not gzip");
+        createTempFile(tempDir, "trend_genome_2.csv.gz", "not gzip either");
+        List<File> csvFiles = FolderReader.checkFolder(tempDir);
+        long failedBefore = IngestMetrics.get().getCount(DataType.WGS.name(), IngestMetrics.Counter.FAILED_FILES);
+
+        long samples = FolderReader.processFiles(csvFiles, DataType.WGS, new IngestOptions(), null, new IdentityCache());
+
+        assertEquals(0, samples);
+        assertEquals(failedBefore + 2, IngestMetrics.get().getCount(DataType.WGS.name(), IngestMetrics.Counter.FAILED_FILES));
+    }
+
     /**
      * Helper method to create a temporary file with specified content in the given directory.
      *
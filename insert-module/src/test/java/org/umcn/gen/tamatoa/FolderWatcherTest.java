@@ -0,0 +1,130 @@
+package org.umcn.gen.tamatoa;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FolderWatcherTest {
+
+    private static final long QUIET_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Test to ensure that a changed file is only moved to the backlog once the quiet period has passed.
+     *
+     * @throws Exception If the file can not be written or the backlog wait is interrupted.
+     */
+    @Test
+    public void testFileIsQueuedAfterQuietPeriod() throws Exception {
+        FolderWatcher watcher = createWatcher(10);
+        File file = createCsvFile("run1.csv");
+
+        watcher.noteChange(file, DataType.WGS);
+        watcher.promoteStableFiles(System.nanoTime());
+        assertNull(watcher.takeFromBacklog(0));
+
+        watcher.promoteStableFiles(System.nanoTime() + QUIET_NANOS);
+        assertEquals(file, watcher.takeFromBacklog(0).file());
+        assertNull(watcher.takeFromBacklog(0));
+    }
+
+    /**
+     * Test to ensure that a file that is still being written restarts its quiet period instead of being queued
+     * halfway.
+     *
+     * @throws Exception If the file can not be written or the backlog wait is interrupted.
+     */
+    @Test
+    public void testChangeDuringQuietPeriodRestartsIt() throws Exception {
+        FolderWatcher watcher = createWatcher(10);
+        File file = createCsvFile("run1.csv");
+
+        watcher.noteChange(file, DataType.WGS);
+        Files.writeString(file.toPath(), "value3,value4\n", StandardOpenOption.APPEND);
+        Thread.sleep(10);
+        long changeSeen = System.nanoTime();
+        // Without the restart the first change would have been quiet for the full period by now
+        watcher.promoteStableFiles(changeSeen + QUIET_NANOS - TimeUnit.MILLISECONDS.toNanos(1));
+        assertNull(watcher.takeFromBacklog(0));
+
+        watcher.promoteStableFiles(System.nanoTime() + QUIET_NANOS);
+        FolderWatcher.PendingFile pending = watcher.takeFromBacklog(0);
+        assertEquals(file, pending.file());
+        assertEquals(file.length(), pending.state().size());
+    }
+
+    /**
+     * Test to check that files that do not fit in a full backlog stay pending and are queued on a later tick.
+     *
+     * @throws Exception If the files can not be written or the backlog wait is interrupted.
+     */
+    @Test
+    public void testFullBacklogHoldsFilesForNextTick() throws Exception {
+        FolderWatcher watcher = createWatcher(1);
+        File first = createCsvFile("run1.csv");
+        File second = createCsvFile("run2.csv");
+
+        watcher.noteChange(first, DataType.WGS);
+        watcher.noteChange(second, DataType.WGS);
+        watcher.promoteStableFiles(System.nanoTime() + QUIET_NANOS);
+        FolderWatcher.PendingFile queued = watcher.takeFromBacklog(0);
+        assertNotNull(queued);
+        assertNull(watcher.takeFromBacklog(0));
+
+        watcher.promoteStableFiles(System.nanoTime() + QUIET_NANOS);
+        FolderWatcher.PendingFile held = watcher.takeFromBacklog(0);
+        assertNotNull(held);
+        assertEquals(Set.of(first, second), Set.of(queued.file(), held.file()));
+    }
+
+    /**
+     * Test to ensure that a file changing again while it waits in the backlog or is being ingested is not
+     * queued a second time, and is queued again once its ingestion finished.
+     *
+     * @throws Exception If the file can not be written or the backlog wait is interrupted.
+     */
+    @Test
+    public void testClaimedFileIsNotQueuedTwice() throws Exception {
+        FolderWatcher watcher = createWatcher(10);
+        File file = createCsvFile("run1.csv");
+
+        watcher.noteChange(file, DataType.WGS);
+        watcher.promoteStableFiles(System.nanoTime() + QUIET_NANOS);
+        Files.writeString(file.toPath(), "value3,value4\n", StandardOpenOption.APPEND);
+        watcher.noteChange(file, DataType.WGS);
+        watcher.promoteStableFiles(System.nanoTime() + QUIET_NANOS);
+        FolderWatcher.PendingFile ingesting = watcher.takeFromBacklog(0);
+        assertNotNull(ingesting);
+        assertNull(watcher.takeFromBacklog(0));
+
+        watcher.promoteStableFiles(System.nanoTime() + QUIET_NANOS);
+        assertNull(watcher.takeFromBacklog(0));
+
+        watcher.release(ingesting);
+        watcher.promoteStableFiles(System.nanoTime() + QUIET_NANOS);
+        FolderWatcher.PendingFile again = watcher.takeFromBacklog(0);
+        assertEquals(file, again.file());
+        assertEquals(file.length(), again.state().size());
+    }
+
+    private FolderWatcher createWatcher(int backlogSize) {
+        return new FolderWatcher(IngestOptions.parse(new String[]{"--quiet-period=2", "--backlog=" + backlogSize}));
+    }
+
+    private File createCsvFile(String name) throws IOException {
+        File file = new File(temporaryFolder.getRoot(), name);
+        Files.writeString(file.toPath(), "header1,header2\nvalue1,value2\n");
+        return file;
+    }
+}
@@ -0,0 +1,69 @@
+package org.umcn.gen.tamatoa;
+
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class IdentityCacheTest {
+
+    /**
+     * Test to check that experiments are cached by their natural key and evicted by identifier.
+     */
+    @Test
+    public void testPutAndEvictExperiments() {
+        IdentityCache cache = new IdentityCache();
+        IdentityCache.ExperimentKey first = new IdentityCache.ExperimentKey("EXP1", LocalDate.of(2024, 6, 10), "WGS");
+        IdentityCache.ExperimentKey second = new IdentityCache.ExperimentKey("EXP2", LocalDate.of(2024, 6, 10), "WGS");
+        cache.putExperimentId(first, 1);
+        cache.putExperimentId(second, 2);
+
+        assertEquals(Long.valueOf(1), cache.getExperimentId(new IdentityCache.ExperimentKey("EXP1", LocalDate.of(2024, 6, 10), "WGS")));
+
+        cache.evictExperiments(List.of(1L));
+        assertNull(cache.getExperimentId(first));
+        assertEquals(Long.valueOf(2), cache.getExperimentId(second));
+    }
+
+    /**
+     * Test to check that a pending cache only publishes its entries when its transaction commits.
+     */
+    @Test
+    public void testPendingEntriesArePublishedOrDiscarded() {
+        IdentityCache cache = new IdentityCache();
+        cache.putMetricKeyId("Mean coverage", (short) 1);
+        IdentityCache.ExperimentKey key = new IdentityCache.ExperimentKey("EXP1", LocalDate.of(2024, 6, 10), "WGS");
+
+        IdentityCache rolledBack = cache.pending();
+        rolledBack.putExperimentId(key, 1);
+        rolledBack.putMetricKeyId("Q30 bases (%)", (short) 2);
+        assertEquals(Short.valueOf((short) 1), rolledBack.getMetricKeyId("Mean coverage"));
+        assertTrue(rolledBack.containsExperiment(key));
+        assertFalse(cache.containsExperiment(key));
+        rolledBack.discard();
+        assertFalse(rolledBack.containsExperiment(key));
+        assertNull(cache.getMetricKeyId("Q30 bases (%)"));
+
+        IdentityCache committed = cache.pending();
+        committed.addNgsType("WGS");
+        committed.putExperimentId(key, 2);
+        committed.publish();
+        assertTrue(cache.isKnownNgsType("WGS"));
+        assertEquals(Long.valueOf(2), cache.getExperimentId(key));
+    }
+
+    /**
+     * Test to ensure that rows lacking part of the natural key get no experiment key.
+     */
+    @Test
+    public void testExperimentKeyOfIncompleteRow() {
+        CsvData complete = new CsvData("file.csv", "WGS", "S1", "EXP1", LocalDate.of(2024, 6, 10), Map.of());
+        CsvData withoutDate = new CsvData("file.csv", "WGS", "S1", "EXP1", null, Map.of());
+
+        assertNotNull(IdentityCache.ExperimentKey.of(complete));
+        assertNull(IdentityCache.ExperimentKey.of(withoutDate));
+    }
+}
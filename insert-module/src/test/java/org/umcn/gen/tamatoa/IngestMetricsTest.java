@@ -0,0 +1,65 @@
+package org.umcn.gen.tamatoa;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class IngestMetricsTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    /**
+     * Test to check that counters are kept per DataType and latencies end up in cumulative buckets.
+     */
+    @Test
+    public void testCountersAndHistogramsInPrometheusText() {
+        IngestMetrics metrics = new IngestMetrics();
+        metrics.count("WGS", IngestMetrics.Counter.ROWS, 40);
+        metrics.count("WGS", IngestMetrics.Counter.ROWS, 2);
+        metrics.count("LRS", IngestMetrics.Counter.FILES, 1);
+        metrics.record("WGS", IngestMetrics.Stage.PARSE, 300_000);
+        metrics.record("WGS", IngestMetrics.Stage.PARSE, 2_000_000_000L);
+        metrics.roundTrip();
+
+        assertEquals(42, metrics.getCount("WGS", IngestMetrics.Counter.ROWS));
+        assertEquals(0, metrics.getCount("WES", IngestMetrics.Counter.ROWS));
+        assertEquals(1, metrics.getRoundTrips());
+
+        String text = metrics.toPrometheusText();
+        assertTrue(text.contains("# TYPE tamatoa_ingest_rows_total counter\n"));
+        assertTrue(text.contains("tamatoa_ingest_rows_total{data_type=\"WGS\"} 42\n"));
+        assertTrue(text.contains("tamatoa_ingest_files_total{data_type=\"LRS\"} 1\n"));
+        assertTrue(text.contains("tamatoa_db_round_trips_total 1\n"));
+        assertTrue(text.contains("tamatoa_ingest_stage_seconds_bucket{data_type=\"WGS\",stage=\"parse\",le=\"0.0001\"} 0\n"));
+        assertTrue(text.contains("tamatoa_ingest_stage_seconds_bucket{data_type=\"WGS\",stage=\"parse\",le=\"0.0005\"} 1\n"));
+        assertTrue(text.contains("tamatoa_ingest_stage_seconds_bucket{data_type=\"WGS\",stage=\"parse\",le=\"1\"} 1\n"));
+        assertTrue(text.contains("tamatoa_ingest_stage_seconds_bucket{data_type=\"WGS\",stage=\"parse\",le=\"+Inf\"} 2\n"));
+        assertTrue(text.contains("tamatoa_ingest_stage_seconds_sum{data_type=\"WGS\",stage=\"parse\"} 2.0003\n"));
+        assertTrue(text.contains("tamatoa_ingest_stage_seconds_count{data_type=\"WGS\",stage=\"parse\"} 2\n"));
+    }
+
+    /**
+     * Test to ensure that writing the metrics replaces the file without leaving temporary files behind.
+     */
+    @Test
+    public void testWriteToReplacesFile() throws IOException {
+        IngestMetrics metrics = new IngestMetrics();
+        metrics.count("WES", IngestMetrics.Counter.METRICS, 7);
+        Path file = tempFolder.getRoot().toPath().resolve("ingest.prom");
+        Files.writeString(file, "stale");
+
+        metrics.writeTo(file);
+
+        String text = Files.readString(file, StandardCharsets.UTF_8);
+        assertTrue(text.contains("tamatoa_ingest_metrics_total{data_type=\"WES\"} 7\n"));
+        assertEquals(1, tempFolder.getRoot().list().length);
+    }
+}
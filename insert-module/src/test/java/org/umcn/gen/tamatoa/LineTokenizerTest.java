@@ -0,0 +1,50 @@
+package org.umcn.gen.tamatoa;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LineTokenizerTest {
+
+    /**
+     * Test to check that quoted fields keep their delimiters and doubled quotes.
+     */
+    @Test
+    public void testQuotedFields() {
+        LineTokenizer tokenizer = new LineTokenizer(',');
+
+        assertEquals(3, tokenizer.tokenize("a,\"b,c\",\"say \"\"hi\"\"\""));
+        assertEquals("a", tokenizer.field(0));
+        assertEquals("b,c", tokenizer.field(1));
+        assertEquals("say \"hi\"", tokenizer.field(2));
+    }
+
+    /**
+     * Test to check that fields are trimmed, a trailing ".0" is removed and empty fields are kept.
+     */
+    @Test
+    public void testNormalization() {
+        LineTokenizer tokenizer = new LineTokenizer('\t');
+
+        assertEquals(5, tokenizer.tokenize(" 12.0 \t30.05\tNa\t\t1 000 "));
+        assertEquals("12", tokenizer.field(0));
+        assertEquals("30.05", tokenizer.field(1));
+        assertTrue(tokenizer.fieldEqualsIgnoreCase(2, "NA"));
+        assertTrue(tokenizer.isEmpty(3));
+        assertEquals("1 000", tokenizer.field(4));
+        assertEquals("1000", tokenizer.compactField(4));
+    }
+
+    /**
+     * Test to ensure that the fields of a previous, longer line do not leak into the next line.
+     */
+    @Test
+    public void testReuseAcrossLines() {
+        LineTokenizer tokenizer = new LineTokenizer(',');
+
+        tokenizer.tokenize("first,second,third");
+        assertEquals(2, tokenizer.tokenize("x,y"));
+        assertEquals("x", tokenizer.field(0));
+        assertEquals("y", tokenizer.field(1));
+    }
+}
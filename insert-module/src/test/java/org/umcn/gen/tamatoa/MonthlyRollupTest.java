@@ -0,0 +1,83 @@
+package org.umcn.gen.tamatoa;
+
+import org.jooq.DSLContext;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.umcn.gen.tamatoa.Fakes.proxy;
+
+public class MonthlyRollupTest {
+
+    /**
+     * Test to ensure that the increments of the rows of a transaction are summed per rollup row and written with
+     * one statement per table, with the rows in the order of their key, so concurrent workers lock them in the
+     * same order.
+     */
+    @Test
+    public void testIncrementsAreSummedAndWrittenInKeyOrder() {
+        MonthlyRollup.Increments rollup = new MonthlyRollup.Increments();
+        MonthlyRollup.Increments row = new MonthlyRollup.Increments();
+        row.addCounts("WGS", LocalDate.of(2024, 7, 3), 1, 1);
+        row.addMetrics("WGS", LocalDate.of(2024, 7, 3), new Double[]{30.0, null, 2.0});
+        rollup.addAll(row);
+        rollup.addCounts("WGS", LocalDate.of(2024, 6, 20), 0, 1);
+        rollup.addCounts("WES", LocalDate.of(2024, 7, 28), 0, 1);
+        rollup.addCounts("WGS", LocalDate.of(2024, 7, 15), 0, 1);
+        rollup.addMetrics("WGS", LocalDate.of(2024, 7, 15), new Double[]{10.0});
+
+        List<Statement> statements = new ArrayList<>();
+        rollup.write(recordingDsl(statements));
+
+        assertEquals(2, statements.size());
+        Object[] counts = statements.get(0).bindings();
+        assertTrue(statements.get(0).sql().startsWith("INSERT INTO Monthly_Count"));
+        assertArrayEquals(new String[]{"WES", "WGS", "WGS"}, (String[]) counts[0]);
+        assertArrayEquals(new String[]{"2024-07-01", "2024-06-01", "2024-07-01"}, (String[]) counts[1]);
+        assertArrayEquals(new Long[]{0L, 0L, 1L}, (Long[]) counts[2]);
+        assertArrayEquals(new Long[]{1L, 1L, 2L}, (Long[]) counts[3]);
+
+        Object[] metrics = statements.get(1).bindings();
+        assertTrue(statements.get(1).sql().startsWith("INSERT INTO Monthly_Metric_Summary"));
+        assertArrayEquals(new Short[]{1, 3}, (Short[]) metrics[0]);
+        assertArrayEquals(new Long[]{2L, 1L}, (Long[]) metrics[3]);
+        assertArrayEquals(new Double[]{40.0, 2.0}, (Double[]) metrics[4]);
+        assertArrayEquals(new Double[]{1000.0, 4.0}, (Double[]) metrics[5]);
+        assertArrayEquals(new Double[]{10.0, 2.0}, (Double[]) metrics[6]);
+        assertArrayEquals(new Double[]{30.0, 2.0}, (Double[]) metrics[7]);
+
+        // Written increments are not written again
+        statements.clear();
+        rollup.write(recordingDsl(statements));
+        assertTrue(statements.isEmpty());
+    }
+
+    /**
+     * Test to ensure that the months are locked before their rollup rows are removed and aggregated again,
+     * and that the aggregation replaces rows a concurrent transaction inserted instead of failing on them.
+     */
+    @Test
+    public void testRefreshLocksMonthsBeforeAggregating() {
+        List<Statement> statements = new ArrayList<>();
+        MonthlyRollup.refreshMonths(recordingDsl(statements), "WGS", List.of(LocalDate.of(2024, 7, 1)));
+
+        assertEquals(5, statements.size());
+        assertTrue(statements.get(0).sql().contains("pg_advisory_xact_lock"));
+        for (Statement statement : statements.subList(1, 5)) {
+            assertTrue(statement.sql().startsWith("DELETE") || statement.sql().contains("DO UPDATE SET"));
+        }
+    }
+
+    private record Statement(String sql, Object[] bindings) {
+    }
+
+    private static DSLContext recordingDsl(List<Statement> statements) {
+        return proxy(DSLContext.class, (method, args) -> {
+            statements.add(new Statement((String) args[0], (Object[]) args[1]));
+            return method.equals("execute") ? 1 : null;
+        });
+    }
+}
@@ -0,0 +1,71 @@
+package org.umcn.gen.tamatoa;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class NumberScannerTest {
+
+    /**
+     * Test to check that values are classified the way Integer.parseInt and Double.parseDouble would accept them.
+     */
+    @Test
+    public void testClassify() {
+        assertEquals(NumberScanner.Kind.INTEGER, NumberScanner.classify("-2147483648"));
+        assertEquals(NumberScanner.Kind.DECIMAL, NumberScanner.classify("2147483648"));
+        assertEquals(NumberScanner.Kind.DECIMAL, NumberScanner.classify("30.05"));
+        assertEquals(NumberScanner.Kind.DECIMAL, NumberScanner.classify("1.5e-3"));
+        assertEquals(NumberScanner.Kind.DECIMAL, NumberScanner.classify("NaN"));
+        assertEquals(NumberScanner.Kind.TEXT, NumberScanner.classify("RUN_001"));
+        assertEquals(NumberScanner.Kind.TEXT, NumberScanner.classify("1e"));
+        assertEquals(NumberScanner.Kind.TEXT, NumberScanner.classify("."));
+    }
+
+    /**
+     * Test to check that numbers are stored in the same canonical form as before.
+     */
+    @Test
+    public void testCanonical() {
+        assertEquals("12", NumberScanner.canonical("+0012"));
+        assertEquals("0", NumberScanner.canonical("-0"));
+        assertEquals("30.5", NumberScanner.canonical("30.50"));
+        assertEquals("1.2345678901E10", NumberScanner.canonical("12345678901"));
+        assertEquals("kit A", NumberScanner.canonical("kit A"));
+    }
+
+    /**
+     * Test to ensure that a column is locked after its sample values and that mixed columns are never locked.
+     */
+    @Test
+    public void testColumnTypesLock() {
+        ColumnTypes types = new ColumnTypes(2);
+        RowSchema schema = RowSchema.of(List.of("coverage", "kit"));
+        for (int i = 0; i < ColumnTypes.SAMPLE_VALUES; i++) {
+            CsvData row = new CsvData("trend.csv", "WGS", "S" + i, "RUN1", null, schema);
+            types.store(0, Integer.toString(i), row, 0);
+            types.store(1, i == 3 ? "n/a" : "1.5", row, 1);
+        }
+
+        assertEquals(NumberScanner.Kind.INTEGER, types.lockedKind(0));
+        assertNull(types.lockedKind(1));
+        CsvData row = new CsvData("trend.csv", "WGS", "S1", "RUN1", null, schema);
+        types.store(0, "007", row, 0);
+        assertEquals(Double.valueOf(7), row.getNumberOrNull(0));
+        types.store(0, "2.50", row, 0);
+        assertEquals(Double.valueOf(2.5), row.getNumberOrNull(0));
+    }
+
+    /**
+     * Test to check that stored values are split into numbers and text the way the metric tables store them.
+     */
+    @Test
+    public void testToDoubleOrNull() {
+        assertEquals(Double.valueOf(42), NumberScanner.toDoubleOrNull("42"));
+        assertEquals(Double.valueOf(1.0E10), NumberScanner.toDoubleOrNull("1.0E10"));
+        assertEquals(Double.valueOf(Double.NaN), NumberScanner.toDoubleOrNull("NaN"));
+        assertNull(NumberScanner.toDoubleOrNull("PASS"));
+        assertNull(NumberScanner.toDoubleOrNull("0x1p3"));
+    }
+}
@@ -0,0 +1,143 @@
+package org.umcn.gen.tamatoa;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.umcn.gen.tamatoa.Fakes.proxy;
+
+public class PartitionManagerTest {
+
+    @Before
+    public void setUp() {
+        PartitionManager.forgetPartitions();
+    }
+
+    @After
+    public void tearDown() {
+        PartitionManager.forgetPartitions();
+    }
+
+    /**
+     * Test to ensure that a partition created by a load that is rolled back is created again by the next load
+     * of the same year, instead of being taken for existing.
+     *
+     * @throws SQLException If the fake database fails.
+     */
+    @Test
+    public void testRolledBackLoadFollowedBySuccessfulLoad() throws SQLException {
+        FakeCatalog catalog = new FakeCatalog("sample");
+        Connection connection = catalog.connection();
+        List<LocalDate> dates = List.of(LocalDate.of(2024, 6, 10));
+
+        connection.setAutoCommit(false);
+        PartitionManager.ensurePartitions(connection, dates);
+        assertEquals(List.of("CREATE sample_y2024"), catalog.statements);
+        PartitionManager.rollback(connection);
+        assertTrue(catalog.partitions.isEmpty());
+
+        catalog.statements.clear();
+        PartitionManager.ensurePartitions(connection, dates);
+        connection.commit();
+        assertEquals(List.of("CREATE sample_y2024"), catalog.statements);
+        assertEquals(Set.of("sample_y2024"), catalog.partitions);
+
+        catalog.statements.clear();
+        PartitionManager.ensurePartitions(connection, dates);
+        assertTrue(catalog.statements.isEmpty());
+    }
+
+    /**
+     * A database with one partitioned table whose partitions are created in transactions.
+     */
+    private static final class FakeCatalog {
+        private final String table;
+        private final Set<String> partitions = new LinkedHashSet<>();
+        private final Set<String> uncommitted = new LinkedHashSet<>();
+        private final List<String> statements = new ArrayList<>();
+        private boolean autoCommit = true;
+
+        FakeCatalog(String table) {
+            this.table = table;
+        }
+
+        Connection connection() {
+            return proxy(Connection.class, (method, args) -> {
+                switch (method) {
+                    case "getAutoCommit":
+                        return autoCommit;
+                    case "setAutoCommit":
+                        autoCommit = (Boolean) args[0];
+                        return null;
+                    case "createStatement":
+                        return statement();
+                    case "setSavepoint":
+                        return proxy(Savepoint.class, (name, ignored) -> null);
+                    case "commit":
+                        partitions.addAll(uncommitted);
+                        uncommitted.clear();
+                        return null;
+                    case "rollback":
+                        if (args == null) {
+                            uncommitted.clear();
+                        }
+                        return null;
+                    default:
+                        return null;
+                }
+            });
+        }
+
+        private Statement statement() {
+            return proxy(Statement.class, (method, args) -> {
+                switch (method) {
+                    case "executeQuery":
+                        return partitionRows();
+                    case "execute":
+                        String partition = ((String) args[0]).split(" ")[5];
+                        statements.add("CREATE " + partition);
+                        (autoCommit ? partitions : uncommitted).add(partition);
+                        return false;
+                    default:
+                        return null;
+                }
+            });
+        }
+
+        private ResultSet partitionRows() {
+            List<String> children = new ArrayList<>(partitions);
+            if (children.isEmpty()) {
+                children.add(null);
+            }
+            Iterator<String> rows = children.iterator();
+            String[] current = new String[1];
+            return proxy(ResultSet.class, (method, args) -> {
+                switch (method) {
+                    case "next":
+                        if (!rows.hasNext()) {
+                            return false;
+                        }
+                        current[0] = rows.next();
+                        return true;
+                    case "getString":
+                        return (Integer) args[0] == 1 ? table : current[0];
+                    default:
+                        return null;
+                }
+            });
+        }
+    }
+}